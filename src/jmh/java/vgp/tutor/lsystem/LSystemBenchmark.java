@@ -0,0 +1,180 @@
+package vgp.tutor.lsystem;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the hot paths of the L-system core: rewriting, compiling the
+ * turtle program, interpreting it, and the complete recompute as done by
+ * PjLSystem without filling the JavaView polygon set.
+ * <p>
+ * Besides the number of invocations, each benchmark reports the number of
+ * symbols or vertices processed per second as secondary results. Run with
+ * <code>-prof gc</code> to obtain allocation rates.
+ * <p>
+ * The number of generations of each grammar is chosen as the smallest one
+ * whose state has at least targetLength symbols.
+ *
+ * @version		17.10.26, 1.00 created
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LSystemBenchmark {
+    /** Name of grammar, see setGrammar(). */
+    @Param({"tree", "koch", "dragon", "hilbert", "plant", "bush"})
+    public	String		grammar;
+    /** Minimal length of the derived state. */
+    @Param({"100000", "3000000"})
+    public	long			targetLength;
+    /** Number of threads of rewriting and turtle, 0 for all available processors. */
+    @Param({"1", "0"})
+    public	int			parallelism;
+
+    protected	LSystem			m_lsystem;
+    protected	LSystem			m_cachedLSystem;
+    protected	int				m_numGenerations;
+    protected	long				m_length;
+    protected	double			m_delta;
+    protected	LSystemProgram	m_program;
+    protected	LSystemTurtle	m_turtle;
+
+    /** Number of processed symbols and vertices, reported per second by JMH. */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public	long		symbols;
+        public	long		vertices;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            symbols	= 0;
+            vertices	= 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int numThreads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        m_lsystem = new LSystem();
+        m_lsystem.setParallelism(numThreads);
+        m_delta = setGrammar(m_lsystem, grammar);
+        m_numGenerations = 0;
+        while (m_lsystem.getLength(m_numGenerations) < targetLength)
+            m_numGenerations++;
+        m_length = m_lsystem.getLength(m_numGenerations);
+
+        m_cachedLSystem = new LSystem();
+        m_cachedLSystem.setCacheSize(64L<<20);
+        setGrammar(m_cachedLSystem, grammar);
+
+        m_lsystem.iterate(m_numGenerations);
+        m_program = new LSystemProgram();
+        m_program.compile(m_lsystem.stream());
+        m_turtle = new LSystemTurtle();
+        m_turtle.setParallelism(numThreads);
+        m_turtle.interpret(m_program, m_delta);
+    }
+    /**
+     * Set a classic grammar.
+     * @return		angle of the grammar in degrees.
+     */
+    protected static double setGrammar(LSystem lsystem, String name) {
+        switch (name) {
+            case "tree":
+                lsystem.setGrammar(new char[] {'F', '+', '-', '[', ']'}, "F",
+                                   new String[] {"F[+F]F[-F]F", "+", "-", "[", "]"});
+                return 25.7;
+            case "koch":
+                lsystem.setGrammar(new char[] {'F', '+', '-'}, "F",
+                                   new String[] {"F+F-F-F+F", "+", "-"});
+                return 90.;
+            case "dragon":
+                lsystem.setGrammar(new char[] {'F', 'X', 'Y', '+', '-'}, "FX",
+                                   new String[] {"F", "X+YF+", "-FX-Y", "+", "-"});
+                return 90.;
+            case "hilbert":
+                lsystem.setGrammar(new char[] {'A', 'B', 'F', '+', '-'}, "A",
+                                   new String[] {"+BF-AF-FB+", "-AF+BF+FA-", "F", "+", "-"});
+                return 90.;
+            case "plant":
+                lsystem.setGrammar(new char[] {'X', 'F', '+', '-', '[', ']'}, "X",
+                                   new String[] {"F+[[X]-X]-F[-FX]+X", "FF", "+", "-", "[", "]"});
+                return 25.;
+            case "bush":
+                lsystem.setGrammar(new char[] {'F', '+', '-', '[', ']'}, "F",
+                                   new String[] {"FF-[-F+F+F]+[+F-F-F]", "+", "-", "[", "]"});
+                return 22.5;
+            default:
+                throw new IllegalArgumentException("unknown grammar "+name);
+        }
+    }
+
+    /** Rewrite generation by generation. */
+    @Benchmark
+    public void rewrite(Counters counters) {
+        m_lsystem.iterate(m_numGenerations);
+        counters.symbols += m_length;
+    }
+    /** Assemble the state from cached expansions as after a change of the number of iterations. */
+    @Benchmark
+    public void rewriteCached(Counters counters) {
+        m_cachedLSystem.iterate(m_numGenerations);
+        counters.symbols += m_length;
+    }
+    /** Compile the materialized state into a turtle program. */
+    @Benchmark
+    public LSystemProgram compile(Counters counters) {
+        m_program.compile(m_lsystem.stream());
+        counters.symbols += m_length;
+        return m_program;
+    }
+    /** Compile a lazy derivation into a turtle program without materializing the state. */
+    @Benchmark
+    public LSystemProgram compileLazy(Counters counters) {
+        LSystemProgram program = new LSystemProgram();
+        program.compile(m_lsystem.cursor(m_numGenerations));
+        counters.symbols += m_length;
+        return program;
+    }
+    /** Interpret the program into vertices and polygons. */
+    @Benchmark
+    public LSystemTurtle interpret(Counters counters) {
+        m_turtle.interpret(m_program, m_delta);
+        counters.vertices += m_turtle.getNumVertices();
+        return m_turtle;
+    }
+    /** Recompute vertices only, as after a change of the angle. */
+    @Benchmark
+    public LSystemTurtle interpretVertices(Counters counters) {
+        m_turtle.interpretVertices(m_program, m_delta+1.);
+        counters.vertices += m_turtle.getNumVertices();
+        return m_turtle;
+    }
+    /** Rewrite, compile and interpret as PjLSystem.recompute() does. */
+    @Benchmark
+    public LSystemTurtle recompute(Counters counters) {
+        m_lsystem.iterate(m_numGenerations);
+        m_program.compile(m_lsystem.stream());
+        m_turtle.interpret(m_program, m_delta);
+        counters.symbols	+= m_length;
+        counters.vertices	+= m_turtle.getNumVertices();
+        return m_turtle;
+    }
+}
@@ -1,10 +1,42 @@
 package vgp.tutor.lsystem;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+
 /**
- * Generate a tree with a context-free L-system.
+ * Generate a tree with a context-free L-system, whose rules may choose
+ * among weighted alternatives at random, see LSystemGrammar, or with a
+ * parametric and context-sensitive L-system, see LSystemParametricGrammar.
+ * <p>
+ * If a cache size is set, states are assembled from cached expansions of
+ * symbols instead of rewritten generation by generation. The cache serves only
+ * states which are neither packed nor rewritten in parallel, i.e. with the
+ * default parallelism only states shorter than the parallel threshold of
+ * DEF_PARALLEL_THRESHOLD = 1&lt;&lt;16 symbols, see setParallelThreshold().
  *
  * @author		Konrad Polthier
- * @version		04.11.01, 2.50 revised (kp) Current state m_tree converted into char[] from string.<br>
+ * @version		17.10.26, 3.54 revised Cache is used while generations are measured.<br>
+ *					17.10.26, 3.53 revised Large states are rewritten in parallel instead of cached.<br>
+ *					17.10.26, 3.52 revised Cache is bypassed while generations are measured.<br>
+ *					17.10.26, 3.51 revised Packed states are released with the state.<br>
+ *					17.10.26, 3.50 revised Contexts pass over rotations of the 3D turtle.<br>
+ *					17.10.26, 3.40 revised Metrics of each generation.<br>
+ *					17.10.26, 3.30 revised Window of the current state.<br>
+ *					17.10.26, 3.20 revised Parametric and context-sensitive rules.<br>
+ *					17.10.26, 3.10 revised Stochastic rules with reproducible random choices.<br>
+ *					17.10.26, 3.00 revised Packed states may be held off heap.<br>
+ *					17.10.26, 2.99 revised Bit-packed states of small alphabets.<br>
+ *					17.10.26, 2.98 revised Iteration continues from a previous generation.<br>
+ *					17.10.26, 2.97 revised Cooperative cancellation and exchange of states.<br>
+ *					17.10.26, 2.96 revised Grammar may be set by other applications.<br>
+ *					17.10.26, 2.95 revised Number of occurrences of symbols without expansion.<br>
+ *					17.10.26, 2.90 revised Cache of expanded symbols and length queries.<br>
+ *					17.10.26, 2.80 revised Streams and lazy derivation of states.<br>
+ *					17.10.26, 2.70 revised Parallel rewriting of large generations.<br>
+ *					17.10.26, 2.60 revised Byte-coded rewrite engine with reused state buffers.<br>
+ *					04.11.01, 2.50 revised (kp) Current state m_tree converted into char[] from string.<br>
  *					30.10.01, 2.00 revised (kp) Converted into a project.<br>
  *					16.02.00, 1.00 created (kp)
  */
@@ -24,8 +56,70 @@ public class LSystem {
      * must exist one rule per character.
      */
     protected	String []	m_rule;
-    /** Container to hold the current state of the L-system. */
+    /** Seed of the random choices of stochastic rules. */
+    protected	long			m_seed;
+    /**
+     * Container to hold the current state of the L-system as string. If the
+     * state was computed by the rewrite engine the string is only created
+     * on demand by <code>getTree()</code>.
+     */
     protected	String		m_tree;
+    /** Compiled grammar used by the rewrite engine. */
+    protected	LSystemGrammar	m_grammar;
+    /** Byte-coded current state, valid up to m_stateLen. */
+    protected	byte []		m_state;
+    /** Number of symbols in the current state. */
+    protected	int			m_stateLen;
+    /** Generation of the byte-coded state, -1 if there is none. */
+    protected	int			m_generation			= -1;
+    /** Seed the current state was derived with. */
+    protected	long			m_stateSeed;
+    /** Spare buffer which receives the next generation and is reused. */
+    protected	byte []		m_nextState;
+    /** True if the current state is held in m_packed instead of m_state. */
+    protected	boolean		m_bPacked;
+    /** True if the current state is held in m_modules since the grammar is parametric. */
+    protected	boolean		m_bParametric;
+    /** Modules of the current state and spare modules of the next generation of a parametric grammar. */
+    protected	LSystemModules	m_modules;
+    protected	LSystemModules	m_nextModules;
+    /** Matching brackets of the modules, reused in each generation of a context-sensitive grammar. */
+    protected	int []		m_bracket;
+    /** Default symbols which are passed over when matching contexts. */
+    protected	String		m_defContextIgnore	= "+-&^\\/|";
+    /** Symbols which are passed over when matching contexts, e.g. rotations of the turtle. */
+    protected	String		m_contextIgnore		= m_defContextIgnore;
+    /** Bit-packed current state and spare state of the next generation, created on demand. */
+    protected	LSystemPackedState	m_packed;
+    protected	LSystemPackedState	m_nextPacked;
+    /** Default minimal length of a state which is bit-packed. */
+    public static final	long	DEF_PACKED_THRESHOLD	= 1L<<24;
+    /** Minimal length of a state which is bit-packed if the alphabet is small. */
+    protected	long			m_packedThreshold		= DEF_PACKED_THRESHOLD;
+    /** Flag whether packed states are held in direct buffers outside of the Java heap. */
+    protected	boolean		m_bOffHeap;
+    /** Maximal length of the state, limited by the size of Java arrays. */
+    public static final	int	MAX_STATE_LENGTH	= Integer.MAX_VALUE-8;
+    /** Default minimal length of a state which is rewritten in parallel. */
+    public static final	int	DEF_PARALLEL_THRESHOLD	= 1<<16;
+    /** Number of chunks per thread, more chunks balance productions of different length. */
+    protected static final	int	CHUNKS_PER_THREAD	= 4;
+    /** Number of threads used to rewrite a generation, 1 for serial rewriting. */
+    protected	int			m_parallelism			= Runtime.getRuntime().availableProcessors();
+    /** Minimal length of a state which is rewritten in parallel. */
+    protected	int			m_parallelThreshold	= DEF_PARALLEL_THRESHOLD;
+    /** Pool of threads for parallel rewriting, created on demand. */
+    protected	ForkJoinPool	m_pool;
+    /** Memory budget of the cache of expanded symbols in bytes, 0 if disabled. */
+    protected	long			m_cacheSize;
+    /** Cache of expanded symbols of the current grammar, created on demand. */
+    protected	LSystemExpansionCache	m_cache;
+    /** Number of symbols rewritten between two checks of the cancel signal. */
+    protected static final	int	CANCEL_INTERVAL	= 1<<20;
+    /** Signal which requests to abort the iteration, null if never cancelled. */
+    protected	BooleanSupplier	m_cancelled;
+    /** Metrics which measure each generation, null if not measured. */
+    protected	LSystemMetrics	m_metrics;
 
     /** Constructor. */
     public LSystem() {
@@ -40,15 +134,681 @@ public class LSystem {
         m_rule = new String[numLetters];
         for (int i=0; i<numLetters; i++)
             m_rule[i] = m_defRule[i];
+        m_seed = 0;
+        m_contextIgnore = m_defContextIgnore;
         m_tree = "";
+        m_stateLen = 0;
+        releasePacked();
+        m_bPacked = false;
+        m_bParametric = false;
+        m_generation = -1;
+    }
+    /**
+     * Replace alphabet, axiom and rules of the L-system. The current state is reset.
+     * @param		alphabet		set of available characters.
+     * @param		axiom			initial configuration.
+     * @param		rule			production rule of each character of the alphabet.
+     */
+    public void setGrammar(char [] alphabet, String axiom, String [] rule) {
+        if (alphabet.length != rule.length)
+            throw new IllegalArgumentException("number of rules "+rule.length+" differs from size of alphabet "+alphabet.length);
+        m_alphabet	= alphabet.clone();
+        m_axiom		= axiom;
+        m_rule		= rule.clone();
+        m_tree		= "";
+        m_stateLen	= 0;
+        releasePacked();
+        m_bPacked	= false;
+        m_bParametric	= false;
+        m_generation	= -1;
+    }
+    /** Get seed of the random choices of stochastic rules. */
+    public long getSeed() {
+        return m_seed;
+    }
+    /**
+     * Set seed of the random choices of stochastic rules. The same seed always
+     * derives the same states, independent of parallelism and caches.
+     */
+    public void setSeed(long seed) {
+        m_seed = seed;
+    }
+    /** Get symbols which are passed over when matching contexts of parametric rules. */
+    public String getContextIgnore() {
+        return m_contextIgnore;
+    }
+    /**
+     * Set symbols which are passed over when matching the left and right
+     * context of parametric rules, by default the rotations "+-&amp;^\/|" of the turtle.
+     */
+    public void setContextIgnore(String symbols) {
+        m_contextIgnore = symbols;
+    }
+    /**
+     * Get the compiled grammar of the current alphabet, axiom and rules.
+     * The grammar is recompiled if any of them has changed since the last call.
+     */
+    public LSystemGrammar getGrammar() {
+        if (m_grammar == null || !m_grammar.isCompiledFrom(m_alphabet, m_axiom, m_rule))
+            m_grammar = new LSystemGrammar(m_alphabet, m_axiom, m_rule);
+        return m_grammar;
     }
 
     /**
      * Generate the tree by applying the rules until the
      * description has a given length.
+     * <p>
+     * The state is kept as byte codes of the compiled grammar, and the two
+     * buffers of the current and the next generation are swapped and reused.
+     * The result is identical to a replacement of characters in strings.
+     * If the alphabet has at most 16 symbols then generations whose length
+     * reaches the packed threshold are held bit-packed, see LSystemPackedState.
+     * Stochastic grammars are never assembled from the cache, since expansions
+     * of a symbol differ with its position. The state of a parametric grammar
+     * is a sequence of modules which is rewritten serially.
      * @param		maxLength		maximal length of tree until we continue to iterate.
      */
     public void iterate(int maxLength) {
+        LSystemGrammar grammar = getGrammar();
+        m_generation = -1;
+        m_bPacked = false;
+        m_bParametric = false;
+        m_stateSeed = m_seed;
+        if (!grammar.isByteCoded()) {
+            if (grammar.isStochastic())
+                throw new IllegalStateException("stochastic rules require at most "+LSystemGrammar.MAX_NUM_SYMBOLS+" symbols");
+            if (LSystemParametricGrammar.isParametric(m_rule))
+                throw new IllegalStateException("parametric rules require at most "+LSystemGrammar.MAX_NUM_SYMBOLS+" symbols");
+            iterateString(maxLength);
+            return;
+        }
+        m_tree = null;
+        if (grammar.isParametric()) {
+            if (m_modules == null)
+                m_modules = new LSystemModules();
+            m_modules.set(grammar.getParametric().getAxiom());
+            m_stateLen		= 0;
+            m_bParametric	= true;
+            m_generation		= 0;
+            rewriteGenerations(grammar, maxLength);
+            return;
+        }
+        byte [] axiom = grammar.getAxiom();
+        if (isCached(grammar, maxLength)) {
+            LSystemMetrics.Span span = m_metrics == null ? null : m_metrics.begin(LSystemMetrics.STAGE_GENERATION);
+            iterateCached(grammar, maxLength);
+            m_generation = maxLength;
+            if (span != null)
+                m_metrics.endAssembledGeneration(span, m_generation, getStateLength(), getStateSize());
+            return;
+        }
+        m_state = assureSize(m_state, axiom.length);
+        System.arraycopy(axiom, 0, m_state, 0, axiom.length);
+        m_stateLen = axiom.length;
+        m_generation = 0;
+        rewriteGenerations(grammar, maxLength);
+    }
+    /**
+     * Continue the iteration from the current state until it has a given number
+     * of generations. Each generation is rewritten from the previous one, hence,
+     * a sequence of calls with increasing numbers costs as much as one call of
+     * <code>iterate</code> while all intermediate generations can be inspected.
+     * If the current state is no earlier generation of the current grammar
+     * and seed, then the state is derived from the axiom.
+     * @param		numGenerations		number of applications of the rules.
+     */
+    public void advance(int numGenerations) {
+        LSystemGrammar grammar = m_grammar;
+        if (m_generation < 0 || m_generation > numGenerations || grammar != getGrammar() ||
+            (grammar.isStochastic() && m_stateSeed != m_seed)) {
+            iterate(numGenerations);
+            return;
+        }
+        if (m_generation < numGenerations)
+            m_tree = null;
+        rewriteGenerations(grammar, numGenerations);
+    }
+    /** Get number of generations of the current state, -1 if not known. */
+    public int getGeneration() {
+        return m_generation;
+    }
+    /**
+     * Rewrite the state generation by generation. The byte-coded state is
+     * packed before the first generation whose length reaches the threshold.
+     * Each generation is measured if metrics are set.
+     */
+    private void rewriteGenerations(LSystemGrammar grammar, int numGenerations) {
+        while (m_generation < numGenerations) {
+            checkCancelled();
+            LSystemMetrics.Span span = m_metrics == null ? null : m_metrics.begin(LSystemMetrics.STAGE_GENERATION);
+            rewriteGeneration(grammar);
+            if (span != null)
+                m_metrics.endGeneration(span, m_generation, getStateLength(), getStateSize());
+        }
+    }
+    /** Rewrite the current state into the next generation and swap the buffers. */
+    private void rewriteGeneration(LSystemGrammar grammar) {
+        if (m_bParametric) {
+            rewriteModules(grammar);
+            LSystemModules tmp	= m_modules;
+            m_modules			= m_nextModules;
+            m_nextModules		= tmp;
+            m_generation++;
+            return;
+        }
+        // the next length of a stochastic grammar is bounded by the longest production
+        long nextLen = grammar.isStochastic() ? (long)m_stateLen*grammar.getMaxProductionLength() :
+            grammar.getLength(m_generation+1);
+        if (!m_bPacked && isPacked(grammar, nextLen)) {
+            int bits = LSystemPackedState.getBitsPerSymbol(grammar.getNumSymbols());
+            m_packed = newPackedState(m_packed, bits);
+            m_packed.set(m_state, m_stateLen);
+            m_stateLen	= 0;
+            m_bPacked	= true;
+        }
+        if (m_bPacked) {
+            if (m_parallelism > 1 && m_packed.getLength() >= m_parallelThreshold)
+                rewritePackedParallel(grammar, m_generation+1);
+            else
+                rewritePackedSerial(grammar, m_generation+1);
+            LSystemPackedState tmp	= m_packed;
+            m_packed					= m_nextPacked;
+            m_nextPacked				= tmp;
+            m_generation++;
+            return;
+        }
+        int newLen;
+        if (m_parallelism > 1 && m_stateLen >= m_parallelThreshold)
+            newLen = rewriteParallel(grammar, m_generation+1);
+        else
+            newLen = rewriteSerial(grammar, m_generation+1);
+        byte [] tmp	= m_state;
+        m_state		= m_nextState;
+        m_nextState	= tmp;
+        m_stateLen	= newLen;
+        m_generation++;
+    }
+    /**
+     * Rewrite the modules of a parametric grammar into m_nextModules on the calling
+     * thread. The brackets are matched once if some rule has a context.
+     */
+    private void rewriteModules(LSystemGrammar grammar) {
+        LSystemParametricGrammar parametric = grammar.getParametric();
+        if (m_nextModules == null)
+            m_nextModules = new LSystemModules();
+        m_nextModules.clear();
+        int len = m_modules.getLength();
+        if (parametric.isContextSensitive())
+            m_bracket = parametric.matchBrackets(m_modules, m_bracket);
+        boolean [] ignore = new boolean[grammar.getNumSymbols()];
+        for (int i=0; i<m_contextIgnore.length(); i++) {
+            int code = grammar.getCode(m_contextIgnore.charAt(i));
+            if (code >= 0)
+                ignore[code] = true;
+        }
+        double [] vars		= new double[parametric.getNumVars()];
+        double [] stack	= new double[parametric.getMaxStack()];
+        for (int from=0; from<len; from+=CANCEL_INTERVAL) {
+            checkCancelled();
+            int to = (int)Math.min(len, (long)from+CANCEL_INTERVAL);
+            parametric.rewrite(m_modules, from, to, m_nextModules, m_bracket, ignore, vars, stack);
+        }
+    }
+    /**
+     * Generate the state by copying cached expansions of the symbols of the axiom.
+     * Expansions computed for previous calls are reused, hence, changing the
+     * number of iterations back and forth is nearly free.
+     */
+    protected void iterateCached(LSystemGrammar grammar, int maxLength) {
+        if (m_cache == null || !m_cache.getGrammar().isCompiledFrom(m_alphabet, m_axiom, m_rule))
+            m_cache = new LSystemExpansionCache(grammar, m_cacheSize);
+        checkCancelled();
+        long len = grammar.getLength(maxLength);
+        checkLength(len, maxLength);
+        m_state = assureSize(m_state, (int)len);
+        m_cache.expand(m_cache.getGrammar().getAxiom(), maxLength, m_state, 0);
+        m_stateLen = (int)len;
+    }
+    /**
+     * Rewrite the current state into m_nextState on the calling thread.
+     * @param		generation		number of the generation to compute, used in messages.
+     * @return		length of the next generation.
+     */
+    protected int rewriteSerial(LSystemGrammar grammar, int generation) {
+        long key = LSystemGrammar.getKey(m_stateSeed, generation-1);
+        long newLen;
+        if (grammar.isStochastic()) {
+            newLen = 0;
+            for (int from=0, to; from<m_stateLen; from=to) {
+                checkCancelled();
+                to		= (int)Math.min((long)from+CANCEL_INTERVAL, m_stateLen);
+                newLen	+= grammar.countRewrite(m_state, from, to, key);
+            }
+        } else {
+            newLen = grammar.getLength(generation);
+        }
+        checkLength(newLen, generation);
+        m_nextState = assureSize(m_nextState, (int)newLen);
+        int off = 0;
+        for (int from=0, to; from<m_stateLen; from=to) {
+            checkCancelled();
+            to	= (int)Math.min((long)from+CANCEL_INTERVAL, m_stateLen);
+            off	= grammar.rewrite(m_state, from, to, m_nextState, off, key);
+        }
+        return (int)newLen;
+    }
+    /**
+     * Rewrite the current state into m_nextState using the thread pool.
+     * The state is split into chunks, the output length of each chunk is computed
+     * in parallel, and a prefix sum over these lengths gives each chunk its offset
+     * in the shared output buffer. Then all chunks are rewritten in parallel
+     * directly to their offsets. The result is identical to the serial rewrite.
+     * @param		generation		number of the generation to compute, used in messages.
+     * @return		length of the next generation.
+     */
+    protected int rewriteParallel(final LSystemGrammar grammar, int generation) {
+        ForkJoinPool pool = getPool();
+        final long key		= LSystemGrammar.getKey(m_stateSeed, generation-1);
+        final byte [] src	= m_state;
+        int len				= m_stateLen;
+        int numChunks		= Math.min(m_parallelism*CHUNKS_PER_THREAD, len);
+        final int [] bound	= new int[numChunks+1];
+        for (int k=0; k<=numChunks; k++)
+            bound[k] = (int)((long)len*k/numChunks);
+
+        final long [] offset = new long[numChunks+1];
+        ForkJoinTask<?> [] task = new ForkJoinTask<?>[numChunks];
+        for (int k=0; k<numChunks; k++) {
+            final int chunk = k;
+            task[k] = pool.submit(() -> {
+                offset[chunk+1] = grammar.countRewrite(src, bound[chunk], bound[chunk+1], key);
+            });
+        }
+        joinAll(task);
+        for (int k=0; k<numChunks; k++)
+            offset[k+1] += offset[k];
+        long newLen = offset[numChunks];
+        checkLength(newLen, generation);
+        checkCancelled();
+
+        m_nextState = assureSize(m_nextState, (int)newLen);
+        final byte [] dst = m_nextState;
+        for (int k=0; k<numChunks; k++) {
+            final int chunk = k;
+            task[k] = pool.submit(() -> {
+                grammar.rewrite(src, bound[chunk], bound[chunk+1], dst, (int)offset[chunk], key);
+            });
+        }
+        joinAll(task);
+        return (int)newLen;
+    }
+    /**
+     * Check whether a generation is assembled from the cache of expanded symbols.
+     * The cache expands on the calling thread, hence, states which are rewritten
+     * in parallel are not cached, nor are packed states.
+     */
+    private boolean isCached(LSystemGrammar grammar, int numGenerations) {
+        if (m_cacheSize == 0 || grammar.isStochastic())
+            return false;
+        long length = grammar.getLength(numGenerations);
+        return !isPacked(grammar, length) && (m_parallelism <= 1 || length < m_parallelThreshold);
+    }
+    /**
+     * Check whether a state of a given length is bit-packed, which requires
+     * at most 16 symbols unless packed states are held off heap. Packing is
+     * also used if the length exceeds the maximal length of a byte-coded state.
+     */
+    private boolean isPacked(LSystemGrammar grammar, long length) {
+        if (!m_bOffHeap && LSystemPackedState.getBitsPerSymbol(grammar.getNumSymbols()) > LSystemPackedState.MAX_BITS)
+            return false;
+        return length >= m_packedThreshold || length > MAX_STATE_LENGTH;
+    }
+    /**
+     * Get a packed state with a number of bits per symbol, which reuses
+     * a given state if it is held where packed states currently are.
+     */
+    private LSystemPackedState newPackedState(LSystemPackedState packed, int bits) {
+        if (packed == null || (packed instanceof LSystemOffHeapState) != m_bOffHeap) {
+            if (packed != null)
+                packed.release();
+            return m_bOffHeap ? new LSystemOffHeapState(bits) : new LSystemPackedState(bits);
+        }
+        if (packed.getBitsPerSymbol() != bits)
+            packed.setBitsPerSymbol(bits);
+        return packed;
+    }
+    /**
+     * Drop the words of the packed states, which otherwise stay reachable as long
+     * as this L-system, so the garbage collector can return their memory.
+     * The current state must not be packed.
+     */
+    private void releasePacked() {
+        if (m_packed != null)
+            m_packed.release();
+        if (m_nextPacked != null)
+            m_nextPacked.release();
+        m_packed		= null;
+        m_nextPacked	= null;
+    }
+    /** Get spare packed state which receives the next generation. */
+    private LSystemPackedState getNextPacked() {
+        m_nextPacked = newPackedState(m_nextPacked, m_packed.getBitsPerSymbol());
+        return m_nextPacked;
+    }
+    /**
+     * Rewrite the packed state into m_nextPacked on the calling thread,
+     * in blocks of whole words between which the cancel signal is checked.
+     * @param		generation		number of the generation to compute, used in messages.
+     */
+    protected void rewritePackedSerial(LSystemGrammar grammar, int generation) {
+        LSystemPackedState src	= m_packed;
+        LSystemPackedState dst	= getNextPacked();
+        long key			= LSystemGrammar.getKey(m_stateSeed, generation-1);
+        long len			= src.getLength();
+        long interval		= CANCEL_INTERVAL/src.m_perWord*src.m_perWord;
+        long newLen;
+        if (grammar.isStochastic()) {
+            newLen = 0;
+            for (long from=0, to; from<len; from=to) {
+                checkCancelled();
+                to		= Math.min(from+interval, len);
+                newLen	+= src.countRewrite(grammar, from, to, key);
+            }
+        } else {
+            newLen = grammar.getLength(generation);
+        }
+        checkPackedLength(newLen, dst, generation);
+        dst.assureCapacity(newLen);
+        long [] head	= new long[1];
+        long off		= 0;
+        for (long from=0, to; from<len; from=to) {
+            checkCancelled();
+            to = Math.min(from+interval, len);
+            long end = src.rewrite(grammar, from, to, dst, off, key, head, 0);
+            dst.combineHead(off, head[0]);
+            off = end;
+        }
+        dst.setLength(newLen);
+    }
+    /**
+     * Rewrite the packed state into m_nextPacked using the thread pool. As in
+     * <code>rewriteParallel</code> the offsets of the chunks are a prefix sum
+     * of their output lengths. Chunks start at word boundaries of the source,
+     * and the head words of chunks whose output starts within a word of the
+     * previous chunk are combined after all chunks have been rewritten.
+     * @param		generation		number of the generation to compute, used in messages.
+     */
+    protected void rewritePackedParallel(final LSystemGrammar grammar, int generation) {
+        ForkJoinPool pool = getPool();
+        final LSystemPackedState src	= m_packed;
+        final LSystemPackedState dst	= getNextPacked();
+        final long key					= LSystemGrammar.getKey(m_stateSeed, generation-1);
+        long len				= src.getLength();
+        int perWord			= src.m_perWord;
+        long numWords			= (len+perWord-1)/perWord;
+        int numChunks			= (int)Math.min(m_parallelism*CHUNKS_PER_THREAD, numWords);
+        final long [] bound	= new long[numChunks+1];
+        for (int k=0; k<=numChunks; k++)
+            bound[k] = Math.min(numWords*k/numChunks*perWord, len);
+
+        final long [] offset = new long[numChunks+1];
+        ForkJoinTask<?> [] task = new ForkJoinTask<?>[numChunks];
+        for (int k=0; k<numChunks; k++) {
+            final int chunk = k;
+            task[k] = pool.submit(() -> {
+                offset[chunk+1] = src.countRewrite(grammar, bound[chunk], bound[chunk+1], key);
+            });
+        }
+        joinAll(task);
+        for (int k=0; k<numChunks; k++)
+            offset[k+1] += offset[k];
+        long newLen = offset[numChunks];
+        checkPackedLength(newLen, dst, generation);
+        checkCancelled();
+
+        dst.assureCapacity(newLen);
+        final long [] head = new long[numChunks];
+        for (int k=0; k<numChunks; k++) {
+            final int chunk = k;
+            task[k] = pool.submit(() -> {
+                src.rewrite(grammar, bound[chunk], bound[chunk+1], dst, offset[chunk], key, head, chunk);
+            });
+        }
+        joinAll(task);
+        for (int k=0; k<numChunks; k++)
+            dst.combineHead(offset[k], head[k]);
+        dst.setLength(newLen);
+    }
+    private static void checkPackedLength(long newLen, LSystemPackedState packed, int generation) {
+        if (newLen > packed.getMaxLength())
+            throw new IllegalStateException("Length of packed state exceeds "+packed.getMaxLength()+" in iteration "+generation);
+    }
+    private static void joinAll(ForkJoinTask<?> [] task) {
+        for (int k=0; k<task.length; k++)
+            task[k].join();
+    }
+    private static void checkLength(long newLen, int generation) {
+        if (newLen > MAX_STATE_LENGTH)
+            throw new IllegalStateException("Length of state exceeds "+MAX_STATE_LENGTH+" in iteration "+generation);
+    }
+    /**
+     * Set a signal which is polled during the iteration. If the signal turns true
+     * then <code>iterate</code> throws a CancellationException and the state is undefined.
+     * @param		cancelled		signal, or null to never cancel.
+     */
+    public void setCancelSignal(BooleanSupplier cancelled) {
+        m_cancelled = cancelled;
+    }
+    /** Throw a CancellationException if the cancel signal has turned true. */
+    protected void checkCancelled() {
+        if (m_cancelled != null && m_cancelled.getAsBoolean())
+            throw new CancellationException("iteration of L-system cancelled");
+    }
+    /** Get metrics which measure each generation, null if not measured. */
+    public LSystemMetrics getMetrics() {
+        return m_metrics;
+    }
+    /**
+     * Set metrics which measure time, length and size of each generation
+     * rewritten from the previous one. A state assembled from the cache is
+     * measured as a single generation, see setCacheSize().
+     * @param		metrics		metrics, or null to not measure.
+     */
+    public void setMetrics(LSystemMetrics metrics) {
+        m_metrics = metrics;
+    }
+    /**
+     * Exchange the current state with the state of another L-system, e.g. to
+     * publish a state computed in the background. Alphabet, axiom and rules
+     * remain unchanged, the compiled grammar moves with the state. The spare
+     * packed states of both L-systems are released, since the published state
+     * is not rewritten and the other one is overwritten by its next derivation.
+     */
+    public void swapState(LSystem lsystem) {
+        String tree				= m_tree;
+        LSystemGrammar grammar	= m_grammar;
+        byte [] state			= m_state;
+        byte [] nextState		= m_nextState;
+        int stateLen			= m_stateLen;
+        int generation			= m_generation;
+        long stateSeed			= m_stateSeed;
+        boolean bPacked			= m_bPacked;
+        boolean bParametric		= m_bParametric;
+        LSystemModules modules		= m_modules;
+        LSystemModules nextModules	= m_nextModules;
+        LSystemPackedState packed		= m_packed;
+        LSystemPackedState nextPacked	= m_nextPacked;
+        m_tree					= lsystem.m_tree;
+        m_grammar				= lsystem.m_grammar;
+        m_state					= lsystem.m_state;
+        m_nextState				= lsystem.m_nextState;
+        m_stateLen				= lsystem.m_stateLen;
+        m_generation			= lsystem.m_generation;
+        m_stateSeed				= lsystem.m_stateSeed;
+        m_bPacked				= lsystem.m_bPacked;
+        m_bParametric			= lsystem.m_bParametric;
+        m_modules				= lsystem.m_modules;
+        m_nextModules			= lsystem.m_nextModules;
+        m_packed				= lsystem.m_packed;
+        m_nextPacked			= lsystem.m_nextPacked;
+        lsystem.m_tree			= tree;
+        lsystem.m_grammar		= grammar;
+        lsystem.m_state			= state;
+        lsystem.m_nextState		= nextState;
+        lsystem.m_stateLen		= stateLen;
+        lsystem.m_generation	= generation;
+        lsystem.m_stateSeed		= stateSeed;
+        lsystem.m_bPacked		= bPacked;
+        lsystem.m_bParametric	= bParametric;
+        lsystem.m_modules		= modules;
+        lsystem.m_nextModules	= nextModules;
+        lsystem.m_packed		= packed;
+        lsystem.m_nextPacked	= nextPacked;
+        if (m_nextPacked != null)
+            m_nextPacked.release();
+        if (lsystem.m_nextPacked != null)
+            lsystem.m_nextPacked.release();
+    }
+    /** Get pool of threads for parallel rewriting with the current degree of parallelism. */
+    protected ForkJoinPool getPool() {
+        if (m_pool == null || m_pool.getParallelism() != m_parallelism) {
+            if (m_pool != null)
+                m_pool.shutdown();
+            m_pool = new ForkJoinPool(m_parallelism);
+        }
+        return m_pool;
+    }
+    /** Get memory budget of the cache of expanded symbols in bytes. */
+    public long getCacheSize() {
+        return m_cacheSize;
+    }
+    /**
+     * Set memory budget of the cache of expanded symbols. If positive, then
+     * the state is assembled from cached expansions of (symbol, generations)
+     * instead of being rewritten generation by generation. The cache is not
+     * used for states which are rewritten in parallel, see setParallelThreshold(),
+     * nor for packed states.
+     * The budget includes an estimate of the memory of each cache entry.
+     * @param		numBytes		memory budget in bytes, 0 disables the cache.
+     */
+    public void setCacheSize(long numBytes) {
+        m_cacheSize = Math.max(0, numBytes);
+        if (m_cacheSize == 0)
+            m_cache = null;
+        else if (m_cache != null)
+            m_cache.setMaxBytes(m_cacheSize);
+    }
+    /**
+     * Get length of a generation without computing it.
+     * @param		numGenerations		number of applications of the rules to the axiom.
+     * @return		length of state, or -1 if the grammar cannot be byte-coded, is stochastic or parametric.
+     */
+    public long getLength(int numGenerations) {
+        LSystemGrammar grammar = getGrammar();
+        if (!grammar.isByteCoded() || grammar.isStochastic() || grammar.isParametric())
+            return -1;
+        return grammar.getLength(numGenerations);
+    }
+    /**
+     * Get the number of occurrences of a character in a generation without computing it.
+     * @param		c						character of the alphabet.
+     * @param		numGenerations		number of applications of the rules to the axiom.
+     * @return		number of occurrences, or -1 if the grammar cannot be byte-coded, is stochastic or parametric.
+     */
+    public long getSymbolCount(char c, int numGenerations) {
+        LSystemGrammar grammar = getGrammar();
+        if (!grammar.isByteCoded() || grammar.isStochastic() || grammar.isParametric())
+            return -1;
+        int code = grammar.getCode(c);
+        if (code < 0)
+            return 0;
+        return grammar.getSymbolCounts(numGenerations)[code];
+    }
+    /** Get number of threads used to rewrite a generation. */
+    public int getParallelism() {
+        return m_parallelism;
+    }
+    /**
+     * Set number of threads used to rewrite a generation.
+     * @param		parallelism		number of threads, 1 switches to serial rewriting.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive, found "+parallelism);
+        m_parallelism = parallelism;
+    }
+    /** Get minimal length of a state which is rewritten in parallel. */
+    public int getParallelThreshold() {
+        return m_parallelThreshold;
+    }
+    /**
+     * Set minimal length of a state which is rewritten in parallel. Shorter
+     * states are rewritten serially since the overhead of threads dominates.
+     */
+    public void setParallelThreshold(int threshold) {
+        m_parallelThreshold = Math.max(1, threshold);
+    }
+    /** Get minimal length of a state which is bit-packed. */
+    public long getPackedThreshold() {
+        return m_packedThreshold;
+    }
+    /**
+     * Set minimal length of a state which is bit-packed if the alphabet has at
+     * most 16 symbols. Packed states need less memory, e.g. 3 instead of 8 bits
+     * per symbol of F+-[], but rewriting and reading them is slightly slower.
+     * @param		threshold		minimal length, Long.MAX_VALUE packs only states
+     *									longer than MAX_STATE_LENGTH.
+     */
+    public void setPackedThreshold(long threshold) {
+        m_packedThreshold = Math.max(0, threshold);
+    }
+    /** Get flag whether packed states are held outside of the Java heap. */
+    public boolean isOffHeap() {
+        return m_bOffHeap;
+    }
+    /**
+     * Set flag whether packed states are held in direct buffers outside of the
+     * Java heap, see LSystemOffHeapState. Off heap, all byte-coded grammars are
+     * packed from the packed threshold on, and the length of a state is only
+     * limited by the direct memory of the JVM. Takes effect with the next packing.
+     */
+    public void setOffHeap(boolean flag) {
+        m_bOffHeap = flag;
+    }
+    /**
+     * Get maximal length of a state of the current grammar which can be
+     * derived with <code>iterate</code>, larger with small alphabets.
+     */
+    public long getMaxLength() {
+        LSystemGrammar grammar = getGrammar();
+        int bits = LSystemPackedState.getBitsPerSymbol(grammar.getNumSymbols());
+        if (!grammar.isByteCoded())
+            return MAX_STATE_LENGTH;
+        if (m_bOffHeap)
+            return LSystemOffHeapState.MAX_WORDS*(64/bits);
+        if (bits > LSystemPackedState.MAX_BITS)
+            return MAX_STATE_LENGTH;
+        return (long)MAX_STATE_LENGTH*(64/bits);
+    }
+    /**
+     * Make sure a state buffer can hold a given number of symbols. Buffers
+     * grow by a factor to avoid reallocation in subsequent generations.
+     */
+    protected static byte [] assureSize(byte [] buffer, int size) {
+        if (buffer != null && buffer.length >= size)
+            return buffer;
+        long newSize = Math.max(size, buffer == null ? 0 : Math.min((long)buffer.length*3/2, MAX_STATE_LENGTH));
+        return new byte[(int)newSize];
+    }
+    /**
+     * Generate the tree by string replacement. Used if the alphabet is too
+     * large to be byte-coded.
+     * @param		maxLength		maximal length of tree until we continue to iterate.
+     */
+    protected void iterateString(int maxLength) {
+        m_stateLen = 0;
+        m_bPacked = false;
+        m_bParametric = false;
         m_tree = new String(m_axiom);
         int [] ruleLen = new int[m_alphabet.length];
         for (int j=0; j<m_alphabet.length; j++)
@@ -84,6 +844,87 @@ public class LSystem {
      * interpreting the string using turtle graphics commands.
      */
     public String getTree() {
+        if (m_tree == null && m_bParametric)
+            m_tree = m_modules.toString(m_grammar);
+        else if (m_tree == null && m_bPacked)
+            m_tree = m_packed.decode(m_grammar);
+        else if (m_tree == null)
+            m_tree = m_grammar.decode(m_state, 0, m_stateLen);
         return m_tree;
     }
+    /**
+     * Get number of symbols of the current state, the number of modules if the
+     * grammar is parametric, without creating the state as string.
+     */
+    public long getStateLength() {
+        if (m_bParametric)
+            return m_modules.getLength();
+        if (m_bPacked)
+            return m_packed.getLength();
+        if (m_tree != null)
+            return m_tree.length();
+        return m_stateLen;
+    }
+    /**
+     * Get approximate size of the current state in bytes, i.e. of its symbols and
+     * parameters without spare buffers.
+     */
+    public long getStateSize() {
+        if (m_bParametric) {
+            int len = m_modules.getLength();
+            return 5L*len+8L*m_modules.m_paramStart[len];
+        }
+        if (m_bPacked)
+            return m_packed.getLength()*m_packed.getBitsPerSymbol()/8;
+        if (m_tree != null)
+            return 2L*m_tree.length();
+        return m_stateLen;
+    }
+    /**
+     * Get a window of the current state as string without creating the whole
+     * state as string, e.g. to display the state page by page. Modules of a
+     * parametric state are shown with their parameters.
+     * @param		from		index of first symbol or module.
+     * @param		len		maximal number of symbols or modules.
+     */
+    public String getTree(long from, int len) {
+        long stateLen = getStateLength();
+        from	= Math.max(0, Math.min(from, stateLen));
+        len	= (int)Math.max(0, Math.min(len, stateLen-from));
+        if (m_bParametric)
+            return m_modules.toString(m_grammar, (int)from, (int)from+len);
+        if (m_bPacked)
+            return m_packed.decode(m_grammar, from, len);
+        if (m_tree != null)
+            return m_tree.substring((int)from, (int)from+len);
+        return m_grammar.decode(m_state, (int)from, len);
+    }
+    /**
+     * Get a stream over the current state which avoids creating the state as string.
+     * The stream becomes invalid with the next call of <code>iterate</code>.
+     */
+    public LSystemStreamIf stream() {
+        if (m_tree == null && m_bParametric)
+            return new LSystemStateStream(m_modules.getCodes(), m_modules.getLength(), m_grammar);
+        if (m_tree == null && m_bPacked)
+            return m_packed.stream(m_grammar);
+        if (m_tree == null)
+            return new LSystemStateStream(m_state, m_stateLen, m_grammar);
+        return new LSystemStateStream(m_tree);
+    }
+    /**
+     * Get a lazy derivation of a generation which expands the axiom on demand
+     * without changing the current state. Memory used by the cursor grows with
+     * the number of generations only. If the grammar cannot be byte-coded or is
+     * parametric then the generation is computed with <code>iterate</code> instead.
+     * @param		numGenerations		number of applications of the rules to the axiom.
+     */
+    public LSystemStreamIf cursor(int numGenerations) {
+        LSystemGrammar grammar = getGrammar();
+        if (!grammar.isByteCoded() || grammar.isParametric()) {
+            iterate(numGenerations);
+            return stream();
+        }
+        return new LSystemCursor(grammar, numGenerations, m_seed);
+    }
 }
\ No newline at end of file
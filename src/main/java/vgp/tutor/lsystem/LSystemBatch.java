@@ -0,0 +1,492 @@
+package vgp.tutor.lsystem;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless batch renderer which runs the L-system core on parameter sweeps
+ * without any display, e.g. on a server:
+ * <pre>
+ *     java vgp.tutor.lsystem.LSystemBatch [-threads n] [-out dir] [-format obj|png|svg|bin] [-size wxh] [-snapshots dir] [-offheap] jobfile
+ * </pre>
+ * Each non-empty line of the job file which does not start with '#' describes
+ * one grammar and the ranges of its parameters as whitespace separated tokens:
+ * <pre>
+ *     name=tree axiom=F rule=F:F[+F]F[-F]F angle=20:30:2.5 depth=3:6 step=0.2
+ *     name=bush axiom=F rule=F:1:F[+F]F;1:F[-F]F;2:F[-F][+F]F angle=25 depth=5 seed=42
+ * </pre>
+ * There is one token <code>rule=c:production</code> per rewritten character c,
+ * whose production may consist of weighted alternatives chosen at random with
+ * the given seed, see LSystemGrammar.
+ * All other characters of axiom and productions are constants. Angles and
+ * depths are either single values or inclusive ranges <code>from:to[:step]</code>.
+ * Each combination of angle and depth is one job, whose polygons are written
+ * as Wavefront OBJ file <code>name_d&lt;depth&gt;_a&lt;angle&gt;.obj</code>, or
+ * rasterized into a PNG image of the given size without creating polygons.
+ * SVG and the binary format of LSystemGeometryWriter are streamed while the
+ * turtle walks, without creating polygons either.
+ * <p>
+ * The jobs of a grammar share their work: the depths are derived in ascending
+ * order, each from the previous one, and compiled once into a turtle program.
+ * The jobs of a depth which differ only in the angle share this program, and
+ * since the polygons do not depend on the angle, only the vertices are
+ * recomputed between two angles interpreted by the same task. All tasks run on
+ * a pool with a bounded number of threads. At most one render task per thread
+ * waits in the pool; if more are due, the derivation renders them itself before
+ * it derives the next depth, so that no more programs are held than threads. Timing of each job and the total
+ * throughput are reported on standard output. If a directory of snapshots is
+ * given, each derived state is saved there, and later runs continue from the
+ * latest saved generation of the grammar. With -offheap, large derived states
+ * are held in direct memory outside of the Java heap.
+ *
+ * @version		17.10.26, 1.72 revised Number of pending render tasks is bounded by the threads.<br>
+ *					17.10.26, 1.71 revised Derivations rewrite on their own thread of the pool.<br>
+ *					17.10.26, 1.70 revised Parametric and context-sensitive rules.<br>
+ *					17.10.26, 1.60 revised Stochastic rules and seed.<br>
+ *					17.10.26, 1.50 revised Option to hold derived states off heap.<br>
+ *					17.10.26, 1.40 revised Derives bit-packed states beyond the length of byte arrays.<br>
+ *					17.10.26, 1.30 revised Snapshots of derived states as cache across runs.<br>
+ *					17.10.26, 1.20 revised Streaming export as SVG and binary geometry.<br>
+ *					17.10.26, 1.10 revised Rendering into PNG images.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemBatch {
+    /** Parameters of one line of the job file. */
+    protected static class Entry {
+        /** Name of the grammar, prefix of output files. */
+        String			m_name;
+        char []			m_alphabet;
+        String			m_axiom;
+        String []		m_rule;
+        /** Angles in degrees. */
+        double []		m_angle;
+        /** Smallest and largest number of generations. */
+        int				m_minDepth;
+        int				m_maxDepth;
+        /** Length of a step of the turtle. */
+        double			m_step			= LSystemTurtle.DEF_STEP_SIZE;
+        /** Seed of the random choices of stochastic rules. */
+        long				m_seed;
+    }
+
+    /** Number of threads of the pool. */
+    protected	int					m_numThreads		= Runtime.getRuntime().availableProcessors();
+    /** Directory receiving the output files. */
+    protected	File					m_outDir			= new File(".");
+    /** Format of the output files, one of "obj", "png", "svg" and "bin". */
+    protected	String				m_format			= "obj";
+    /** Directory of snapshots of derived states, null if not used. */
+    protected	File					m_snapshotDir;
+    /** Flag whether large derived states are held outside of the Java heap. */
+    protected	boolean				m_bOffHeap;
+    /** Width and height of PNG images in pixels. */
+    protected	int					m_width			= LSystemRaster.DEF_SIZE;
+    protected	int					m_height			= LSystemRaster.DEF_SIZE;
+    /** Pool of threads which runs the derivations and the jobs. */
+    protected	ExecutorService	m_pool;
+    /** Permits of render tasks submitted to the pool, one per thread. */
+    protected	Semaphore			m_renders;
+    /** Turtle of each thread, reused by the jobs of the thread. */
+    protected	ThreadLocal<LSystemTurtle>	m_turtle	= ThreadLocal.withInitial(() -> {
+        LSystemTurtle turtle = new LSystemTurtle();
+        turtle.setParallelism(1);
+        return turtle;
+    });
+    /** Rasterizer of each thread, reused by the jobs of the thread. */
+    protected	ThreadLocal<LSystemRaster>	m_raster	= ThreadLocal.withInitial(() -> {
+        LSystemRaster raster = new LSystemRaster();
+        raster.setParallelism(1);
+        return raster;
+    });
+
+    /** Number of finished and failed jobs. */
+    protected	AtomicInteger		m_numJobs			= new AtomicInteger();
+    protected	AtomicInteger		m_numFailed			= new AtomicInteger();
+    /** Number of derived symbols, created vertices and written bytes. */
+    protected	AtomicLong			m_numSymbols		= new AtomicLong();
+    protected	AtomicLong			m_numVertices		= new AtomicLong();
+    protected	AtomicLong			m_numBytes			= new AtomicLong();
+
+    public static void main(String [] args) {
+        LSystemBatch batch = new LSystemBatch();
+        String jobFile = null;
+        for (int i=0; i<args.length; i++) {
+            if ("-threads".equals(args[i]) && i+1 < args.length)
+                batch.m_numThreads = Math.max(1, Integer.parseInt(args[++i]));
+            else if ("-out".equals(args[i]) && i+1 < args.length)
+                batch.m_outDir = new File(args[++i]);
+            else if ("-snapshots".equals(args[i]) && i+1 < args.length)
+                batch.m_snapshotDir = new File(args[++i]);
+            else if ("-offheap".equals(args[i]))
+                batch.m_bOffHeap = true;
+            else if ("-format".equals(args[i]) && i+1 < args.length && args[i+1].matches("obj|png|svg|bin"))
+                batch.m_format = args[++i];
+            else if ("-size".equals(args[i]) && i+1 < args.length && args[i+1].matches("[1-9][0-9]*x[1-9][0-9]*")) {
+                String [] size = args[++i].split("x");
+                batch.m_width	= Integer.parseInt(size[0]);
+                batch.m_height	= Integer.parseInt(size[1]);
+            }
+            else if (jobFile == null && !args[i].startsWith("-"))
+                jobFile = args[i];
+            else
+                usage();
+        }
+        if (jobFile == null)
+            usage();
+        try {
+            List<Entry> entries = readJobs(new File(jobFile));
+            if (!batch.run(entries))
+                System.exit(1);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+    private static void usage() {
+        System.err.println("usage: java vgp.tutor.lsystem.LSystemBatch [-threads n] [-out dir] [-format obj|png|svg|bin] [-size wxh] [-snapshots dir] [-offheap] jobfile");
+        System.exit(2);
+    }
+
+    /**
+     * Read the job file.
+     * @throws		IllegalArgumentException	if a line is malformed, with its line number.
+     */
+    public static List<Entry> readJobs(File file) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            for (int lineNo=1; (line = in.readLine()) != null; lineNo++) {
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#')
+                    continue;
+                try {
+                    entries.add(parseEntry(line));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(file+":"+lineNo+": "+e.getMessage());
+                }
+            }
+        }
+        return entries;
+    }
+    /** Parse one line of the job file. */
+    protected static Entry parseEntry(String line) {
+        Entry entry = new Entry();
+        StringBuffer heads = new StringBuffer();
+        List<String> productions = new ArrayList<String>();
+        String depth = null;
+        for (String token : line.split("\\s+")) {
+            int eq = token.indexOf('=');
+            if (eq <= 0)
+                throw new IllegalArgumentException("expected key=value, found "+token);
+            String key		= token.substring(0, eq);
+            String value	= token.substring(eq+1);
+            switch (key) {
+                case "name":
+                    entry.m_name = value;
+                    break;
+                case "axiom":
+                    entry.m_axiom = value;
+                    break;
+                case "rule":
+                    if (value.length() < 2 || value.charAt(1) != ':')
+                        throw new IllegalArgumentException("expected rule=c:production, found "+token);
+                    if (heads.indexOf(value.substring(0, 1)) >= 0)
+                        throw new IllegalArgumentException("second rule of "+value.charAt(0));
+                    heads.append(value.charAt(0));
+                    productions.add(value.substring(2));
+                    break;
+                case "angle":
+                    entry.m_angle = parseRange(value, 1.);
+                    break;
+                case "depth":
+                    depth = value;
+                    break;
+                case "step":
+                    entry.m_step = parseNumber(value);
+                    break;
+                case "seed":
+                    try {
+                        entry.m_seed = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("expected integer seed, found "+value);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown key "+key);
+            }
+        }
+        if (entry.m_name == null || entry.m_axiom == null || entry.m_angle == null || depth == null)
+            throw new IllegalArgumentException("name, axiom, angle and depth are required");
+        double [] depths = parseRange(depth, 1.);
+        entry.m_minDepth = (int)depths[0];
+        entry.m_maxDepth = (int)depths[depths.length-1];
+        if (entry.m_minDepth < 0 || entry.m_minDepth != depths[0] || entry.m_maxDepth != depths[depths.length-1])
+            throw new IllegalArgumentException("depth must be a non-negative integer, found "+depth);
+
+        // Characters without a rule are constants which are kept when rewriting.
+        StringBuffer alphabet = new StringBuffer(heads);
+        List<String> rule = new ArrayList<String>(productions);
+        if (LSystemParametricGrammar.isParametric(productions.toArray(new String[productions.size()]))) {
+            addConstants(alphabet, rule, LSystemParametricGrammar.getSymbols(entry.m_axiom));
+            for (String production : productions)
+                addConstants(alphabet, rule, LSystemParametricGrammar.getSymbols(production));
+        } else {
+            addConstants(alphabet, rule, entry.m_axiom);
+            for (String production : productions)
+                for (String alternative : LSystemGrammar.getAlternatives(production))
+                    addConstants(alphabet, rule, alternative);
+        }
+        entry.m_alphabet	= alphabet.toString().toCharArray();
+        entry.m_rule		= rule.toArray(new String[rule.size()]);
+        return entry;
+    }
+    private static void addConstants(StringBuffer alphabet, List<String> rule, String str) {
+        for (int i=0; i<str.length(); i++) {
+            char c = str.charAt(i);
+            if (alphabet.indexOf(String.valueOf(c)) < 0) {
+                alphabet.append(c);
+                rule.add(String.valueOf(c));
+            }
+        }
+    }
+    /** Parse a single value or an inclusive range <code>from:to[:step]</code>. */
+    protected static double [] parseRange(String value, double defStep) {
+        String [] part = value.split(":");
+        if (part.length == 1)
+            return new double[] {parseNumber(part[0])};
+        if (part.length > 3)
+            throw new IllegalArgumentException("expected from:to[:step], found "+value);
+        double from	= parseNumber(part[0]);
+        double to	= parseNumber(part[1]);
+        double step	= part.length == 3 ? parseNumber(part[2]) : defStep;
+        if (step <= 0. || to < from)
+            throw new IllegalArgumentException("empty range "+value);
+        int num = (int)Math.floor((to-from)/step+1.e-9)+1;
+        double [] range = new double[num];
+        for (int i=0; i<num; i++)
+            range[i] = from+i*step;
+        return range;
+    }
+
+    private static double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("expected number, found "+value);
+        }
+    }
+
+    /**
+     * Run all jobs of the given entries and wait until they are finished.
+     * @return		true if all jobs succeeded.
+     */
+    public boolean run(List<Entry> entries) {
+        if (!m_outDir.isDirectory() && !m_outDir.mkdirs())
+            throw new IllegalArgumentException("cannot create directory "+m_outDir);
+        if (m_snapshotDir != null && !m_snapshotDir.isDirectory() && !m_snapshotDir.mkdirs())
+            throw new IllegalArgumentException("cannot create directory "+m_snapshotDir);
+        long start = System.nanoTime();
+        m_pool = Executors.newFixedThreadPool(m_numThreads);
+        m_renders = new Semaphore(m_numThreads);
+        List<Future<?>> derivations = new ArrayList<Future<?>>();
+        for (final Entry entry : entries)
+            derivations.add(m_pool.submit(() -> derive(entry)));
+        // Derivations submit the jobs of each depth before they finish.
+        for (Future<?> derivation : derivations) {
+            try {
+                derivation.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                System.err.println("derivation failed: "+e.getCause());
+            }
+        }
+        m_pool.shutdown();
+        try {
+            m_pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        double seconds = (System.nanoTime()-start)*1.e-9;
+        System.out.printf("%d jobs, %d failed, %.2f s: %.1f jobs/s, %.3g symbols/s, %.3g vertices/s, %.1f MB/s%n",
+                          m_numJobs.get(), m_numFailed.get(), seconds, m_numJobs.get()/seconds,
+                          m_numSymbols.get()/seconds, m_numVertices.get()/seconds,
+                          m_numBytes.get()/seconds/(1<<20));
+        return m_numFailed.get() == 0;
+    }
+    /**
+     * Derive the depths of an entry in ascending order, compile each into a
+     * program and submit the jobs of its angles, split into at most one task
+     * per thread. Tasks for which no permit of m_renders is available are run
+     * by the derivation itself, which may occupy the last thread of the pool.
+     */
+    protected void derive(Entry entry) {
+        LSystem lsystem = new LSystem();
+        // entries are derived in parallel, hence, no pool of rewrite threads per entry
+        lsystem.setParallelism(1);
+        lsystem.setGrammar(entry.m_alphabet, entry.m_axiom, entry.m_rule);
+        lsystem.setOffHeap(m_bOffHeap);
+        lsystem.setSeed(entry.m_seed);
+        for (int depth=entry.m_minDepth; depth<=entry.m_maxDepth; depth++) {
+            final LSystemProgram program = new LSystemProgram();
+            long start = System.nanoTime();
+            try {
+                LSystemStreamIf stream;
+                if (lsystem.getLength(depth) > lsystem.getMaxLength()) {
+                    stream = lsystem.cursor(depth);
+                } else {
+                    if (m_snapshotDir != null)
+                        LSystemSnapshot.advance(lsystem, m_snapshotDir, depth);
+                    else
+                        lsystem.advance(depth);
+                    stream = lsystem.stream();
+                }
+                program.compile(stream);
+            } catch (IOException | RuntimeException e) {
+                m_numJobs.addAndGet(entry.m_angle.length);
+                m_numFailed.addAndGet(entry.m_angle.length);
+                System.err.println(entry.m_name+" d="+depth+": derivation failed: "+e);
+                continue;
+            }
+            m_numSymbols.addAndGet(program.getNumSymbols());
+            System.out.printf("%s d=%d: derived %d symbols in %.1f ms%n", entry.m_name, depth,
+                              program.getNumSymbols(), (System.nanoTime()-start)*1.e-6);
+            int numAngles	= entry.m_angle.length;
+            int numTasks	= Math.min(numAngles, m_numThreads);
+            for (int k=0; k<numTasks; k++) {
+                final int from	= (int)((long)numAngles*k/numTasks);
+                final int to		= (int)((long)numAngles*(k+1)/numTasks);
+                final int d		= depth;
+                if (!m_renders.tryAcquire()) {
+                    render(entry, d, program, from, to);
+                    continue;
+                }
+                m_pool.submit(() -> {
+                    try {
+                        render(entry, d, program, from, to);
+                    } finally {
+                        m_renders.release();
+                    }
+                });
+            }
+        }
+    }
+    /**
+     * Interpret a program for a range of angles and write each result.
+     * @param		from		index of first angle.
+     * @param		to			index after the last angle.
+     */
+    protected void render(Entry entry, int depth, LSystemProgram program, int from, int to) {
+        LSystemTurtle turtle = m_turtle.get();
+        turtle.setStepSize(entry.m_step);
+        String stage = "obj".equals(m_format) ? "interpret" : "png".equals(m_format) ? "rasterize" : "trace";
+        boolean bPolygons = false;
+        for (int i=from; i<to; i++) {
+            double angle = entry.m_angle[i];
+            String name = entry.m_name+"_d"+depth+"_a"+angle;
+            try {
+                long start = System.nanoTime();
+                long interpreted, numBytes;
+                File file = new File(m_outDir, name+"."+m_format);
+                if ("png".equals(m_format)) {
+                    LSystemRaster raster = m_raster.get();
+                    raster.setSize(m_width, m_height);
+                    raster.render(turtle, program, angle);
+                    interpreted = System.nanoTime();
+                    numBytes = raster.writePng(file);
+                } else if ("svg".equals(m_format)) {
+                    // interpretation and writing are interleaved
+                    interpreted = start;
+                    numBytes = LSystemSvgWriter.write(turtle, program, angle, file);
+                } else if ("bin".equals(m_format)) {
+                    interpreted = start;
+                    numBytes = LSystemGeometryWriter.write(turtle, program, angle, file);
+                } else {
+                    if (bPolygons) {
+                        turtle.interpretVertices(program, angle);
+                    } else {
+                        turtle.interpret(program, angle);
+                        bPolygons = true;
+                    }
+                    interpreted = System.nanoTime();
+                    numBytes = writeObj(turtle, file);
+                }
+                long written = System.nanoTime();
+                m_numVertices.addAndGet(program.getNumVertices());
+                m_numBytes.addAndGet(numBytes);
+                System.out.printf("%s: %d vertices, %d polygons, %s %.1f ms, write %.1f ms%n",
+                                  name, program.getNumVertices(), program.getNumPolygons(),
+                                  stage,
+                                  (interpreted-start)*1.e-6, (written-interpreted)*1.e-6);
+            } catch (IOException | RuntimeException e) {
+                m_numFailed.incrementAndGet();
+                System.err.println(name+": failed: "+e);
+            }
+            m_numJobs.incrementAndGet();
+        }
+    }
+    /**
+     * Write vertices and polygons of the last interpretation of a turtle as
+     * Wavefront OBJ file with one line element per polygon.
+     * @return		number of written bytes.
+     */
+    public static long writeObj(LSystemTurtle turtle, File file) throws IOException {
+        int numVertices	= turtle.getNumVertices();
+        double [] vertex	= turtle.getVertices();
+        int numPolygons	= turtle.getNumPolygons();
+        int [] index		= turtle.getPolygonIndices();
+        int [] start		= turtle.getPolygonStart();
+        CountingWriter out = new CountingWriter(new BufferedWriter(new FileWriter(file), 1<<16));
+        try {
+            StringBuilder line = new StringBuilder(64);
+            for (int i=0; i<numVertices; i++) {
+                line.setLength(0);
+                line.append("v ").append(vertex[LSystemTurtle.DIM*i]).append(' ')
+                    .append(vertex[LSystemTurtle.DIM*i+1]).append(" 0\n");
+                out.append(line);
+            }
+            for (int p=0; p<numPolygons; p++) {
+                if (start[p+1]-start[p] < 2)
+                    continue;
+                line.setLength(0);
+                line.append('l');
+                for (int k=start[p]; k<start[p+1]; k++)
+                    line.append(' ').append(index[k]+1);
+                line.append('\n');
+                out.append(line);
+            }
+        } finally {
+            out.close();
+        }
+        return out.m_numChars;
+    }
+    /** Writer which counts the written characters, which are ASCII only. */
+    private static class CountingWriter extends java.io.FilterWriter {
+        long		m_numChars;
+
+        CountingWriter(Writer out) {
+            super(out);
+        }
+        public Writer append(CharSequence str) throws IOException {
+            m_numChars += str.length();
+            out.append(str);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package vgp.tutor.lsystem;
+
+/**
+ * Lazy derivation of an L-system. The axiom is expanded depth-first through
+ * the productions while symbols are requested, and only the path from the
+ * axiom to the current symbol is stored. Memory is proportional to the number
+ * of generations rather than to the length of the derived state, which allows
+ * to interpret generations whose state would not fit into memory.
+ * <p>
+ * For stochastic grammars the cursor counts the symbols visited on each level,
+ * which are the positions of the symbols in their generation, hence, it chooses
+ * the same productions as the rewrite of whole generations with the same seed.
+ *
+ * @version		17.10.26, 1.10 revised Random choices of stochastic grammars.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemCursor implements LSystemStreamIf {
+    /** Compiled grammar. */
+    protected	LSystemGrammar	m_grammar;
+    /** Number of generations to derive. */
+    protected	int				m_numGenerations;
+    /** Sequence of symbols being expanded on each level, level 0 is the axiom. */
+    protected	byte [][]		m_level;
+    /** Index of the next symbol to visit on each level. */
+    protected	int []			m_pos;
+    /** Current level of the depth-first traversal. */
+    protected	int				m_depth;
+    /** Key of the random choices on each level, null if the grammar is not stochastic. */
+    protected	long []			m_key;
+    /** Number of visited symbols on each level, only counted if the grammar is stochastic. */
+    protected	long []			m_count;
+
+    /**
+     * Create cursor over a generation of an L-system.
+     * @param		grammar				compiled grammar, must be byte-coded.
+     * @param		numGenerations		number of applications of the rules to the axiom.
+     */
+    public LSystemCursor(LSystemGrammar grammar, int numGenerations) {
+        this(grammar, numGenerations, 0);
+    }
+    /**
+     * Create cursor over a generation of an L-system.
+     * @param		grammar				compiled grammar, must be byte-coded.
+     * @param		numGenerations		number of applications of the rules to the axiom.
+     * @param		seed					seed of the random choices if the grammar is stochastic.
+     */
+    public LSystemCursor(LSystemGrammar grammar, int numGenerations, long seed) {
+        m_grammar			= grammar;
+        m_numGenerations	= numGenerations;
+        m_level				= new byte[numGenerations+1][];
+        m_pos					= new int[numGenerations+1];
+        if (grammar.isStochastic()) {
+            m_key		= new long[numGenerations+1];
+            m_count	= new long[numGenerations+1];
+            for (int k=0; k<=numGenerations; k++)
+                m_key[k] = LSystemGrammar.getKey(seed, k);
+        }
+        rewind();
+    }
+    public void rewind() {
+        m_level[0]	= m_grammar.getAxiom();
+        m_pos[0]		= 0;
+        m_depth		= 0;
+        if (m_count != null)
+            java.util.Arrays.fill(m_count, 0);
+    }
+    /** Get number of generations derived by this cursor. */
+    public int getNumGenerations() {
+        return m_numGenerations;
+    }
+    public int nextSymbol() {
+        int depth		= m_depth;
+        byte [][] level	= m_level;
+        int [] pos		= m_pos;
+        while (depth >= 0) {
+            byte [] seq = level[depth];
+            int i = pos[depth];
+            if (i >= seq.length) {
+                depth--;
+                continue;
+            }
+            pos[depth] = i+1;
+            int code = seq[i] & 0xFF;
+            if (depth == m_numGenerations) {
+                m_depth = depth;
+                return m_grammar.getSymbol(code);
+            }
+            if (m_key != null)
+                level[depth+1]	= m_grammar.getProduction(code, m_key[depth], m_count[depth]++);
+            else
+                level[depth+1]	= m_grammar.getProduction(code);
+            depth++;
+            pos[depth]			= 0;
+        }
+        m_depth = depth;
+        return EOS;
+    }
+}
@@ -0,0 +1,317 @@
+package vgp.tutor.lsystem;
+
+/**
+ * Simplification of the polygons of a turtle for display, with a few levels
+ * of detail which are swapped by zoom. Deep generations create millions of
+ * vertices, most of them below the size of a pixel when the whole tree is
+ * displayed, hence, the number of vertices handed to the display should
+ * depend on the resolution of the screen instead of the derivation.
+ * <p>
+ * Each level has a tolerance in world units. A branch, i.e. a polygon with
+ * all branches starting on it, is dropped if the larger side of its bounding
+ * box is below the tolerance. Within the remaining polygons consecutive
+ * segments are merged if the vertex between them deviates less than the
+ * tolerance from the merged segment, or if it is closer than the tolerance
+ * to the previous kept vertex. Vertices at which a kept branch starts are
+ * always kept. Level 0 has tolerance 0, it drops no branch and only merges
+ * exactly collinear segments such as runs of 'F'.
+ * <p>
+ * The tolerances of the other levels are the size of a pixel times a threshold
+ * in pixels when the whole tree fits into the given number of pixels, divided
+ * or multiplied by powers of LEVEL_FACTOR. The finest of them serve zooming in,
+ * e.g. the level with a quarter of the tolerance is displayed at zoom 4, hence,
+ * the number of vertices follows the resolution of the screen in both
+ * directions until the zoom exceeds the finest level, where level 0 is shown.
+ * <p>
+ * The polygons created by the turtle are ordered such that each branch
+ * precedes its parent and the trunk is the last polygon, hence, the extent of
+ * all branches is accumulated in one pass. The buffers of each level grow with
+ * its own number of vertices and indices, and all buffers are reused by
+ * subsequent builds.
+ *
+ * @see			vgp.tutor.lsystem.LSystemTurtle
+ * @version		17.10.26, 1.10 revised Levels finer than a pixel for zooming in, buffers sized by level.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemDecimator {
+    /** Default number of levels of detail including the exact level 0 and the levels for zooming in. */
+    public static final	int		DEF_NUM_LEVELS	= 6;
+    /** Default number of levels finer than a pixel of the whole tree, used when zooming in. */
+    public static final	int		DEF_NUM_ZOOM_LEVELS	= 2;
+    /** Factor of the tolerances of consecutive levels. */
+    public static final	double	LEVEL_FACTOR		= 4.;
+    /** Default size of details in pixels below which details are dropped. */
+    public static final	double	DEF_THRESHOLD		= 1.;
+    /** Relative tolerance of the collinearity of level 0. */
+    protected static final	double	COLLINEAR_EPS	= 1.e-12;
+    /** Number of coordinates of each vertex. */
+    public static final	int		DIM				= LSystemTurtle.DIM;
+
+    /** Vertices and polygons of a level of detail, stored as in LSystemTurtle. */
+    protected static class Level {
+        /** Tolerance in world units. */
+        double		m_tolerance;
+        double []	m_vertex			= new double[DIM*64];
+        int			m_numVertices;
+        int []		m_index			= new int[64];
+        int []		m_polygonStart	= new int[16];
+        int			m_numPolygons;
+    }
+
+    /** Size of details in pixels below which details are dropped. */
+    protected	double		m_threshold		= DEF_THRESHOLD;
+    /** Levels of detail, level 0 is exact. */
+    protected	Level []		m_level;
+    /** Number of levels finer than a pixel of the whole tree. */
+    protected	int			m_numZoomLevels;
+    /** Size of a pixel in world units if the whole tree is displayed. */
+    protected	double		m_pixelSize;
+
+    /** Polygon in which each vertex was created, and parent of each polygon, -1 for the trunk. */
+    protected	int []		m_owner			= new int[64];
+    protected	int []		m_parent			= new int[16];
+    /** Bounding box of each polygon with all its branches, minX, minY, maxX, maxY. */
+    protected	double []	m_bounds			= new double[4*16];
+    /** Index of each vertex of the turtle in the current level, -1 if dropped. */
+    protected	int []		m_newIndex		= new int[64];
+    /** Flag of each vertex whether a kept branch starts at it. */
+    protected	boolean []	m_pinned			= new boolean[64];
+
+    /** Constructor with DEF_NUM_LEVELS levels of which DEF_NUM_ZOOM_LEVELS serve zooming in. */
+    public LSystemDecimator() {
+        this(DEF_NUM_LEVELS, DEF_NUM_ZOOM_LEVELS);
+    }
+    /**
+     * Constructor with levels which are not finer than a pixel of the whole tree.
+     * @param		numLevels		number of levels including the exact level 0.
+     */
+    public LSystemDecimator(int numLevels) {
+        this(numLevels, 0);
+    }
+    /**
+     * Constructor.
+     * @param		numLevels			number of levels including the exact level 0.
+     * @param		numZoomLevels		number of levels finer than a pixel of the whole
+     *										tree, which are displayed when zooming in.
+     */
+    public LSystemDecimator(int numLevels, int numZoomLevels) {
+        if (numLevels < 1)
+            throw new IllegalArgumentException("number of levels must be positive, found "+numLevels);
+        if (numZoomLevels < 0 || numZoomLevels >= numLevels)
+            throw new IllegalArgumentException("number of zoom levels must be in [0,"+(numLevels-1)+"], found "+numZoomLevels);
+        m_numZoomLevels = numZoomLevels;
+        m_level = new Level[numLevels];
+        for (int k=0; k<numLevels; k++)
+            m_level[k] = new Level();
+    }
+    /** Get size of details in pixels below which details are dropped. */
+    public double getThreshold() {
+        return m_threshold;
+    }
+    /**
+     * Set size of details in pixels below which details are dropped,
+     * takes effect with the next build.
+     */
+    public void setThreshold(double pixels) {
+        if (!(pixels > 0.))
+            throw new IllegalArgumentException("threshold must be positive, found "+pixels);
+        m_threshold = pixels;
+    }
+    /** Get number of levels of detail. */
+    public int getNumLevels() {
+        return m_level.length;
+    }
+    /** Get number of levels finer than a pixel of the whole tree. */
+    public int getNumZoomLevels() {
+        return m_numZoomLevels;
+    }
+    /** Get tolerance of a level in world units. */
+    public double getTolerance(int level) {
+        return m_level[level].m_tolerance;
+    }
+    /**
+     * Get the coarsest level whose tolerance does not exceed the threshold
+     * times the size of a pixel at a given zoom. Level 0 is only returned if
+     * the zoom exceeds the finest level, or if no other level is fine enough.
+     * @param		zoom		magnification relative to the display of the whole tree.
+     */
+    public int selectLevel(double zoom) {
+        double tolerance = m_pixelSize*m_threshold/zoom;
+        int level = 0;
+        for (int k=1; k<m_level.length; k++) {
+            if (m_level[k].m_tolerance <= tolerance*(1.+COLLINEAR_EPS))
+                level = k;
+        }
+        return level;
+    }
+    /** Get number of vertices of a level. */
+    public int getNumVertices(int level) {
+        return m_level[level].m_numVertices;
+    }
+    /** Get coordinates of vertices of a level, where vertex i has coordinates at index DIM*i. */
+    public double [] getVertices(int level) {
+        return m_level[level].m_vertex;
+    }
+    /** Get number of polygons of a level. */
+    public int getNumPolygons(int level) {
+        return m_level[level].m_numPolygons;
+    }
+    /** Get concatenated vertex indices of all polygons of a level. */
+    public int [] getPolygonIndices(int level) {
+        return m_level[level].m_index;
+    }
+    /** Get offsets of polygons of a level in getPolygonIndices(), with numPolygons+1 valid entries. */
+    public int [] getPolygonStart(int level) {
+        return m_level[level].m_polygonStart;
+    }
+
+    /**
+     * Build all levels of detail from the result of a turtle.
+     * @param		turtle			turtle after interpretation.
+     * @param		numPixels		number of pixels along the larger side of the
+     *									bounding box when the whole tree is displayed.
+     */
+    public void build(LSystemTurtle turtle, int numPixels) {
+        int numVertices	= turtle.getNumVertices();
+        int numPolygons	= turtle.getNumPolygons();
+        double [] vertex	= turtle.getVertices();
+        int [] index		= turtle.getPolygonIndices();
+        int [] start		= turtle.getPolygonStart();
+        if (m_owner.length < numVertices) {
+            m_owner		= new int[numVertices];
+            m_newIndex	= new int[numVertices];
+            m_pinned		= new boolean[numVertices];
+        }
+        if (m_parent.length < numPolygons) {
+            m_parent	= new int[numPolygons];
+            m_bounds	= new double[4*numPolygons];
+        }
+        int [] owner		= m_owner;
+        int [] parent	= m_parent;
+        double [] bounds	= m_bounds;
+
+        // Each vertex except the first of a polygon was created in this polygon.
+        owner[0] = numPolygons-1;
+        for (int p=0; p<numPolygons; p++)
+            for (int j=start[p]+1; j<start[p+1]; j++)
+                owner[index[j]] = p;
+        // Branches precede their parents, so their boxes are complete when merged.
+        for (int p=0; p<numPolygons; p++) {
+            parent[p] = p == numPolygons-1 ? -1 : owner[index[start[p]]];
+            bounds[4*p]	= bounds[4*p+1] = Double.POSITIVE_INFINITY;
+            bounds[4*p+2]	= bounds[4*p+3] = Double.NEGATIVE_INFINITY;
+        }
+        for (int p=0; p<numPolygons; p++) {
+            for (int j=start[p]; j<start[p+1]; j++) {
+                double x = vertex[DIM*index[j]], y = vertex[DIM*index[j]+1];
+                if (x < bounds[4*p])	bounds[4*p]	= x;
+                if (y < bounds[4*p+1])	bounds[4*p+1]	= y;
+                if (x > bounds[4*p+2])	bounds[4*p+2]	= x;
+                if (y > bounds[4*p+3])	bounds[4*p+3]	= y;
+            }
+            int q = parent[p];
+            if (q < 0)
+                continue;
+            bounds[4*q]	= Math.min(bounds[4*q], bounds[4*p]);
+            bounds[4*q+1]	= Math.min(bounds[4*q+1], bounds[4*p+1]);
+            bounds[4*q+2]	= Math.max(bounds[4*q+2], bounds[4*p+2]);
+            bounds[4*q+3]	= Math.max(bounds[4*q+3], bounds[4*p+3]);
+        }
+        double extent = numPolygons == 0 ? 0. : getExtent(numPolygons-1);
+        m_pixelSize = extent/Math.max(1, numPixels);
+        for (int k=0; k<m_level.length; k++) {
+            Level level = m_level[k];
+            level.m_tolerance = k == 0 ? 0. : m_pixelSize*m_threshold*Math.pow(LEVEL_FACTOR, k-1-m_numZoomLevels);
+            build(level, vertex, numVertices, index, start, numPolygons, extent);
+        }
+    }
+    /** Get larger side of the bounding box of a polygon with its branches. */
+    private double getExtent(int p) {
+        return Math.max(m_bounds[4*p+2]-m_bounds[4*p], m_bounds[4*p+3]-m_bounds[4*p+1]);
+    }
+    /** Build a level from the vertices and polygons of the turtle. */
+    private void build(Level level, double [] vertex, int numVertices, int [] index, int [] start,
+                       int numPolygons, double extent) {
+        double tol			= level.m_tolerance;
+        double flat			= tol > 0. ? tol : COLLINEAR_EPS*extent;
+        int [] newIndex		= m_newIndex;
+        boolean [] pinned	= m_pinned;
+        java.util.Arrays.fill(newIndex, 0, numVertices, -1);
+        java.util.Arrays.fill(pinned, 0, numVertices, false);
+        int numKept = 0, numIndices = 0;
+        for (int p=0; p<numPolygons; p++) {
+            if (isKept(p, numPolygons, tol)) {
+                pinned[index[start[p]]] = true;
+                numKept++;
+                numIndices += start[p+1]-start[p];
+            }
+        }
+        if (level.m_polygonStart.length < numKept+1)
+            level.m_polygonStart = new int[numKept+1];
+        // at most numIndices indices and as many vertices, but merging drops most of them
+        int [] outIndex		= level.m_index;
+        int [] outStart		= level.m_polygonStart;
+        double [] outVertex	= level.m_vertex;
+        int numOut = 0, numPoly = 0, numInd = 0;
+        for (int p=0; p<numPolygons; p++) {
+            if (!isKept(p, numPolygons, tol))
+                continue;
+            outStart[numPoly++] = numInd;
+            int from	= start[p];
+            int to	= start[p+1];
+            int last	= index[from];
+            for (int j=from; j<to; j++) {
+                int v = index[j];
+                if (j > from && j < to-1 && !pinned[v] &&
+                    isRedundant(vertex, last, v, index[j+1], tol, flat))
+                    continue;
+                if (newIndex[v] < 0) {
+                    if (DIM*numOut == outVertex.length)
+                        outVertex = level.m_vertex = grow(outVertex, Math.min(numIndices, numVertices));
+                    newIndex[v] = numOut;
+                    outVertex[DIM*numOut]		= vertex[DIM*v];
+                    outVertex[DIM*numOut+1]	= vertex[DIM*v+1];
+                    numOut++;
+                }
+                if (numInd == outIndex.length)
+                    outIndex = level.m_index = grow(outIndex, numIndices);
+                outIndex[numInd++] = newIndex[v];
+                last = v;
+            }
+        }
+        outStart[numPoly]		= numInd;
+        level.m_numVertices	= numOut;
+        level.m_numPolygons	= numPoly;
+    }
+    /** Enlarge a buffer of vertices by half, but not beyond a maximal number of vertices. */
+    private static double [] grow(double [] buffer, int maxVertices) {
+        int n = buffer.length/DIM;
+        return java.util.Arrays.copyOf(buffer, DIM*Math.min(n+(n >> 1)+1, maxVertices));
+    }
+    /** Enlarge a buffer of indices by half, but not beyond a maximal length. */
+    private static int [] grow(int [] buffer, int maxLength) {
+        return java.util.Arrays.copyOf(buffer, Math.min(buffer.length+(buffer.length >> 1)+1, maxLength));
+    }
+    /** Check if a polygon is kept at a tolerance, the trunk is always kept. */
+    private boolean isKept(int p, int numPolygons, double tol) {
+        return p == numPolygons-1 || tol == 0. || getExtent(p) >= tol;
+    }
+    /**
+     * Check if vertex v may be dropped between the last kept vertex and the next
+     * vertex, i.e. if it is closer than the tolerance to the last kept vertex, or
+     * if it lies ahead on the segment within a distance of flat.
+     */
+    private static boolean isRedundant(double [] vertex, int last, int v, int next, double tol, double flat) {
+        double ax = vertex[DIM*last],	ay = vertex[DIM*last+1];
+        double bx = vertex[DIM*v]-ax,	by = vertex[DIM*v+1]-ay;
+        double cx = vertex[DIM*next]-ax,	cy = vertex[DIM*next+1]-ay;
+        if (tol > 0. && bx*bx+by*by < tol*tol)
+            return true;
+        double len2 = cx*cx+cy*cy;
+        double dot = bx*cx+by*cy;
+        if (dot <= 0. || dot >= len2)
+            return false;		// the segment would turn back
+        double cross = bx*cy-by*cx;
+        return cross*cross <= flat*flat*len2;
+    }
+}
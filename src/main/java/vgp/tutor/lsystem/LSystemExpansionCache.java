@@ -0,0 +1,123 @@
+package vgp.tutor.lsystem;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache of expanded symbols of a context-free L-system. The expansion of a
+ * symbol after k generations is always identical, so fragments are stored
+ * keyed by (symbol, remaining generations) and copied instead of rewritten.
+ * Fragments are built bottom-up from the fragments of the previous generation.
+ * The memory used by fragments is bounded, least recently used fragments are
+ * evicted first, and expansions longer than a quarter of the budget are never
+ * stored but assembled from shorter fragments. Each fragment is charged with
+ * its symbols plus ENTRY_BYTES for the array header, the key and the map entry.
+ *
+ * @version		17.10.26, 1.10 revised Budget includes the memory of the entries.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemExpansionCache {
+    /** Estimated bytes of each fragment besides its symbols: array header, boxed key, map entry and slot. */
+    public static final	int		ENTRY_BYTES		= 80;
+
+    /** Compiled grammar. */
+    protected	LSystemGrammar	m_grammar;
+    /** Maximal number of bytes of all stored fragments. */
+    protected	long				m_maxBytes;
+    /** Number of bytes of all stored fragments including ENTRY_BYTES each. */
+    protected	long				m_numBytes;
+    /** Stored fragments in order of last access, keyed by generations*numSymbols+code. */
+    protected	LinkedHashMap<Long, byte []>	m_fragment;
+
+    /**
+     * Create an empty cache.
+     * @param		grammar		compiled grammar, must be byte-coded.
+     * @param		maxBytes		memory budget of the cache in bytes.
+     */
+    public LSystemExpansionCache(LSystemGrammar grammar, long maxBytes) {
+        m_grammar	= grammar;
+        m_maxBytes	= maxBytes;
+        m_fragment	= new LinkedHashMap<Long, byte []>(64, 0.75f, true);
+    }
+    /** Get grammar whose expansions are cached. */
+    public LSystemGrammar getGrammar() {
+        return m_grammar;
+    }
+    /** Get number of bytes of all stored fragments including ENTRY_BYTES each. */
+    public long getNumBytes() {
+        return m_numBytes;
+    }
+    /** Get memory budget of the cache in bytes. */
+    public long getMaxBytes() {
+        return m_maxBytes;
+    }
+    /** Set memory budget of the cache in bytes and evict fragments if necessary. */
+    public void setMaxBytes(long maxBytes) {
+        m_maxBytes = maxBytes;
+        evict();
+    }
+    /** Remove all stored fragments. */
+    public void clear() {
+        m_fragment.clear();
+        m_numBytes = 0;
+    }
+    /**
+     * Write the expansion of a sequence of symbols after a number of generations
+     * into a buffer. The buffer must be long enough, see LSystemGrammar.getLength().
+     * @return		index in dst after the last written symbol.
+     */
+    public int expand(byte [] seq, int numGenerations, byte [] dst, int off) {
+        for (int i=0; i<seq.length; i++)
+            off = expand(seq[i] & 0xFF, numGenerations, dst, off);
+        return off;
+    }
+    /**
+     * Write the expansion of a symbol after a number of generations into a buffer.
+     * @return		index in dst after the last written symbol.
+     */
+    public int expand(int code, int numGenerations, byte [] dst, int off) {
+        if (numGenerations == 0) {
+            dst[off] = (byte)code;
+            return off+1;
+        }
+        byte [] fragment = getFragment(code, numGenerations);
+        if (fragment != null) {
+            System.arraycopy(fragment, 0, dst, off, fragment.length);
+            return off+fragment.length;
+        }
+        byte [] p = m_grammar.getProduction(code);
+        for (int i=0; i<p.length; i++)
+            off = expand(p[i] & 0xFF, numGenerations-1, dst, off);
+        return off;
+    }
+    /**
+     * Get the stored expansion of a symbol, or build and store it if it fits
+     * into the budget. Returns null if the expansion is too long to be stored.
+     */
+    protected byte [] getFragment(int code, int numGenerations) {
+        long len = m_grammar.getLength(code, numGenerations);
+        if (len+ENTRY_BYTES > m_maxBytes/4)
+            return null;
+        Long key = Long.valueOf((long)numGenerations*m_grammar.getNumSymbols()+code);
+        byte [] fragment = m_fragment.get(key);
+        if (fragment != null)
+            return fragment;
+        fragment = new byte[(int)len];
+        byte [] p = m_grammar.getProduction(code);
+        int off = 0;
+        for (int i=0; i<p.length; i++)
+            off = expand(p[i] & 0xFF, numGenerations-1, fragment, off);
+        m_fragment.put(key, fragment);
+        m_numBytes += len+ENTRY_BYTES;
+        evict();
+        return fragment;
+    }
+    /** Remove least recently used fragments until the budget is met. */
+    protected void evict() {
+        Iterator<byte []> iter = m_fragment.values().iterator();
+        while (m_numBytes > m_maxBytes && iter.hasNext()) {
+            m_numBytes -= iter.next().length+ENTRY_BYTES;
+            iter.remove();
+        }
+    }
+}
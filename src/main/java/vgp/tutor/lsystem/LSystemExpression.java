@@ -0,0 +1,291 @@
+package vgp.tutor.lsystem;
+
+import java.util.List;
+
+/**
+ * Arithmetic expression of a parametric L-system, compiled once into postfix
+ * code which is evaluated on a stack of doubles without any allocation.
+ * Variables are the formal parameters of a rule and are resolved to indices
+ * when compiling.
+ * <p>
+ * Supported are numbers, variables, parentheses, the operators
+ * <code>^ * / + - &lt; &lt;= &gt; &gt;= == != ! &amp;&amp; ||</code> with the usual
+ * precedence, unary minus, and the functions sin, cos, tan, sqrt, abs, floor,
+ * exp and log. Comparisons and logical operators yield 1 for true and 0 for false.
+ *
+ * @version		17.10.26, 1.00 created
+ */
+public class LSystemExpression {
+    /** Operations of the postfix code, each followed by its operand if any. */
+    protected static final	int	OP_CONST			= 0;
+    protected static final	int	OP_VAR			= 1;
+    protected static final	int	OP_ADD			= 2;
+    protected static final	int	OP_SUB			= 3;
+    protected static final	int	OP_MUL			= 4;
+    protected static final	int	OP_DIV			= 5;
+    protected static final	int	OP_POW			= 6;
+    protected static final	int	OP_NEG			= 7;
+    protected static final	int	OP_NOT			= 8;
+    protected static final	int	OP_LT				= 9;
+    protected static final	int	OP_LE				= 10;
+    protected static final	int	OP_GT				= 11;
+    protected static final	int	OP_GE				= 12;
+    protected static final	int	OP_EQ				= 13;
+    protected static final	int	OP_NE				= 14;
+    protected static final	int	OP_AND			= 15;
+    protected static final	int	OP_OR				= 16;
+    protected static final	int	OP_FUNC			= 17;
+    /** Names of the functions, the operand of OP_FUNC is the index. */
+    protected static final	String []	FUNCTION	= {"sin", "cos", "tan", "sqrt", "abs", "floor", "exp", "log"};
+
+    /** Source text. */
+    protected	String		m_text;
+    /** Postfix code of operations and operands. */
+    protected	int []		m_code;
+    protected	int			m_codeLen;
+    /** Values of the constants. */
+    protected	double []	m_const;
+    protected	int			m_numConst;
+    /** Maximal size of the stack during evaluation. */
+    protected	int			m_maxStack;
+
+    /** Position of the parser and current size of the stack while compiling. */
+    private	int			m_pos;
+    private	int			m_stack;
+    private	List<String>	m_variables;
+
+    /**
+     * Compile an expression.
+     * @param		text			source text.
+     * @param		variables	names of the variables, whose position is the index
+     *								of their value when evaluating.
+     * @throws		IllegalArgumentException	if the text is no valid expression.
+     */
+    public LSystemExpression(String text, List<String> variables) {
+        m_text		= text;
+        m_code		= new int[16];
+        m_const		= new double[4];
+        m_variables	= variables;
+        m_pos			= 0;
+        parseOr();
+        skipSpace();
+        if (m_pos < m_text.length())
+            throw error("unexpected '"+m_text.charAt(m_pos)+"'");
+        m_variables	= null;
+    }
+    /** Get source text. */
+    public String toString() {
+        return m_text;
+    }
+    /** Get maximal size of the stack needed to evaluate the expression. */
+    public int getMaxStack() {
+        return m_maxStack;
+    }
+    /**
+     * Evaluate the expression.
+     * @param		value		values of the variables.
+     * @param		stack		work space with at least getMaxStack() entries.
+     */
+    public double evaluate(double [] value, double [] stack) {
+        int [] code	= m_code;
+        int len		= m_codeLen;
+        int top		= -1;
+        for (int i=0; i<len; i++) {
+            switch (code[i]) {
+                case OP_CONST:	stack[++top] = m_const[code[++i]]; break;
+                case OP_VAR:		stack[++top] = value[code[++i]]; break;
+                case OP_ADD:		top--; stack[top] += stack[top+1]; break;
+                case OP_SUB:		top--; stack[top] -= stack[top+1]; break;
+                case OP_MUL:		top--; stack[top] *= stack[top+1]; break;
+                case OP_DIV:		top--; stack[top] /= stack[top+1]; break;
+                case OP_POW:		top--; stack[top] = Math.pow(stack[top], stack[top+1]); break;
+                case OP_NEG:		stack[top] = -stack[top]; break;
+                case OP_NOT:		stack[top] = stack[top] == 0. ? 1. : 0.; break;
+                case OP_LT:		top--; stack[top] = stack[top] < stack[top+1] ? 1. : 0.; break;
+                case OP_LE:		top--; stack[top] = stack[top] <= stack[top+1] ? 1. : 0.; break;
+                case OP_GT:		top--; stack[top] = stack[top] > stack[top+1] ? 1. : 0.; break;
+                case OP_GE:		top--; stack[top] = stack[top] >= stack[top+1] ? 1. : 0.; break;
+                case OP_EQ:		top--; stack[top] = stack[top] == stack[top+1] ? 1. : 0.; break;
+                case OP_NE:		top--; stack[top] = stack[top] != stack[top+1] ? 1. : 0.; break;
+                case OP_AND:		top--; stack[top] = stack[top] != 0. && stack[top+1] != 0. ? 1. : 0.; break;
+                case OP_OR:		top--; stack[top] = stack[top] != 0. || stack[top+1] != 0. ? 1. : 0.; break;
+                case OP_FUNC:		stack[top] = function(code[++i], stack[top]); break;
+                default:
+                    throw new IllegalStateException("unknown operation "+code[i]);
+            }
+        }
+        return stack[0];
+    }
+    private static double function(int index, double x) {
+        switch (index) {
+            case 0:	return Math.sin(x);
+            case 1:	return Math.cos(x);
+            case 2:	return Math.tan(x);
+            case 3:	return Math.sqrt(x);
+            case 4:	return Math.abs(x);
+            case 5:	return Math.floor(x);
+            case 6:	return Math.exp(x);
+            default:	return Math.log(x);
+        }
+    }
+
+    private void parseOr() {
+        parseAnd();
+        while (accept("||")) {
+            parseAnd();
+            emit(OP_OR, -1);
+        }
+    }
+    private void parseAnd() {
+        parseComparison();
+        while (accept("&&")) {
+            parseComparison();
+            emit(OP_AND, -1);
+        }
+    }
+    private void parseComparison() {
+        parseSum();
+        while (true) {
+            int op;
+            if (accept("<="))			op = OP_LE;
+            else if (accept(">="))	op = OP_GE;
+            else if (accept("=="))	op = OP_EQ;
+            else if (accept("!="))	op = OP_NE;
+            else if (accept("<"))		op = OP_LT;
+            else if (accept(">"))		op = OP_GT;
+            else
+                return;
+            parseSum();
+            emit(op, -1);
+        }
+    }
+    private void parseSum() {
+        parseProduct();
+        while (true) {
+            int op;
+            if (accept("+"))			op = OP_ADD;
+            else if (accept("-"))		op = OP_SUB;
+            else
+                return;
+            parseProduct();
+            emit(op, -1);
+        }
+    }
+    private void parseProduct() {
+        parseUnary();
+        while (true) {
+            int op;
+            if (accept("*"))			op = OP_MUL;
+            else if (accept("/"))		op = OP_DIV;
+            else
+                return;
+            parseUnary();
+            emit(op, -1);
+        }
+    }
+    private void parseUnary() {
+        if (accept("-")) {
+            parseUnary();
+            emit(OP_NEG, 0);
+        } else if (accept("!")) {
+            parseUnary();
+            emit(OP_NOT, 0);
+        } else {
+            parsePower();
+        }
+    }
+    private void parsePower() {
+        parsePrimary();
+        if (accept("^")) {
+            // right associative, binds tighter than unary minus on its left
+            parseUnary();
+            emit(OP_POW, -1);
+        }
+    }
+    private void parsePrimary() {
+        skipSpace();
+        if (m_pos >= m_text.length())
+            throw error("unexpected end");
+        char c = m_text.charAt(m_pos);
+        if (c == '(') {
+            m_pos++;
+            parseOr();
+            if (!accept(")"))
+                throw error("missing ')'");
+        } else if (Character.isDigit(c) || c == '.') {
+            int start = m_pos;
+            while (m_pos < m_text.length() && (Character.isDigit(m_text.charAt(m_pos)) || m_text.charAt(m_pos) == '.'))
+                m_pos++;
+            if (m_pos < m_text.length() && (m_text.charAt(m_pos) == 'e' || m_text.charAt(m_pos) == 'E')) {
+                m_pos++;
+                if (m_pos < m_text.length() && (m_text.charAt(m_pos) == '+' || m_text.charAt(m_pos) == '-'))
+                    m_pos++;
+                while (m_pos < m_text.length() && Character.isDigit(m_text.charAt(m_pos)))
+                    m_pos++;
+            }
+            double value;
+            try {
+                value = Double.parseDouble(m_text.substring(start, m_pos));
+            } catch (NumberFormatException e) {
+                throw error("malformed number "+m_text.substring(start, m_pos));
+            }
+            if (m_numConst == m_const.length)
+                m_const = java.util.Arrays.copyOf(m_const, 2*m_numConst);
+            m_const[m_numConst] = value;
+            emit(OP_CONST, 1);
+            emitOperand(m_numConst++);
+        } else if (Character.isLetter(c) || c == '_') {
+            int start = m_pos;
+            while (m_pos < m_text.length() && (Character.isLetterOrDigit(m_text.charAt(m_pos)) || m_text.charAt(m_pos) == '_'))
+                m_pos++;
+            String name = m_text.substring(start, m_pos);
+            int var = m_variables.indexOf(name);
+            if (var >= 0) {
+                emit(OP_VAR, 1);
+                emitOperand(var);
+                return;
+            }
+            int func = java.util.Arrays.asList(FUNCTION).indexOf(name);
+            if (func < 0)
+                throw error("unknown variable "+name);
+            if (!accept("("))
+                throw error("missing '(' after "+name);
+            parseOr();
+            if (!accept(")"))
+                throw error("missing ')'");
+            emit(OP_FUNC, 0);
+            emitOperand(func);
+        } else {
+            throw error("unexpected '"+c+"'");
+        }
+    }
+    /** Append an operation which changes the size of the stack by delta. */
+    private void emit(int op, int delta) {
+        emitOperand(op);
+        m_stack += delta;
+        m_maxStack = Math.max(m_maxStack, m_stack);
+    }
+    private void emitOperand(int operand) {
+        if (m_codeLen == m_code.length)
+            m_code = java.util.Arrays.copyOf(m_code, 2*m_codeLen);
+        m_code[m_codeLen++] = operand;
+    }
+    private boolean accept(String token) {
+        skipSpace();
+        if (!m_text.startsWith(token, m_pos))
+            return false;
+        // do not take the prefix of a longer operator
+        if (token.length() == 1 && m_pos+1 < m_text.length() && "<>=!&|".indexOf(token.charAt(0)) >= 0 &&
+            m_text.charAt(m_pos+1) == '=' && token.charAt(0) != '=')
+            return false;
+        m_pos += token.length();
+        return true;
+    }
+    private void skipSpace() {
+        while (m_pos < m_text.length() && Character.isWhitespace(m_text.charAt(m_pos)))
+            m_pos++;
+    }
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(msg+" at position "+m_pos+" of expression \""+m_text+"\"");
+    }
+}
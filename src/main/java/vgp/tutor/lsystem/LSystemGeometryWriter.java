@@ -0,0 +1,169 @@
+package vgp.tutor.lsystem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming export of the path of the turtle in a compact binary format,
+ * written through a FileChannel while the turtle walks. Only two buffers of
+ * fixed size are held in memory, independent of the size of the L-system.
+ * <p>
+ * All values are little endian. The file consists of
+ * <pre>
+ *     int32      MAGIC
+ *     int32      number of vertices V
+ *     int32      number of polylines P
+ *     float32    x, y of each vertex                           (V times)
+ *     int32      index of first vertex of each polyline, and V (P+1 times)
+ * </pre>
+ * The vertices of polyline p are stored from offset[p] up to offset[p+1].
+ * Each polyline has at least two vertices. Since the counts are not known
+ * in advance, the offsets are collected in a temporary file which is appended
+ * on close, and the header is written last.
+ *
+ * @see			vgp.tutor.lsystem.LSystemTurtle#trace(LSystemProgram, double, LSystemPathIf)
+ * @version		17.10.26, 1.10 revised No partial file is left if writing fails.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemGeometryWriter implements LSystemPathIf, Closeable {
+    /** First int of the file, the bytes 'LSG1' in little endian. */
+    public static final	int		MAGIC				= 0x3147534C;
+    /** Size of the header in bytes. */
+    public static final	int		HEADER_SIZE		= 12;
+    /** Size of each buffer in bytes. */
+    protected static final	int	BUFFER_SIZE		= 1<<20;
+
+    /** Channel of the output file and of the temporary file of offsets. */
+    protected	FileChannel		m_channel;
+    protected	FileChannel		m_offsetChannel;
+    protected	Path				m_offsetPath;
+    /** Buffers of vertices and offsets. */
+    protected	ByteBuffer		m_vertexBuffer;
+    protected	ByteBuffer		m_offsetBuffer;
+    /** Start of the next polyline, written with the first line. */
+    protected	double			m_moveX, m_moveY;
+    protected	boolean			m_bMove;
+    /** Number of written vertices and polylines. */
+    protected	long				m_numVertices;
+    protected	long				m_numPolylines;
+
+    /**
+     * Write the path of a program into a binary file. The file is written
+     * under a temporary name in the same directory and renamed when complete,
+     * hence, a failed export leaves neither a partial nor a corrupted file.
+     * @param		delta			angle in degrees used when rotating with '+' or '-'.
+     * @return		number of written bytes.
+     */
+    public static long write(LSystemTurtle turtle, LSystemProgram program, double delta, File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        Path tmp = Files.createTempFile(path.getParent(), file.getName(), ".tmp");
+        try {
+            LSystemGeometryWriter geom = new LSystemGeometryWriter(tmp.toFile());
+            try {
+                turtle.trace(program, delta, geom);
+            } catch (UncheckedIOException e) {
+                geom.abort();
+                throw e.getCause();
+            } catch (RuntimeException e) {
+                geom.abort();
+                throw e;
+            }
+            geom.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return file.length();
+    }
+    /** Create the output file, which is complete after close. */
+    public LSystemGeometryWriter(File file) throws IOException {
+        m_channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        m_offsetPath		= Files.createTempFile(file.getName(), ".offsets");
+        m_offsetChannel	= FileChannel.open(m_offsetPath, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                           StandardOpenOption.DELETE_ON_CLOSE);
+        m_vertexBuffer	= ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        m_offsetBuffer	= ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        m_channel.position(HEADER_SIZE);
+    }
+    public void moveTo(double x, double y) {
+        m_moveX	= x;
+        m_moveY	= y;
+        m_bMove	= true;
+    }
+    public void lineTo(double x, double y) {
+        try {
+            if (m_bMove) {
+                if (!m_offsetBuffer.hasRemaining())
+                    flush(m_offsetChannel, m_offsetBuffer);
+                m_offsetBuffer.putInt(checkCount(m_numVertices));
+                m_numPolylines++;
+                addVertex(m_moveX, m_moveY);
+                m_bMove = false;
+            }
+            addVertex(x, y);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    private void addVertex(double x, double y) throws IOException {
+        if (m_vertexBuffer.remaining() < 8)
+            flush(m_channel, m_vertexBuffer);
+        m_vertexBuffer.putFloat((float)x);
+        m_vertexBuffer.putFloat((float)y);
+        m_numVertices++;
+    }
+    private static int checkCount(long count) {
+        if (count > Integer.MAX_VALUE)
+            throw new IllegalStateException("number of vertices exceeds range of int32 offsets");
+        return (int)count;
+    }
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+    /** Close the files without completing the output file. */
+    private void abort() throws IOException {
+        try {
+            m_offsetChannel.close();
+        } finally {
+            m_channel.close();
+        }
+    }
+    /** Append the offsets and the header, and close the file. */
+    public void close() throws IOException {
+        if (!m_channel.isOpen()) {
+            m_offsetChannel.close();
+            return;
+        }
+        try {
+            flush(m_channel, m_vertexBuffer);
+            if (!m_offsetBuffer.hasRemaining())
+                flush(m_offsetChannel, m_offsetBuffer);
+            m_offsetBuffer.putInt(checkCount(m_numVertices));
+            flush(m_offsetChannel, m_offsetBuffer);
+            long size = m_offsetChannel.size();
+            for (long pos=0; pos<size; )
+                pos += m_offsetChannel.transferTo(pos, size-pos, m_channel);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt((int)m_numVertices).putInt(checkCount(m_numPolylines)).flip();
+            while (header.hasRemaining())
+                m_channel.write(header, HEADER_SIZE-header.remaining());
+        } finally {
+            m_offsetChannel.close();
+            m_channel.close();
+        }
+    }
+}
@@ -0,0 +1,566 @@
+package vgp.tutor.lsystem;
+
+/**
+ * Compiled form of a context-free L-system used by the rewrite engine.
+ * Each character is mapped to a byte code through a dense lookup table,
+ * and each code owns its production as a byte-coded array. Characters
+ * which occur in the axiom or in a rule but not in the alphabet get a
+ * code with an empty production, exactly as they vanish in the string
+ * based iteration.
+ * <p>
+ * A rule may consist of alternative productions separated by ';', each
+ * optionally preceded by a weight and ':', e.g. "1:F[+F]F;2:F[-F]F". Such a
+ * symbol is stochastic: each occurrence is replaced by an alternative chosen
+ * with probability proportional to its weight, equal if no weights are given.
+ * The choice depends only on a random number computed from a seed, the
+ * generation and the position of the symbol in its generation, hence, any
+ * range of a state can be rewritten independently with identical results.
+ * <p>
+ * If some rule contains "-&gt;" the rules are parametric and possibly
+ * context-sensitive, and they are compiled by LSystemParametricGrammar.
+ * This grammar then only supplies the codes of the symbols.
+ *
+ * @version		17.10.26, 1.60 revised Nesting depth of branches in a generation.<br>
+ *					17.10.26, 1.50 revised Parametric and context-sensitive rules.<br>
+ *					17.10.26, 1.40 revised Stochastic rules with weighted alternatives.<br>
+ *					17.10.26, 1.30 revised Hash of alphabet, axiom and rules.<br>
+ *					17.10.26, 1.20 revised Number of occurrences of each symbol in a generation.<br>
+ *					17.10.26, 1.10 revised Length of derived symbols without expansion.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemGrammar {
+    /** Maximal number of different symbols which still fit into a byte code. */
+    public static final	int		MAX_NUM_SYMBOLS	= 256;
+
+    /** Alphabet, axiom and rules this grammar was compiled from. */
+    protected	char []		m_alphabet;
+    protected	String		m_axiom;
+    protected	String []	m_rule;
+
+    /** Code of each character indexed by the character itself, -1 if unused. */
+    protected	int []		m_codeOf;
+    /** Character of each code. */
+    protected	char []		m_symbol;
+    /** Number of different symbols. */
+    protected	int			m_numSymbols;
+    /** Byte-coded production of each code. */
+    protected	byte [][]	m_production;
+    /** Length of the production of each code. */
+    protected	int []		m_productionLen;
+    /** Byte-coded axiom. */
+    protected	byte []		m_axiomCode;
+    /**
+     * Byte-coded alternative productions of each code, null for codes with a
+     * single production, and null if no code is stochastic.
+     */
+    protected	byte [][][]	m_alternative;
+    /** Cumulative probabilities of the alternatives of each stochastic code, the last is 1. */
+    protected	double [][]	m_probability;
+    /** Maximal length of all productions including alternatives. */
+    protected	int			m_maxProductionLen;
+    /** Increment of the counter-based random numbers, the golden ratio in 64 bits. */
+    protected static final	long	GOLDEN			= 0x9E3779B97F4A7C15L;
+    /**
+     * Length of the expansion of each code after a number of generations,
+     * indexed by [generations][code] and extended on demand.
+     */
+    protected	long [][]	m_length;
+    /** Compiled parametric and context-sensitive rules, null if the rules contain no "-&gt;". */
+    protected	LSystemParametricGrammar	m_parametric;
+
+    /**
+     * Compile a grammar. The given arrays are copied, so later changes
+     * to the L-system are detected by <code>isCompiledFrom</code>.
+     */
+    public LSystemGrammar(char [] alphabet, String axiom, String [] rule) {
+        m_alphabet	= alphabet.clone();
+        m_axiom		= axiom;
+        m_rule		= rule.clone();
+
+        // productions of each rule without weights and separators, or
+        // the symbols of parametric rules without parameters and syntax
+        boolean bParametric		= LSystemParametricGrammar.isParametric(rule);
+        String [][] alternative	= new String[rule.length][];
+        double [][] weight		= new double[rule.length][];
+        for (int j=0; j<rule.length; j++) {
+            if (bParametric)
+                alternative[j] = new String[] {LSystemParametricGrammar.getSymbols(rule[j])};
+            else
+                alternative[j] = parseRule(rule[j], weight, j);
+        }
+        if (bParametric)
+            axiom = LSystemParametricGrammar.getSymbols(axiom);
+
+        int maxChar = 0;
+        for (int j=0; j<alphabet.length; j++)
+            maxChar = Math.max(maxChar, alphabet[j]);
+        maxChar = Math.max(maxChar, maxChar(axiom));
+        for (int j=0; j<rule.length; j++)
+            for (int k=0; k<alternative[j].length; k++)
+                maxChar = Math.max(maxChar, maxChar(alternative[j][k]));
+        m_codeOf = new int[maxChar+1];
+        java.util.Arrays.fill(m_codeOf, -1);
+
+        // Symbols of the alphabet keep their position as code. If a character
+        // appears twice, the first occurrence wins as in the linear search.
+        StringBuffer symbols = new StringBuffer();
+        for (int j=0; j<alphabet.length; j++) {
+            if (m_codeOf[alphabet[j]] < 0)
+                m_codeOf[alphabet[j]] = j;
+            symbols.append(alphabet[j]);
+        }
+        addUnknown(symbols, axiom);
+        for (int j=0; j<rule.length; j++)
+            for (int k=0; k<alternative[j].length; k++)
+                addUnknown(symbols, alternative[j][k]);
+        m_numSymbols	= symbols.length();
+        m_symbol			= new char[m_numSymbols];
+        symbols.getChars(0, m_numSymbols, m_symbol, 0);
+        if (!isByteCoded())
+            return;
+
+        m_production		= new byte[m_numSymbols][];
+        m_productionLen	= new int[m_numSymbols];
+        for (int j=0; j<m_numSymbols; j++) {
+            if (bParametric)
+                m_production[j]	= new byte[] {(byte)j};
+            else
+                m_production[j]	= j < alphabet.length ? encode(alternative[j][0]) : new byte[0];
+            m_productionLen[j]	= m_production[j].length;
+            m_maxProductionLen	= Math.max(m_maxProductionLen, m_productionLen[j]);
+            if (j >= alphabet.length || alternative[j].length == 1)
+                continue;
+            if (m_alternative == null) {
+                m_alternative	= new byte[m_numSymbols][][];
+                m_probability	= new double[m_numSymbols][];
+            }
+            int numAlternatives = alternative[j].length;
+            m_alternative[j]	= new byte[numAlternatives][];
+            m_probability[j]	= new double[numAlternatives];
+            double sum = 0.;
+            for (int k=0; k<numAlternatives; k++)
+                sum += weight[j][k];
+            double cumulative = 0.;
+            for (int k=0; k<numAlternatives; k++) {
+                m_alternative[j][k]	= encode(alternative[j][k]);
+                m_maxProductionLen	= Math.max(m_maxProductionLen, m_alternative[j][k].length);
+                cumulative			+= weight[j][k];
+                m_probability[j][k]	= k == numAlternatives-1 ? 1. : cumulative/sum;
+            }
+        }
+        m_axiomCode = encode(axiom);
+        if (bParametric)
+            m_parametric = new LSystemParametricGrammar(this, alphabet, m_axiom, rule);
+    }
+    /**
+     * Get the alternative productions of a rule without weights and separators.
+     * @throws		IllegalArgumentException	if the weights of the alternatives sum to zero.
+     */
+    public static String [] getAlternatives(String rule) {
+        return parseRule(rule, new double[1][], 0);
+    }
+    /**
+     * Split a rule into its alternative productions and their weights.
+     * A rule without ';' is a single production, even if it contains ':'.
+     * @param		weight		receives the weights of the alternatives at index j.
+     */
+    private static String [] parseRule(String rule, double [][] weight, int j) {
+        if (rule.indexOf(';') < 0) {
+            weight[j] = new double[] {1.};
+            return new String[] {rule};
+        }
+        String [] alternative = rule.split(";", -1);
+        weight[j] = new double[alternative.length];
+        double sum = 0.;
+        for (int k=0; k<alternative.length; k++) {
+            weight[j][k] = 1.;
+            int colon = alternative[k].indexOf(':');
+            if (colon > 0 && alternative[k].substring(0, colon).matches("[0-9]*\\.?[0-9]+")) {
+                weight[j][k]		= Double.parseDouble(alternative[k].substring(0, colon));
+                alternative[k]	= alternative[k].substring(colon+1);
+            }
+            sum += weight[j][k];
+        }
+        if (!(sum > 0.))
+            throw new IllegalArgumentException("weights of alternatives in rule \""+rule+"\" sum to zero");
+        return alternative;
+    }
+    private static int maxChar(String str) {
+        int max = 0;
+        for (int i=0; i<str.length(); i++)
+            max = Math.max(max, str.charAt(i));
+        return max;
+    }
+    private void addUnknown(StringBuffer symbols, String str) {
+        for (int i=0; i<str.length(); i++) {
+            char c = str.charAt(i);
+            if (m_codeOf[c] < 0) {
+                m_codeOf[c] = symbols.length();
+                symbols.append(c);
+            }
+        }
+    }
+    /**
+     * Check if this grammar was compiled from the given alphabet, axiom and rules.
+     */
+    public boolean isCompiledFrom(char [] alphabet, String axiom, String [] rule) {
+        return java.util.Arrays.equals(m_alphabet, alphabet) &&
+            m_axiom.equals(axiom) &&
+            java.util.Arrays.equals(m_rule, rule);
+    }
+    /**
+     * Get a 64-bit FNV-1a hash of alphabet, axiom and rules, which is stable across
+     * runs and identifies the grammar e.g. in files of derived states.
+     */
+    public long getHash() {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, new String(m_alphabet));
+        hash = hash(hash, m_axiom);
+        for (int j=0; j<m_rule.length; j++)
+            hash = hash(hash, m_rule[j]);
+        return hash;
+    }
+    /**
+     * Get hash of the grammar and the seed of its random choices, which
+     * identifies a derived state. Equals getHash() if the grammar is not stochastic.
+     */
+    public long getHash(long seed) {
+        long hash = getHash();
+        if (!isStochastic())
+            return hash;
+        hash = hash(hash, (int)seed, 4);
+        return hash(hash, (int)(seed >>> 32), 4);
+    }
+    private static long hash(long hash, String str) {
+        // the length separates consecutive strings
+        hash = hash(hash, str.length(), 4);
+        for (int i=0; i<str.length(); i++)
+            hash = hash(hash, str.charAt(i), 2);
+        return hash;
+    }
+    private static long hash(long hash, int value, int numBytes) {
+        for (int k=0; k<numBytes; k++)
+            hash = (hash ^ ((value >>> 8*k) & 0xFF))*0x100000001b3L;
+        return hash;
+    }
+    /**
+     * Check if all symbols fit into a byte code. Otherwise the rewrite
+     * engine cannot be used and the L-system falls back to strings.
+     */
+    public boolean isByteCoded() {
+        return m_numSymbols <= MAX_NUM_SYMBOLS;
+    }
+    /** Get number of different symbols including those not in the alphabet. */
+    public int getNumSymbols() {
+        return m_numSymbols;
+    }
+    /** Get character of a code. */
+    public char getSymbol(int code) {
+        return m_symbol[code];
+    }
+    /** Get code of a character, or -1 if the character does not occur in the grammar. */
+    public int getCode(char c) {
+        return c < m_codeOf.length ? m_codeOf[c] : -1;
+    }
+    /** Get byte-coded axiom. Array must not be modified. */
+    public byte [] getAxiom() {
+        return m_axiomCode;
+    }
+    /**
+     * Get byte-coded production of a code, the first alternative if the code is
+     * stochastic. Array must not be modified.
+     */
+    public byte [] getProduction(int code) {
+        return m_production[code];
+    }
+    /** Get length of the production of a code, the first alternative if the code is stochastic. */
+    public int getProductionLength(int code) {
+        return m_productionLen[code];
+    }
+    /** Get maximal length of all productions including alternatives. */
+    public int getMaxProductionLength() {
+        return m_maxProductionLen;
+    }
+    /** Check if the rules are parametric or context-sensitive, see LSystemParametricGrammar. */
+    public boolean isParametric() {
+        return m_parametric != null;
+    }
+    /** Get compiled parametric rules, null if the grammar is not parametric. */
+    public LSystemParametricGrammar getParametric() {
+        return m_parametric;
+    }
+    /** Check if some rule has alternative productions which are chosen at random. */
+    public boolean isStochastic() {
+        return m_alternative != null;
+    }
+    /**
+     * Get the key of the random choices in a generation, which is the state of
+     * a counter-based generator after mixing the seed and the generation.
+     * @param		generation		generation of the rewritten symbols, 0 for the axiom.
+     */
+    public static long getKey(long seed, int generation) {
+        return mix(seed+(generation+1)*GOLDEN);
+    }
+    /**
+     * Get byte-coded production of a symbol at a position of a generation.
+     * For a stochastic code the alternative is chosen with the random number
+     * at the position in the sequence of the generation's key, as in SplitMix64.
+     * @param		key		key of the generation, see getKey().
+     * @param		pos		position of the symbol in its generation.
+     */
+    public byte [] getProduction(int code, long key, long pos) {
+        if (m_alternative == null || m_alternative[code] == null)
+            return m_production[code];
+        double [] probability = m_probability[code];
+        double random = (mix(key+(pos+1)*GOLDEN) >>> 11)*0x1.0p-53;
+        int k = 0;
+        while (random >= probability[k] && k < probability.length-1)
+            k++;
+        return m_alternative[code][k];
+    }
+    /** Finalizer of SplitMix64 which maps a counter to a random long. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    /**
+     * Get length of the expansion of a symbol after a number of generations.
+     * The table of lengths is built bottom-up on demand, hence, a query is O(1)
+     * once the number of generations has been reached. Lengths which exceed
+     * the range of long are clamped to Long.MAX_VALUE.
+     * @param		code					code of symbol.
+     * @param		numGenerations		number of applications of the rules.
+     * @throws		IllegalStateException		if the grammar is stochastic or parametric.
+     */
+    public long getLength(int code, int numGenerations) {
+        if (isStochastic())
+            throw new IllegalStateException("length of a stochastic L-system depends on the random choices");
+        if (isParametric())
+            throw new IllegalStateException("length of a parametric L-system depends on its conditions");
+        if (m_length == null || m_length.length <= numGenerations) {
+            long [][] length = new long[numGenerations+1][];
+            int numKnown = 0;
+            if (m_length != null) {
+                numKnown = m_length.length;
+                System.arraycopy(m_length, 0, length, 0, numKnown);
+            }
+            for (int k=numKnown; k<=numGenerations; k++) {
+                length[k] = new long[m_numSymbols];
+                for (int j=0; j<m_numSymbols; j++) {
+                    if (k == 0) {
+                        length[k][j] = 1;
+                        continue;
+                    }
+                    byte [] p = m_production[j];
+                    long len = 0;
+                    for (int i=0; i<p.length; i++)
+                        len = addLength(len, length[k-1][p[i] & 0xFF]);
+                    length[k][j] = len;
+                }
+            }
+            m_length = length;
+        }
+        return m_length[numGenerations][code];
+    }
+    /**
+     * Get length of the expansion of a sequence of symbols after a number of generations.
+     * @param		seq					byte-coded symbols.
+     * @param		numGenerations		number of applications of the rules.
+     */
+    public long getLength(byte [] seq, int numGenerations) {
+        long len = 0;
+        for (int i=0; i<seq.length; i++)
+            len = addLength(len, getLength(seq[i] & 0xFF, numGenerations));
+        return len;
+    }
+    /** Get length of a generation derived from the axiom. */
+    public long getLength(int numGenerations) {
+        return getLength(m_axiomCode, numGenerations);
+    }
+    /**
+     * Get the number of occurrences of each symbol in a generation derived from
+     * the axiom. The counts are propagated through the productions generation by
+     * generation, i.e. the histogram of the axiom is multiplied by the matrix of
+     * symbol counts of the productions, without expanding the state.
+     * Counts which exceed the range of long are clamped to Long.MAX_VALUE.
+     * @param		numGenerations		number of applications of the rules.
+     * @return		array with number of occurrences indexed by code.
+     * @throws		IllegalStateException		if the grammar is stochastic or parametric.
+     */
+    public long [] getSymbolCounts(int numGenerations) {
+        if (isStochastic())
+            throw new IllegalStateException("counts of a stochastic L-system depend on the random choices");
+        if (isParametric())
+            throw new IllegalStateException("counts of a parametric L-system depend on its conditions");
+        long [] count = new long[m_numSymbols];
+        for (int i=0; i<m_axiomCode.length; i++)
+            count[m_axiomCode[i] & 0xFF]++;
+        long [] next = new long[m_numSymbols];
+        for (int k=0; k<numGenerations; k++) {
+            java.util.Arrays.fill(next, 0);
+            for (int j=0; j<m_numSymbols; j++) {
+                long n = count[j];
+                if (n == 0)
+                    continue;
+                byte [] p = m_production[j];
+                for (int i=0; i<p.length; i++)
+                    next[p[i] & 0xFF] = addLength(next[p[i] & 0xFF], n);
+            }
+            long [] tmp = count;
+            count	= next;
+            next	= tmp;
+        }
+        return count;
+    }
+    /**
+     * Get the maximal nesting depth of branches in a generation derived from
+     * the axiom, where unmatched ']' are ignored, without expanding the state.
+     * The brackets of each expansion of a symbol are summarized by four numbers:
+     * the net change of depth n, the number a of unmatched ']', the maximal
+     * depth h above the start, and the maximal depth H reached if unmatched ']'
+     * stop at depth 0. Starting at depth d, the expansion reaches depth
+     * max(d+h, H) and ends at max(d+n, n+a), hence, the summary of a production
+     * is composed from the summaries of its symbols in the previous generation.
+     * Depths which exceed the range of long are clamped to Long.MAX_VALUE.
+     * @param		numGenerations		number of applications of the rules.
+     * @throws		IllegalStateException		if the grammar is stochastic or parametric.
+     */
+    public long getMaxDepth(int numGenerations) {
+        if (isStochastic())
+            throw new IllegalStateException("depth of a stochastic L-system depends on the random choices");
+        if (isParametric())
+            throw new IllegalStateException("depth of a parametric L-system depends on its conditions");
+        long [][] depth = new long[m_numSymbols][4];
+        for (int j=0; j<m_numSymbols; j++) {
+            if (m_symbol[j] == '[')
+                depth[j] = new long[] {1, 0, 1, 1};
+            else if (m_symbol[j] == ']')
+                depth[j] = new long[] {-1, 1, 0, 0};
+        }
+        long [][] next = new long[m_numSymbols][4];
+        for (int k=0; k<numGenerations; k++) {
+            for (int j=0; j<m_numSymbols; j++)
+                composeDepth(m_production[j], depth, next[j]);
+            long [][] tmp = depth;
+            depth	= next;
+            next	= tmp;
+        }
+        long [] axiom = new long[4];
+        composeDepth(m_axiomCode, depth, axiom);
+        return axiom[3];
+    }
+    /**
+     * Compose the summaries of brackets of a sequence of symbols, see getMaxDepth().
+     * @param		depth		summary {n, a, h, H} of each code.
+     * @param		dst		receives the summary of the sequence.
+     */
+    private static void composeDepth(byte [] seq, long [][] depth, long [] dst) {
+        long n = 0, a = 0, h = 0, H = 0;
+        for (int i=0; i<seq.length; i++) {
+            long [] y = depth[seq[i] & 0xFF];
+            H	= Math.max(H, Math.max(addDepth(addDepth(n, a), y[2]), y[3]));
+            h	= Math.max(h, addDepth(n, y[2]));
+            a	= Math.max(a, addDepth(y[1], n == Long.MIN_VALUE ? Long.MAX_VALUE : -n));
+            n	= addDepth(n, y[0]);
+        }
+        dst[0] = n;
+        dst[1] = a;
+        dst[2] = h;
+        dst[3] = H;
+    }
+    /** Add two depths, clamped to the range of long. */
+    private static long addDepth(long a, long b) {
+        long sum = a+b;
+        if (((a ^ sum) & (b ^ sum)) < 0)
+            return a < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        return sum;
+    }
+    private static long addLength(long a, long b) {
+        long sum = a+b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+    /** Convert a string into byte codes. All characters must occur in the grammar. */
+    public byte [] encode(String str) {
+        int len = str.length();
+        byte [] code = new byte[len];
+        for (int i=0; i<len; i++)
+            code[i] = (byte)m_codeOf[str.charAt(i)];
+        return code;
+    }
+    /** Convert a range of byte codes back into a string. */
+    public String decode(byte [] code, int from, int len) {
+        char [] str = new char[len];
+        for (int i=0; i<len; i++)
+            str[i] = m_symbol[code[from+i] & 0xFF];
+        return new String(str);
+    }
+    /**
+     * Compute the length of the next generation of a range of the state.
+     * @param		src		byte-coded state
+     * @param		from		first index of range
+     * @param		to			index after the last index of range
+     */
+    public long countRewrite(byte [] src, int from, int to) {
+        int [] productionLen = m_productionLen;
+        long len = 0;
+        for (int i=from; i<to; i++)
+            len += productionLen[src[i] & 0xFF];
+        return len;
+    }
+    /**
+     * Replace each symbol in a range of the state by its production.
+     * @param		src		byte-coded state
+     * @param		from		first index of range
+     * @param		to			index after the last index of range
+     * @param		dst		buffer receiving the next generation
+     * @param		off		index in dst where to start writing
+     * @return		index in dst after the last written symbol
+     */
+    public int rewrite(byte [] src, int from, int to, byte [] dst, int off) {
+        byte [][] production = m_production;
+        for (int i=from; i<to; i++) {
+            byte [] p = production[src[i] & 0xFF];
+            int len = p.length;
+            if (len == 1) {
+                dst[off++] = p[0];
+            } else {
+                System.arraycopy(p, 0, dst, off, len);
+                off += len;
+            }
+        }
+        return off;
+    }
+    /**
+     * Compute the length of the next generation of a range of the state,
+     * with the productions chosen at random for stochastic codes.
+     * @param		src		byte-coded state
+     * @param		from		first index of range
+     * @param		to			index after the last index of range
+     * @param		key		key of the generation of src, see getKey().
+     */
+    public long countRewrite(byte [] src, int from, int to, long key) {
+        if (!isStochastic())
+            return countRewrite(src, from, to);
+        long len = 0;
+        for (int i=from; i<to; i++)
+            len += getProduction(src[i] & 0xFF, key, i).length;
+        return len;
+    }
+    /**
+     * Replace each symbol in a range of the state by its production, chosen at
+     * random for stochastic codes.
+     * @param		key		key of the generation of src, see getKey().
+     * @return		index in dst after the last written symbol
+     */
+    public int rewrite(byte [] src, int from, int to, byte [] dst, int off, long key) {
+        if (!isStochastic())
+            return rewrite(src, from, to, dst, off);
+        for (int i=from; i<to; i++) {
+            byte [] p = getProduction(src[i] & 0xFF, key, i);
+            System.arraycopy(p, 0, dst, off, p.length);
+            off += p.length;
+        }
+        return off;
+    }
+}
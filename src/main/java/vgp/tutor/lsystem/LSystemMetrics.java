@@ -0,0 +1,339 @@
+package vgp.tutor.lsystem;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Timers and counters of the stages of the L-system pipeline: derivation of
+ * each generation, compilation of the turtle program, interpretation,
+ * decimation and the update of the display. Each run of a stage measures its
+ * duration, the bytes allocated by its thread if the JVM supports it, and a
+ * number of items such as symbols or vertices. The metrics are exposed as
+ * MBean, see register(), and each run is committed as JFR event if a flight
+ * recording is active.
+ * <p>
+ * Stages are measured only at their boundaries, never inside the loops over
+ * symbols. A disabled instance returns null from begin() after reading a
+ * volatile flag, and end() returns for null immediately, hence, disabled
+ * metrics cost nothing measurable. Stages may run on different threads.
+ *
+ * @see			vgp.tutor.lsystem.LSystemMetricsMBean
+ * @version		17.10.26, 1.02 revised Generations assembled at once.<br>
+ *					17.10.26, 1.01 revised Registration may be undone.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemMetrics implements LSystemMetricsMBean {
+    /** Derivation of the requested state, items are symbols. */
+    public static final	int		STAGE_DERIVE			= 0;
+    /** Rewrite of one generation, items are symbols of the new generation. */
+    public static final	int		STAGE_GENERATION		= 1;
+    /** Compilation of the turtle program, items are symbols read. */
+    public static final	int		STAGE_COMPILE			= 2;
+    /** Interpretation of the turtle program, items are vertices. */
+    public static final	int		STAGE_INTERPRET		= 3;
+    /** Build of the levels of detail, items are vertices of the turtle. */
+    public static final	int		STAGE_DECIMATE		= 4;
+    /** Fill of the polygon set, items are vertices. */
+    public static final	int		STAGE_POLYGONS		= 5;
+    /** Update of the polygon set in the display. */
+    public static final	int		STAGE_UPDATE			= 6;
+    /** Fit of the displays. */
+    public static final	int		STAGE_FIT				= 7;
+    /** Names of the stages. */
+    protected static final	String []	STAGE_NAME	= {"derive", "generation", "compile", "interpret",
+                                                       "decimate", "polygons", "update", "fit"};
+    /** Maximal number of generations whose length and time are kept. */
+    public static final	int		MAX_GENERATIONS		= 64;
+
+    /** JFR event committed at the end of each run of a stage. */
+    @Name("vgp.tutor.lsystem.Stage")
+    @Label("L-System Stage")
+    @Category("L-System")
+    @Description("Run of a stage of the L-system pipeline")
+    static class StageEvent extends jdk.jfr.Event {
+        @Label("Stage")
+        String		stage;
+        @Label("Generation")
+        int			generation;
+        @Label("Items")
+        long			items;
+        @Label("Allocated Bytes")
+        long			allocated;
+    }
+    /** Run of a stage between begin() and end(). */
+    public static final class Span {
+        final	int			m_stage;
+        final	long			m_start;
+        final	long			m_startBytes;
+        final	StageEvent	m_event;
+
+        Span(int stage, long startBytes, StageEvent event) {
+            m_stage		= stage;
+            m_startBytes	= startBytes;
+            m_event		= event;
+            m_start		= System.nanoTime();
+        }
+    }
+
+    /** Flag whether stages are measured. */
+    protected volatile	boolean	m_bEnabled;
+    /** Number of runs, total, last and longest time in nanoseconds of each stage. */
+    protected	long []		m_count			= new long[STAGE_NAME.length];
+    protected	long []		m_totalNanos		= new long[STAGE_NAME.length];
+    protected	long []		m_lastNanos		= new long[STAGE_NAME.length];
+    protected	long []		m_maxNanos		= new long[STAGE_NAME.length];
+    /** Bytes allocated and number of items of the last run of each stage. */
+    protected	long []		m_allocated		= new long[STAGE_NAME.length];
+    protected	long []		m_items			= new long[STAGE_NAME.length];
+    /** Length and time of each generation of the last derivation, and number of known generations. */
+    protected	long []		m_genLength		= new long[MAX_GENERATIONS];
+    protected	long []		m_genNanos		= new long[MAX_GENERATIONS];
+    protected	int			m_numGenerations;
+    /** Largest size of a state in bytes. */
+    protected	long			m_peakStateBytes;
+    /** Number of vertices and polygons of the last interpretation. */
+    protected	long			m_numVertices;
+    protected	long			m_numPolygons;
+    /** Allocation counter of threads, null if not supported. */
+    protected	com.sun.management.ThreadMXBean	m_threads;
+    /** Name under which the metrics are registered as MBean, null if not registered. */
+    protected	ObjectName	m_objectName;
+
+    /** Create disabled metrics. */
+    public LSystemMetrics() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean &&
+            ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported())
+            m_threads = (com.sun.management.ThreadMXBean)threads;
+    }
+    /**
+     * Register the metrics in the platform MBean server with the object name
+     * <code>vgp.tutor.lsystem:type=LSystemMetrics,name=&lt;name&gt;</code>.
+     * @return		the object name.
+     * @throws		JMException		if the name is in use or registration fails.
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("vgp.tutor.lsystem:type=LSystemMetrics,name="+ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        m_objectName = objectName;
+        return objectName;
+    }
+    /**
+     * Remove the metrics from the platform MBean server, e.g. when their owner
+     * is disposed. Does nothing if not registered.
+     * @throws		JMException		if the name is no longer registered.
+     */
+    public synchronized void unregister() throws JMException {
+        if (m_objectName == null)
+            return;
+        ObjectName objectName = m_objectName;
+        m_objectName = null;
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+    public boolean isEnabled() {
+        return m_bEnabled;
+    }
+    public void setEnabled(boolean flag) {
+        m_bEnabled = flag;
+    }
+    public synchronized void reset() {
+        Arrays.fill(m_count, 0);
+        Arrays.fill(m_totalNanos, 0);
+        Arrays.fill(m_lastNanos, 0);
+        Arrays.fill(m_maxNanos, 0);
+        Arrays.fill(m_allocated, 0);
+        Arrays.fill(m_items, 0);
+        m_numGenerations	= 0;
+        m_peakStateBytes	= 0;
+        m_numVertices		= 0;
+        m_numPolygons		= 0;
+    }
+
+    /**
+     * Start a run of a stage on the calling thread.
+     * @return		span to pass to end(), or null if disabled.
+     */
+    public Span begin(int stage) {
+        if (!m_bEnabled)
+            return null;
+        StageEvent event = new StageEvent();
+        event.begin();
+        return new Span(stage, getAllocatedBytes(), event);
+    }
+    /**
+     * Finish a run of a stage on the thread which began it.
+     * @param		span		result of begin(), nothing is done if null.
+     * @param		items		number of processed items, e.g. symbols or vertices.
+     */
+    public void end(Span span, long items) {
+        if (span == null)
+            return;
+        end(span, -1, items);
+    }
+    /**
+     * Finish a run of STAGE_GENERATION.
+     * @param		span			result of begin(), nothing is done if null.
+     * @param		generation	number of the derived generation.
+     * @param		length		number of symbols of the generation.
+     * @param		stateBytes	size of the state in bytes.
+     */
+    public void endGeneration(Span span, int generation, long length, long stateBytes) {
+        if (span == null)
+            return;
+        endGeneration(span, generation, length, stateBytes, generation <= 1);
+    }
+    /**
+     * Finish a run of STAGE_GENERATION which assembled a generation at once
+     * instead of rewriting it from the previous one, e.g. from cached expansions.
+     * The generations of the last derivation are replaced by this generation,
+     * hence, the earlier generations have length and time 0.
+     * @param		span			result of begin(), nothing is done if null.
+     * @param		generation	number of the assembled generation.
+     * @param		length		number of symbols of the generation.
+     * @param		stateBytes	size of the state in bytes.
+     */
+    public void endAssembledGeneration(Span span, int generation, long length, long stateBytes) {
+        if (span == null)
+            return;
+        endGeneration(span, generation, length, stateBytes, true);
+    }
+    private void endGeneration(Span span, int generation, long length, long stateBytes, boolean bRestart) {
+        long nanos = end(span, generation, length);
+        synchronized (this) {
+            if (bRestart) {
+                Arrays.fill(m_genLength, 0);
+                Arrays.fill(m_genNanos, 0);
+                m_numGenerations = 0;
+            }
+            if (generation >= 0 && generation < MAX_GENERATIONS) {
+                m_genLength[generation]	= length;
+                m_genNanos[generation]	= nanos;
+                m_numGenerations			= Math.max(m_numGenerations, generation+1);
+            }
+            m_peakStateBytes = Math.max(m_peakStateBytes, stateBytes);
+        }
+    }
+    /**
+     * Record the size of a derived state, e.g. one assembled without rewriting
+     * generation by generation. Does nothing if disabled.
+     */
+    public synchronized void setStateSize(long stateBytes) {
+        if (!m_bEnabled)
+            return;
+        m_peakStateBytes = Math.max(m_peakStateBytes, stateBytes);
+    }
+    /**
+     * Record the result of an interpretation of the turtle.
+     * Does nothing if disabled.
+     */
+    public synchronized void setGeometry(long numVertices, long numPolygons) {
+        if (!m_bEnabled)
+            return;
+        m_numVertices	= numVertices;
+        m_numPolygons	= numPolygons;
+    }
+    /** Record a run and commit its event, return its duration in nanoseconds. */
+    private long end(Span span, int generation, long items) {
+        long nanos		= System.nanoTime()-span.m_start;
+        long allocated	= span.m_startBytes < 0 ? -1 : getAllocatedBytes()-span.m_startBytes;
+        int stage		= span.m_stage;
+        StageEvent event = span.m_event;
+        event.end();
+        if (event.shouldCommit()) {
+            event.stage		= STAGE_NAME[stage];
+            event.generation	= generation;
+            event.items		= items;
+            event.allocated	= allocated;
+            event.commit();
+        }
+        synchronized (this) {
+            m_count[stage]++;
+            m_totalNanos[stage]	+= nanos;
+            m_lastNanos[stage]	= nanos;
+            m_maxNanos[stage]		= Math.max(m_maxNanos[stage], nanos);
+            m_allocated[stage]	= allocated;
+            m_items[stage]		= items;
+        }
+        return nanos;
+    }
+    /** Get bytes allocated by the calling thread so far, -1 if not supported. */
+    private long getAllocatedBytes() {
+        if (m_threads == null || !m_threads.isThreadAllocatedMemoryEnabled())
+            return -1;
+        return m_threads.getThreadAllocatedBytes(Thread.currentThread().threadId());
+    }
+
+    public String [] getStageNames() {
+        return STAGE_NAME.clone();
+    }
+    public synchronized long [] getStageCounts() {
+        return m_count.clone();
+    }
+    public synchronized double [] getStageTotalMillis() {
+        return toMillis(m_totalNanos, m_totalNanos.length);
+    }
+    public synchronized double [] getStageLastMillis() {
+        return toMillis(m_lastNanos, m_lastNanos.length);
+    }
+    public synchronized double [] getStageMaxMillis() {
+        return toMillis(m_maxNanos, m_maxNanos.length);
+    }
+    public synchronized long [] getStageAllocatedBytes() {
+        return m_allocated.clone();
+    }
+    public synchronized long [] getStageItems() {
+        return m_items.clone();
+    }
+    public synchronized long [] getGenerationLengths() {
+        return Arrays.copyOf(m_genLength, m_numGenerations);
+    }
+    public synchronized double [] getGenerationMillis() {
+        return toMillis(m_genNanos, m_numGenerations);
+    }
+    public synchronized long getPeakStateBytes() {
+        return m_peakStateBytes;
+    }
+    public synchronized long getNumVertices() {
+        return m_numVertices;
+    }
+    public synchronized long getNumPolygons() {
+        return m_numPolygons;
+    }
+    private static double [] toMillis(long [] nanos, int len) {
+        double [] millis = new double[len];
+        for (int i=0; i<len; i++)
+            millis[i] = nanos[i]*1.e-6;
+        return millis;
+    }
+    /**
+     * Get a compact summary with one line per stage which has run, showing the
+     * last and total time, the number of items and the allocated bytes of the
+     * last run, followed by geometry and peak state size.
+     */
+    public synchronized String toString() {
+        StringBuffer str = new StringBuffer();
+        for (int s=0; s<STAGE_NAME.length; s++) {
+            if (m_count[s] == 0)
+                continue;
+            str.append(STAGE_NAME[s]).append(": ");
+            str.append(String.format("%.1f ms", m_lastNanos[s]*1.e-6));
+            str.append(String.format(" (%d runs, %.1f ms)", m_count[s], m_totalNanos[s]*1.e-6));
+            if (m_items[s] > 0)
+                str.append(", ").append(m_items[s]).append(" items");
+            if (m_allocated[s] >= 0)
+                str.append(String.format(", %.1f KB", m_allocated[s]/1024.));
+            str.append('\n');
+        }
+        str.append("vertices ").append(m_numVertices).append(", polygons ").append(m_numPolygons);
+        str.append(String.format(", peak state %.1f MB", m_peakStateBytes/1048576.));
+        return str.toString();
+    }
+}
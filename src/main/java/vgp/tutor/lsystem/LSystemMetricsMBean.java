@@ -0,0 +1,42 @@
+package vgp.tutor.lsystem;
+
+/**
+ * Management interface of the metrics of the L-system pipeline, see LSystemMetrics.
+ * Times are in milliseconds, and arrays of stages are indexed as getStageNames().
+ *
+ * @version		17.10.26, 1.00 created
+ */
+public interface LSystemMetricsMBean {
+    /** Check if stages are measured. */
+    boolean isEnabled();
+    /** Enable or disable measurement of the stages. */
+    void setEnabled(boolean flag);
+    /** Clear all measurements. */
+    void reset();
+
+    /** Get names of the stages. */
+    String [] getStageNames();
+    /** Get number of runs of each stage. */
+    long [] getStageCounts();
+    /** Get total time of each stage. */
+    double [] getStageTotalMillis();
+    /** Get time of the last run of each stage. */
+    double [] getStageLastMillis();
+    /** Get longest run of each stage. */
+    double [] getStageMaxMillis();
+    /** Get bytes allocated by the last run of each stage, -1 if not measurable. */
+    long [] getStageAllocatedBytes();
+    /** Get number of items of the last run of each stage, e.g. symbols or vertices. */
+    long [] getStageItems();
+
+    /** Get length of each generation of the last derivation indexed by generation, 0 if not rewritten. */
+    long [] getGenerationLengths();
+    /** Get time of each generation of the last derivation indexed by generation, 0 if not rewritten. */
+    double [] getGenerationMillis();
+    /** Get largest size of a state in bytes. */
+    long getPeakStateBytes();
+    /** Get number of vertices of the last interpretation. */
+    long getNumVertices();
+    /** Get number of polygons of the last interpretation. */
+    long getNumPolygons();
+}
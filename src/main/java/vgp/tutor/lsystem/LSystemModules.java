@@ -0,0 +1,117 @@
+package vgp.tutor.lsystem;
+
+/**
+ * State of a parametric L-system as sequence of modules, i.e. symbols with
+ * a possibly empty list of numeric parameters. The symbols are byte codes of
+ * the grammar, and the parameters of all modules are stored consecutively in
+ * a primitive side array, so no text is created while rewriting.
+ * <p>
+ * Arrays grow by a factor and are reused, hence, two instances swapped after
+ * each generation do not allocate once the generations have reached their size.
+ *
+ * @see			vgp.tutor.lsystem.LSystemParametricGrammar
+ * @version		17.10.26, 1.10 revised Conversion of a range of modules.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemModules {
+    /** Byte code of the symbol of each module. */
+    protected	byte []		m_code			= new byte[16];
+    /** Index of the first parameter of each module in m_param, entry m_length is the total. */
+    protected	int []		m_paramStart	= new int[17];
+    /** Parameters of all modules. */
+    protected	double []	m_param			= new double[16];
+    /** Number of modules. */
+    protected	int			m_length;
+
+    /** Get number of modules. */
+    public int getLength() {
+        return m_length;
+    }
+    /** Get byte codes of the symbols, valid up to getLength(). Array must not be modified. */
+    public byte [] getCodes() {
+        return m_code;
+    }
+    /** Get code of the symbol of a module. */
+    public int getCode(int i) {
+        return m_code[i] & 0xFF;
+    }
+    /** Get number of parameters of a module. */
+    public int getNumParams(int i) {
+        return m_paramStart[i+1]-m_paramStart[i];
+    }
+    /** Get a parameter of a module. */
+    public double getParam(int i, int k) {
+        return m_param[m_paramStart[i]+k];
+    }
+    /** Remove all modules. */
+    public void clear() {
+        m_length			= 0;
+        m_paramStart[0]	= 0;
+    }
+    /** Append a module without parameters, whose parameters may be appended with addParam. */
+    public void add(int code) {
+        if (m_length == m_code.length) {
+            if (m_length >= LSystem.MAX_STATE_LENGTH)
+                throw new IllegalStateException("Length of state exceeds "+LSystem.MAX_STATE_LENGTH);
+            int size = (int)Math.min((long)m_length*3/2+1, LSystem.MAX_STATE_LENGTH);
+            m_code			= java.util.Arrays.copyOf(m_code, size);
+            m_paramStart	= java.util.Arrays.copyOf(m_paramStart, size+1);
+        }
+        int end = m_paramStart[m_length];
+        m_code[m_length++]			= (byte)code;
+        m_paramStart[m_length]	= end;
+    }
+    /** Append a parameter to the last module. */
+    public void addParam(double value) {
+        int end = m_paramStart[m_length];
+        if (end == m_param.length) {
+            if (end >= LSystem.MAX_STATE_LENGTH)
+                throw new IllegalStateException("Number of parameters exceeds "+LSystem.MAX_STATE_LENGTH);
+            m_param = java.util.Arrays.copyOf(m_param, (int)Math.min((long)end*3/2+1, LSystem.MAX_STATE_LENGTH));
+        }
+        m_param[end] = value;
+        m_paramStart[m_length] = end+1;
+    }
+    /** Append a copy of a module of another state. */
+    public void add(LSystemModules src, int i) {
+        add(src.m_code[i] & 0xFF);
+        for (int k=src.m_paramStart[i]; k<src.m_paramStart[i+1]; k++)
+            addParam(src.m_param[k]);
+    }
+    /** Replace the modules by a copy of another state. */
+    public void set(LSystemModules src) {
+        clear();
+        for (int i=0; i<src.m_length; i++)
+            add(src, i);
+    }
+    /**
+     * Convert the modules into a string, with parameters in parentheses
+     * separated by commas, e.g. "F(1.5)[+F(0.75)]".
+     */
+    public String toString(LSystemGrammar grammar) {
+        return toString(grammar, 0, m_length);
+    }
+    /** Convert a range of modules into a string. */
+    public String toString(LSystemGrammar grammar, int from, int to) {
+        StringBuffer str = new StringBuffer(to-from);
+        for (int i=from; i<to; i++) {
+            str.append(grammar.getSymbol(m_code[i] & 0xFF));
+            int first	= m_paramStart[i];
+            int end		= m_paramStart[i+1];
+            if (first == end)
+                continue;
+            str.append('(');
+            for (int k=first; k<end; k++) {
+                if (k > first)
+                    str.append(',');
+                double value = m_param[k];
+                if (value == Math.rint(value) && Math.abs(value) < 1.e15)
+                    str.append((long)value);
+                else
+                    str.append(value);
+            }
+            str.append(')');
+        }
+        return str.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package vgp.tutor.lsystem;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Bit-packed state of an L-system whose words are held in direct buffers
+ * outside of the Java heap. Large generations then neither count against the
+ * maximal heap size nor are copied or scanned by the garbage collector, and
+ * the length is not limited by the size of Java arrays.
+ * <p>
+ * The words are split into segments of SEGMENT_WORDS words since a single
+ * buffer is limited to 2^31 bytes. Segments are kept and reused when the state
+ * is rewritten, hence, double-buffered derivations allocate memory only while
+ * generations grow. The total of direct memory is bounded by the JVM option
+ * -XX:MaxDirectMemorySize. Releasing the state only drops the references to
+ * its buffers, the memory is returned when the garbage collector has collected
+ * them. If an allocation would exceed the bound, the JVM first runs a garbage
+ * collection and retries, so released segments are reclaimed before an
+ * OutOfMemoryError is thrown, unless -XX:+DisableExplicitGC is set.
+ * <p>
+ * Streams decode the symbols from the buffers without a copy of the state,
+ * but the turtle program compiled from them, see LSystemProgram, still holds
+ * one instruction per drawing symbol on the heap.
+ *
+ * @version		17.10.26, 1.01 revised Released memory is returned by the garbage collector.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemOffHeapState extends LSystemPackedState {
+    /** Number of words of each segment, 2^27 words are 1 GiB. */
+    public static final	int		SEGMENT_WORDS		= 1<<27;
+    protected static final	int	SEGMENT_SHIFT		= 27;
+    /** Maximal number of words, far beyond the available memory. */
+    protected static final	long	MAX_WORDS			= 1L<<56;
+
+    /** Segments of words, all but the last with SEGMENT_WORDS words. */
+    protected	LongBuffer []	m_segment			= new LongBuffer[0];
+
+    /** Create an empty state for a number of bits per symbol. */
+    public LSystemOffHeapState(int bits) {
+        super(bits);
+        m_word = null;
+    }
+    public long getMaxLength() {
+        return MAX_WORDS*m_perWord;
+    }
+    protected long getWord(long w) {
+        return m_segment[(int)(w >>> SEGMENT_SHIFT)].get((int)w & (SEGMENT_WORDS-1));
+    }
+    protected void setWord(long w, long word) {
+        m_segment[(int)(w >>> SEGMENT_SHIFT)].put((int)w & (SEGMENT_WORDS-1), word);
+    }
+    /**
+     * Make sure the state can hold a number of symbols, the contents may be lost.
+     * Only the last segment grows by a factor, all others have full size.
+     */
+    public void assureCapacity(long length) {
+        long numWords = (length+m_perWord-1)/m_perWord;
+        if (numWords > MAX_WORDS)
+            throw new IllegalStateException("Length of off-heap state exceeds "+getMaxLength());
+        int numSegments = (int)((numWords+SEGMENT_WORDS-1) >>> SEGMENT_SHIFT);
+        if (numSegments == 0)
+            return;
+        int oldNum = m_segment.length;
+        long lastWords = numWords-((long)(numSegments-1) << SEGMENT_SHIFT);
+        if (numSegments < oldNum || (numSegments == oldNum && m_segment[oldNum-1].capacity() >= lastWords))
+            return;
+        LongBuffer [] segment = new LongBuffer[Math.max(numSegments, oldNum)];
+        System.arraycopy(m_segment, 0, segment, 0, oldNum);
+        for (int k=oldNum-1; k<numSegments; k++) {
+            if (k < 0 || (k < numSegments-1 && segment[k].capacity() == SEGMENT_WORDS))
+                continue;
+            int size = SEGMENT_WORDS;
+            if (k == numSegments-1) {
+                int capacity = k < oldNum ? segment[k].capacity() : 0;
+                size = (int)Math.min(Math.max(lastWords, (long)capacity*3/2), SEGMENT_WORDS);
+            }
+            segment[k] = ByteBuffer.allocateDirect(8*size).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        m_segment = segment;
+    }
+    /**
+     * Drop the buffers, the state becomes empty. Their direct memory is not freed
+     * here but returned when the garbage collector has collected the buffers.
+     */
+    public void release() {
+        m_segment	= new LongBuffer[0];
+        m_length		= 0;
+    }
+}
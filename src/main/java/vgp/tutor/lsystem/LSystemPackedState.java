@@ -0,0 +1,243 @@
+package vgp.tutor.lsystem;
+
+/**
+ * State of an L-system with small alphabet whose symbols are packed into
+ * 64-bit words. Each symbol occupies the smallest number of bits which holds
+ * all codes of the grammar, e.g. 3 bits for the five symbols F+-[], and each
+ * word holds 64/bits symbols starting at the lowest bits. Compared to a
+ * byte-coded state this stores 21 instead of 8 symbols of F+-[] per 8 bytes,
+ * and the length is not limited by the size of Java arrays.
+ * <p>
+ * Rewriting reads the packed words of the source and appends the productions
+ * to an accumulator word which is stored when full, so no symbol is unpacked
+ * into a larger buffer. A state is rewritten in chunks of whole source words.
+ * Each chunk writes all words which start within its output range; the symbols
+ * of its output in the word which starts in the range of the previous chunk are
+ * returned as head word, which the caller combines into that word after the
+ * previous chunk has finished. Hence, chunks may be rewritten in parallel.
+ * <p>
+ * Words are accessed through <code>getWord</code> and <code>setWord</code>,
+ * which subclasses may override to hold the words outside of the Java heap,
+ * see LSystemOffHeapState.
+ *
+ * @version		17.10.26, 1.31 revised Memory of the words may be released.<br>
+ *					17.10.26, 1.30 revised Decoding of a range of symbols.<br>
+ *					17.10.26, 1.20 revised Random choices of stochastic grammars.<br>
+ *					17.10.26, 1.10 revised Access of words may be overridden.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemPackedState {
+    /** Largest number of bits per symbol for which a packed state is useful. */
+    public static final	int		MAX_BITS			= 4;
+
+    /** Number of bits of each symbol. */
+    protected	int			m_bits;
+    /** Number of symbols in each word. */
+    protected	int			m_perWord;
+    /** Mask of the bits of a symbol. */
+    protected	long			m_mask;
+    /** Packed symbols. */
+    protected	long []		m_word			= new long[16];
+    /** Number of symbols. */
+    protected	long			m_length;
+
+    /** Get smallest number of bits which holds the codes of a number of symbols. */
+    public static int getBitsPerSymbol(int numSymbols) {
+        int bits = 1;
+        while ((1 << bits) < numSymbols)
+            bits++;
+        return bits;
+    }
+    /** Create an empty state for a number of bits per symbol. */
+    public LSystemPackedState(int bits) {
+        setBitsPerSymbol(bits);
+    }
+    /** Get number of bits of each symbol. */
+    public int getBitsPerSymbol() {
+        return m_bits;
+    }
+    /** Set number of bits of each symbol, the state becomes empty. */
+    public void setBitsPerSymbol(int bits) {
+        if (bits < 1 || bits > 8)
+            throw new IllegalArgumentException("bits per symbol must be in [1,8], found "+bits);
+        m_bits		= bits;
+        m_perWord	= 64/bits;
+        m_mask		= (1L << bits)-1;
+        m_length		= 0;
+    }
+    /** Get maximal number of symbols of a state with this number of bits per symbol. */
+    public long getMaxLength() {
+        return (long)LSystem.MAX_STATE_LENGTH*m_perWord;
+    }
+    /** Get number of symbols. */
+    public long getLength() {
+        return m_length;
+    }
+    /** Set number of symbols, e.g. after rewriting into this state. */
+    public void setLength(long length) {
+        m_length = length;
+    }
+    /** Get code of a symbol. */
+    public int get(long i) {
+        return (int)((getWord(i/m_perWord) >>> (i%m_perWord)*m_bits) & m_mask);
+    }
+    /** Get word with a given index. */
+    protected long getWord(long w) {
+        return m_word[(int)w];
+    }
+    /** Set word with a given index. */
+    protected void setWord(long w, long word) {
+        m_word[(int)w] = word;
+    }
+    /** Make sure the state can hold a number of symbols, the contents may be lost. */
+    public void assureCapacity(long length) {
+        long numWords = (length+m_perWord-1)/m_perWord;
+        if (numWords > LSystem.MAX_STATE_LENGTH)
+            throw new IllegalStateException("Length of packed state exceeds "+getMaxLength());
+        if (numWords > m_word.length)
+            m_word = new long[(int)Math.max(numWords, Math.min((long)m_word.length*3/2, LSystem.MAX_STATE_LENGTH))];
+    }
+    /** Drop the words so that their memory can be collected, the state becomes empty. */
+    public void release() {
+        m_word		= new long[16];
+        m_length		= 0;
+    }
+    /** Set the state to byte-coded symbols. */
+    public void set(byte [] code, int len) {
+        assureCapacity(len);
+        int bits		= m_bits;
+        int perWord	= m_perWord;
+        for (int i=0, w=0; i<len; i+=perWord, w++) {
+            long word = 0;
+            int end = Math.min(i+perWord, len);
+            for (int j=end-1; j>=i; j--)
+                word = (word << bits) | (code[j] & 0xFF);
+            setWord(w, word);
+        }
+        m_length = len;
+    }
+    /** Decode the state into a string. */
+    public String decode(LSystemGrammar grammar) {
+        if (m_length > Integer.MAX_VALUE-8)
+            throw new IllegalStateException("packed state of length "+m_length+" is too long for a string");
+        char [] str = new char[(int)m_length];
+        LSystemStreamIf stream = stream(grammar);
+        for (int i=0; i<str.length; i++)
+            str[i] = (char)stream.nextSymbol();
+        return new String(str);
+    }
+    /** Convert a range of symbols into a string. */
+    public String decode(LSystemGrammar grammar, long from, int len) {
+        char [] str = new char[len];
+        for (int i=0; i<len; i++)
+            str[i] = grammar.getSymbol(get(from+i));
+        return new String(str);
+    }
+    /** Get a stream over the symbols, which becomes invalid when the state changes. */
+    public LSystemStreamIf stream(final LSystemGrammar grammar) {
+        return new LSystemStreamIf() {
+            long		m_pos;
+            long		m_current;
+            public int nextSymbol() {
+                if (m_pos >= m_length)
+                    return EOS;
+                int slot = (int)(m_pos%m_perWord);
+                if (slot == 0)
+                    m_current = getWord(m_pos/m_perWord);
+                m_pos++;
+                int code = (int)(m_current & m_mask);
+                m_current >>>= m_bits;
+                return grammar.getSymbol(code);
+            }
+            public void rewind() {
+                m_pos = 0;
+            }
+        };
+    }
+    /**
+     * Compute the length of the next generation of a range of symbols.
+     * @param		from		first symbol, a multiple of the number of symbols per word.
+     * @param		to			symbol after the last.
+     * @param		key		key of the random choices of a stochastic grammar, see LSystemGrammar.getKey().
+     */
+    public long countRewrite(LSystemGrammar grammar, long from, long to, long key) {
+        boolean bStochastic = grammar.isStochastic();
+        int bits		= m_bits;
+        int perWord	= m_perWord;
+        long mask	= m_mask;
+        long len		= 0;
+        for (long i=from; i<to; ) {
+            long word	= getWord(i/perWord);
+            long end		= Math.min(i+perWord, to);
+            for (; i<end; i++, word>>>=bits) {
+                int code = (int)(word & mask);
+                len += bStochastic ? grammar.getProduction(code, key, i).length : grammar.getProductionLength(code);
+            }
+        }
+        return len;
+    }
+    /**
+     * Replace each symbol in a range by its production and write the result
+     * into another packed state with the same number of bits per symbol.
+     * All words of dst which start within the written range are assigned.
+     * @param		from		first symbol, a multiple of the number of symbols per word.
+     * @param		to			symbol after the last.
+     * @param		off		index in dst where to start writing.
+     * @param		key		key of the random choices of a stochastic grammar, see LSystemGrammar.getKey().
+     * @param		head		receives at index chunk the symbols written into the word of dst
+     *							which contains off but starts before off, to be combined into
+     *							that word by the caller, or 0.
+     * @return		index in dst after the last written symbol.
+     */
+    public long rewrite(LSystemGrammar grammar, long from, long to, LSystemPackedState dst, long off,
+                        long key, long [] head, int chunk) {
+        boolean bStochastic = grammar.isStochastic();
+        int bits		= m_bits;
+        int perWord	= m_perWord;
+        long mask	= m_mask;
+        long w		= off/perWord;
+        int shift	= (int)(off%perWord)*bits;
+        int full		= perWord*bits;
+        boolean bOwned	= shift == 0;
+        long acc		= 0;
+        head[chunk]	= 0;
+        for (long i=from; i<to; ) {
+            long word	= getWord(i/perWord);
+            long end		= Math.min(i+perWord, to);
+            for (; i<end; i++, word>>>=bits) {
+                int code = (int)(word & mask);
+                byte [] p = bStochastic ? grammar.getProduction(code, key, i) : grammar.getProduction(code);
+                for (int k=0; k<p.length; k++) {
+                    acc |= (p[k] & 0xFFL) << shift;
+                    shift += bits;
+                    if (shift == full) {
+                        if (bOwned)
+                            dst.setWord(w, acc);
+                        else
+                            head[chunk] = acc;
+                        bOwned	= true;
+                        w++;
+                        shift	= 0;
+                        acc		= 0;
+                    }
+                }
+            }
+        }
+        if (shift > 0) {
+            if (bOwned)
+                dst.setWord(w, acc);
+            else
+                head[chunk] = acc;
+        }
+        return w*perWord+shift/bits;
+    }
+    /**
+     * Combine the head word returned by <code>rewrite</code> into the word which
+     * contains the first written symbol.
+     * @param		off		index in this state where the rewrite started.
+     */
+    public void combineHead(long off, long head) {
+        if (head != 0)
+            setWord(off/m_perWord, getWord(off/m_perWord) | head);
+    }
+}
@@ -0,0 +1,464 @@
+package vgp.tutor.lsystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled rules of a parametric and context-sensitive L-system, used by
+ * LSystem if some rule contains "-&gt;". Modules are symbols with numeric
+ * parameters in parentheses, e.g. the axiom "F(1)". The rule of a symbol
+ * consists of productions separated by ';' of the form
+ * <pre>
+ *     left &lt; pred &gt; right : condition -&gt; successor
+ * </pre>
+ * where pred is the symbol of the rule with its formal parameters, e.g.
+ * "F(l,w)", left and right are optional sequences of modules which must
+ * precede and follow pred, the condition is an optional expression of the
+ * formal parameters, and the successor is a sequence of modules whose
+ * parameters are expressions, e.g. "F(l/2)[+F(l/3)]". The first production
+ * whose modules, contexts and condition match replaces the module, otherwise
+ * the module is kept. A rule without "-&gt;" is a successor which replaces the
+ * symbol with any parameters, and a rule equal to its symbol keeps the module.
+ * <p>
+ * Everything is parsed once: productions are indexed by the code of their
+ * predecessor, expressions are compiled with variables resolved to indices,
+ * and contexts are arrays of codes. When searching a context, the brackets
+ * of the state are matched once per generation, so a branch is skipped in
+ * constant time, and symbols of the ignore set, e.g. turtle rotations, are
+ * passed over. The left context continues from the start of a branch to the
+ * module before it, the right context skips branches and ends with its branch.
+ *
+ * @see			vgp.tutor.lsystem.LSystemModules
+ * @version		17.10.26, 1.00 created
+ */
+public class LSystemParametricGrammar {
+    /** Separator of predecessor and successor which marks a parametric rule. */
+    public static final	String	ARROW				= "->";
+
+    /** A compiled production. */
+    protected static class Production {
+        /** Number of formal parameters of predecessor, -1 if any number matches. */
+        int							m_predArity;
+        /** Index of the first formal parameter of predecessor among the variables. */
+        int							m_predVar;
+        /** Codes, numbers of parameters and first variable of the modules of the left context, in order. */
+        int []						m_left			= new int[0];
+        int []						m_leftArity		= new int[0];
+        int []						m_leftVar		= new int[0];
+        /** Codes, numbers of parameters and first variable of the modules of the right context, in order. */
+        int []						m_right			= new int[0];
+        int []						m_rightArity	= new int[0];
+        int []						m_rightVar		= new int[0];
+        /** Condition, null if always true. */
+        LSystemExpression		m_condition;
+        /** Codes and parameter expressions of the modules of the successor. */
+        int []						m_succ;
+        LSystemExpression [][]	m_succParam;
+        /** Number of variables. */
+        int							m_numVars;
+    }
+
+    /** Grammar which supplies the codes of the symbols. */
+    protected	LSystemGrammar		m_grammar;
+    /** Productions indexed by code of the predecessor, null if modules are kept. */
+    protected	Production [][]		m_production;
+    /** Axiom as modules. */
+    protected	LSystemModules		m_axiom;
+    /** Codes of '[' and ']', -1 if not used. */
+    protected	int					m_push;
+    protected	int					m_pop;
+    /** Flag whether some production has a context. */
+    protected	boolean				m_bContext;
+    /** Maximal number of variables of a production and maximal stack of an expression. */
+    protected	int					m_maxVars;
+    protected	int					m_maxStack;
+
+    /** Check if rules describe a parametric L-system, i.e. some rule contains "-&gt;". */
+    public static boolean isParametric(String [] rule) {
+        for (int j=0; j<rule.length; j++) {
+            if (rule[j].indexOf(ARROW) >= 0)
+                return true;
+        }
+        return false;
+    }
+    /**
+     * Get the symbols which occur in a module string or in a rule, without
+     * parameters, conditions and the syntax of productions.
+     */
+    public static String getSymbols(String str) {
+        if (str.indexOf(ARROW) < 0)
+            return stripParams(str);
+        StringBuffer symbols = new StringBuffer();
+        for (String production : split(str, ';')) {
+            int arrow = production.indexOf(ARROW);
+            if (arrow < 0) {
+                symbols.append(stripParams(production));
+                continue;
+            }
+            String pattern = production.substring(0, arrow);
+            int colon = pattern.indexOf(':');
+            if (colon >= 0)
+                pattern = pattern.substring(0, colon);
+            symbols.append(stripParams(pattern.replace('<', ' ').replace('>', ' ')));
+            symbols.append(stripParams(production.substring(arrow+ARROW.length())));
+        }
+        return symbols.toString();
+    }
+    private static String stripParams(String str) {
+        StringBuffer symbols = new StringBuffer(str.length());
+        int depth = 0;
+        for (int i=0; i<str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '(')
+                depth++;
+            else if (c == ')')
+                depth = Math.max(0, depth-1);
+            else if (depth == 0 && !Character.isWhitespace(c))
+                symbols.append(c);
+        }
+        return symbols.toString();
+    }
+    /** Split at a separator outside of parentheses. */
+    private static List<String> split(String str, char separator) {
+        List<String> part = new ArrayList<String>();
+        int depth = 0, start = 0;
+        for (int i=0; i<str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '(')
+                depth++;
+            else if (c == ')')
+                depth--;
+            else if (c == separator && depth == 0) {
+                part.add(str.substring(start, i));
+                start = i+1;
+            }
+        }
+        part.add(str.substring(start));
+        return part;
+    }
+
+    /**
+     * Compile the rules of a parametric L-system.
+     * @param		grammar		grammar which supplies the codes of all symbols.
+     * @throws		IllegalArgumentException	if a rule or the axiom is malformed.
+     */
+    public LSystemParametricGrammar(LSystemGrammar grammar, char [] alphabet, String axiom, String [] rule) {
+        m_grammar		= grammar;
+        m_push		= grammar.getCode('[');
+        m_pop			= grammar.getCode(']');
+        m_production	= new Production[grammar.getNumSymbols()][];
+        for (int j=0; j<rule.length; j++) {
+            int code = grammar.getCode(alphabet[j]);
+            if (code != j)
+                continue;		// first occurrence of a symbol wins
+            String text = rule[j].trim();
+            if (text.equals(String.valueOf(alphabet[j])))
+                continue;
+            try {
+                m_production[j] = parseRule(alphabet[j], text);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("rule of "+alphabet[j]+": "+e.getMessage());
+            }
+        }
+        m_axiom = new LSystemModules();
+        parseModules(axiom, new ArrayList<String>(), m_axiom, null);
+    }
+    /** Get the axiom as modules. Must not be modified. */
+    public LSystemModules getAxiom() {
+        return m_axiom;
+    }
+    /** Check if some production has a left or right context. */
+    public boolean isContextSensitive() {
+        return m_bContext;
+    }
+    private Production [] parseRule(char symbol, String text) {
+        List<String> part = split(text, ';');
+        if (text.indexOf(ARROW) < 0 && part.size() > 1)
+            throw new IllegalArgumentException("stochastic alternatives are not supported in parametric L-systems");
+        Production [] production = new Production[part.size()];
+        for (int k=0; k<production.length; k++)
+            production[k] = parseProduction(symbol, part.get(k).trim());
+        return production;
+    }
+    private Production parseProduction(char symbol, String text) {
+        Production p = new Production();
+        List<String> vars = new ArrayList<String>();
+        int arrow = text.indexOf(ARROW);
+        String successor;
+        if (arrow < 0) {
+            p.m_predArity	= -1;
+            successor		= text;
+        } else {
+            String pattern		= text.substring(0, arrow);
+            successor			= text.substring(arrow+ARROW.length());
+            String condition	= null;
+            int colon = pattern.indexOf(':');
+            if (colon >= 0) {
+                condition	= pattern.substring(colon+1).trim();
+                pattern	= pattern.substring(0, colon);
+            }
+            String left = "", right = "";
+            int lt = pattern.indexOf('<');
+            if (lt >= 0) {
+                left		= pattern.substring(0, lt);
+                pattern	= pattern.substring(lt+1);
+            }
+            int gt = pattern.indexOf('>');
+            if (gt >= 0) {
+                right		= pattern.substring(gt+1);
+                pattern	= pattern.substring(0, gt);
+            }
+            int [][] ctx = parsePattern(left, vars);
+            p.m_left = ctx[0]; p.m_leftArity = ctx[1]; p.m_leftVar = ctx[2];
+            p.m_predVar = vars.size();
+            int [][] pred = parsePattern(pattern, vars);
+            if (pred[0].length != 1 || pred[0][0] != m_grammar.getCode(symbol))
+                throw new IllegalArgumentException("predecessor must be a single module "+symbol+", found \""+pattern.trim()+"\"");
+            p.m_predArity = pred[1][0];
+            ctx = parsePattern(right, vars);
+            p.m_right = ctx[0]; p.m_rightArity = ctx[1]; p.m_rightVar = ctx[2];
+            for (int code : concat(p.m_left, p.m_right)) {
+                if (code == m_push || code == m_pop)
+                    throw new IllegalArgumentException("brackets are not supported in contexts");
+            }
+            m_bContext |= p.m_left.length > 0 || p.m_right.length > 0;
+            if (condition != null && condition.length() > 0) {
+                p.m_condition	= new LSystemExpression(condition, vars);
+                m_maxStack		= Math.max(m_maxStack, p.m_condition.getMaxStack());
+            }
+        }
+        p.m_numVars	= vars.size();
+        m_maxVars		= Math.max(m_maxVars, p.m_numVars);
+        List<LSystemExpression []> params = new ArrayList<LSystemExpression []>();
+        LSystemModules codes = new LSystemModules();
+        parseModules(successor, vars, codes, params);
+        p.m_succ			= new int[codes.getLength()];
+        p.m_succParam	= params.toArray(new LSystemExpression[params.size()][]);
+        for (int i=0; i<p.m_succ.length; i++)
+            p.m_succ[i] = codes.getCode(i);
+        return p;
+    }
+    private static int [] concat(int [] a, int [] b) {
+        int [] c = java.util.Arrays.copyOf(a, a.length+b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+    /**
+     * Parse a sequence of modules with formal parameters, which are appended to the variables.
+     * @return		codes, numbers of parameters and indices of the first variable of the modules.
+     */
+    private int [][] parsePattern(String text, List<String> vars) {
+        List<int []> module = new ArrayList<int []>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i++);
+            if (Character.isWhitespace(c))
+                continue;
+            if (c == '(' || c == ')')
+                throw new IllegalArgumentException("unexpected '"+c+"' in \""+text.trim()+"\"");
+            int first = vars.size();
+            int arity = 0;
+            if (i < text.length() && text.charAt(i) == '(') {
+                int close = text.indexOf(')', i);
+                if (close < 0)
+                    throw new IllegalArgumentException("missing ')' in \""+text.trim()+"\"");
+                for (String name : text.substring(i+1, close).split(",")) {
+                    name = name.trim();
+                    if (!name.matches("[A-Za-z_][A-Za-z_0-9]*"))
+                        throw new IllegalArgumentException("formal parameter must be a name, found \""+name+"\"");
+                    vars.add(name);
+                    arity++;
+                }
+                i = close+1;
+            }
+            module.add(new int[] {m_grammar.getCode(c), arity, first});
+        }
+        int [][] result = new int[3][module.size()];
+        for (int k=0; k<module.size(); k++)
+            for (int m=0; m<3; m++)
+                result[m][k] = module.get(k)[m];
+        return result;
+    }
+    /**
+     * Parse a sequence of modules with actual parameters. If params is null then the
+     * parameters are evaluated and appended to the modules, otherwise their compiled
+     * expressions are collected in params.
+     */
+    private void parseModules(String text, List<String> vars, LSystemModules modules, List<LSystemExpression []> params) {
+        double [] noVars	= new double[0];
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i++);
+            if (Character.isWhitespace(c))
+                continue;
+            if (c == '(' || c == ')')
+                throw new IllegalArgumentException("unexpected '"+c+"' in \""+text.trim()+"\"");
+            modules.add(m_grammar.getCode(c));
+            List<LSystemExpression> expr = new ArrayList<LSystemExpression>();
+            if (i < text.length() && text.charAt(i) == '(') {
+                int depth = 0, close = -1;
+                for (int k=i; k<text.length() && close < 0; k++) {
+                    if (text.charAt(k) == '(')
+                        depth++;
+                    else if (text.charAt(k) == ')' && --depth == 0)
+                        close = k;
+                }
+                if (close < 0)
+                    throw new IllegalArgumentException("missing ')' in \""+text.trim()+"\"");
+                for (String arg : split(text.substring(i+1, close), ',')) {
+                    LSystemExpression e = new LSystemExpression(arg, vars);
+                    m_maxStack = Math.max(m_maxStack, e.getMaxStack());
+                    expr.add(e);
+                }
+                i = close+1;
+            }
+            if (params != null) {
+                params.add(expr.toArray(new LSystemExpression[expr.size()]));
+            } else {
+                double [] stack = new double[Math.max(1, m_maxStack)];
+                for (LSystemExpression e : expr)
+                    modules.addParam(e.evaluate(noVars, stack));
+            }
+        }
+    }
+
+    /**
+     * Compute the matching bracket of each bracket of a state, which allows to skip
+     * branches in constant time when searching contexts. Unmatched '[' match the
+     * end of the state, unmatched ']' match -1.
+     * @param		match		array of at least the length of the state, or null.
+     * @return		array with the index of the matching bracket at each bracket.
+     */
+    public int [] matchBrackets(LSystemModules src, int [] match) {
+        int len = src.getLength();
+        if (match == null || match.length < len)
+            match = new int[len];
+        int [] stack = new int[16];
+        int top = 0;
+        byte [] code = src.m_code;
+        for (int i=0; i<len; i++) {
+            int c = code[i] & 0xFF;
+            if (c == m_push) {
+                if (top == stack.length)
+                    stack = java.util.Arrays.copyOf(stack, 2*top);
+                stack[top++] = i;
+            } else if (c == m_pop) {
+                if (top > 0) {
+                    int open = stack[--top];
+                    match[open]	= i;
+                    match[i]		= open;
+                } else {
+                    match[i] = -1;
+                }
+            }
+        }
+        while (top > 0)
+            match[stack[--top]] = len;
+        return match;
+    }
+    /**
+     * Rewrite a range of a state and append the result to another state.
+     * @param		match		matching brackets of src, see matchBrackets(), only
+     *							used if the grammar is context-sensitive.
+     * @param		ignore		flag of each code whether it is passed over in contexts.
+     * @param		vars		work space for the values of getNumVars() variables.
+     * @param		stack		work space for getMaxStack() values.
+     */
+    public void rewrite(LSystemModules src, int from, int to, LSystemModules dst,
+                        int [] match, boolean [] ignore, double [] vars, double [] stack) {
+        Production [][] production	= m_production;
+        byte [] code						= src.m_code;
+        for (int i=from; i<to; i++) {
+            Production [] rules = production[code[i] & 0xFF];
+            Production p = null;
+            if (rules != null) {
+                for (int k=0; k<rules.length && p == null; k++) {
+                    if (matches(rules[k], src, i, match, ignore, vars, stack))
+                        p = rules[k];
+                }
+            }
+            if (p == null) {
+                dst.add(src, i);
+                continue;
+            }
+            int [] succ = p.m_succ;
+            for (int s=0; s<succ.length; s++) {
+                dst.add(succ[s]);
+                LSystemExpression [] param = p.m_succParam[s];
+                for (int m=0; m<param.length; m++)
+                    dst.addParam(param[m].evaluate(vars, stack));
+            }
+        }
+    }
+    /** Get maximal number of variables of a production. */
+    public int getNumVars() {
+        return m_maxVars;
+    }
+    /** Get maximal size of the stack of an expression. */
+    public int getMaxStack() {
+        return Math.max(1, m_maxStack);
+    }
+    /** Check if a production matches a module, and bind its variables in vars. */
+    private boolean matches(Production p, LSystemModules src, int i, int [] match, boolean [] ignore,
+                            double [] vars, double [] stack) {
+        int arity = p.m_predArity;
+        if (arity >= 0) {
+            if (src.getNumParams(i) != arity)
+                return false;
+            bind(src, i, arity, vars, p.m_predVar);
+        }
+        int [] left = p.m_left;
+        for (int c=left.length-1, j=i; c>=0; c--) {
+            j = prevContext(src, j, match, ignore);
+            if (j < 0 || (src.m_code[j] & 0xFF) != left[c] || src.getNumParams(j) != p.m_leftArity[c])
+                return false;
+            bind(src, j, p.m_leftArity[c], vars, p.m_leftVar[c]);
+        }
+        int [] right = p.m_right;
+        for (int c=0, j=i; c<right.length; c++) {
+            j = nextContext(src, j, match, ignore);
+            if (j < 0 || (src.m_code[j] & 0xFF) != right[c] || src.getNumParams(j) != p.m_rightArity[c])
+                return false;
+            bind(src, j, p.m_rightArity[c], vars, p.m_rightVar[c]);
+        }
+        return p.m_condition == null || p.m_condition.evaluate(vars, stack) != 0.;
+    }
+    private static void bind(LSystemModules src, int i, int arity, double [] vars, int var) {
+        System.arraycopy(src.m_param, src.m_paramStart[i], vars, var, arity);
+    }
+    /** Get the module before j in the left context, or -1. */
+    private int prevContext(LSystemModules src, int j, int [] match, boolean [] ignore) {
+        byte [] code = src.m_code;
+        j--;
+        while (j >= 0) {
+            int c = code[j] & 0xFF;
+            if (c == m_push)
+                j--;								// continue with the module before the branch
+            else if (c == m_pop)
+                j = match[j]-1;					// skip a preceding branch
+            else if (ignore[c])
+                j--;
+            else
+                return j;
+        }
+        return -1;
+    }
+    /** Get the module after j in the right context, or -1. */
+    private int nextContext(LSystemModules src, int j, int [] match, boolean [] ignore) {
+        byte [] code = src.m_code;
+        int len = src.getLength();
+        j++;
+        while (j < len) {
+            int c = code[j] & 0xFF;
+            if (c == m_push)
+                j = match[j]+1;					// skip a following branch
+            else if (c == m_pop)
+                return -1;							// end of the branch
+            else if (ignore[c])
+                j++;
+            else
+                return j;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,15 @@
+package vgp.tutor.lsystem;
+
+/**
+ * Receiver of the path drawn by the turtle, e.g. to render or export
+ * a large L-system without storing its vertices and polygons.
+ *
+ * @see			vgp.tutor.lsystem.LSystemTurtle#trace(LSystemProgram, double, LSystemPathIf)
+ * @version		17.10.26, 1.00 created
+ */
+public interface LSystemPathIf {
+    /** Start a new polyline at the given point. */
+    void moveTo(double x, double y);
+    /** Extend the current polyline by a straight line to the given point. */
+    void lineTo(double x, double y);
+}
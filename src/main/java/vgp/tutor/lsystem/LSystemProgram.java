@@ -0,0 +1,407 @@
+package vgp.tutor.lsystem;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Turtle program compiled from the symbols of an L-system. Each instruction
+ * is packed into an int, with the operation in the lowest OP_BITS bits and a
+ * signed argument in the remaining bits.
+ * <p>
+ * Compilation strips all symbols without effect on the turtle, merges runs
+ * of 'F' into one instruction with a count, and merges runs of '+' and '-'
+ * into one rotation by a net number of angle steps. Rotations directly before
+ * a ']' or at the end are dropped since the heading is never used. As the
+ * arguments do not depend on the angle, the same program is interpreted
+ * for every angle. The heading of the turtle is always the start heading
+ * plus an integer number of angle steps, and the range of these numbers is
+ * recorded, so the turtle can look up its directions in a table.
+ * <p>
+ * In 3D mode the symbols '&amp;', '^', '\', '/' and '|' rotate the frame of
+ * the turtle as well. Each run of rotation symbols between other symbols is
+ * compiled into one OP_ROTATE instruction whose argument is the index of the
+ * run in a table of distinct runs, where consecutive rotations about the
+ * same axis are merged into one step. A turtle computes one matrix per run
+ * and angle, hence, a run costs one matrix product regardless of its length.
+ *
+ * @see			vgp.tutor.lsystem.LSystemTurtle3D
+ * @version		17.10.26, 1.32 revised Counts of vertices and polygons do not overflow.<br>
+ *					17.10.26, 1.31 revised Branches left open are closed at the end.<br>
+ *					17.10.26, 1.30 revised Runs of 3D rotations.<br>
+ *					17.10.26, 1.20 revised Range of headings as number of angle steps.<br>
+ *					17.10.26, 1.10 revised Compilation may be cancelled.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemProgram {
+    /** Number of bits of the operation in an instruction. */
+    public static final	int		OP_BITS			= 4;
+    /** Mask of the operation in an instruction. */
+    public static final	int		OP_MASK			= (1<<OP_BITS)-1;
+    /** Largest absolute value of an argument. */
+    public static final	int		MAX_ARG			= (1<<(31-OP_BITS))-1;
+
+    /** Move forward, argument is the number of steps, each of which creates a vertex. */
+    public static final	int		OP_FORWARD		= 0;
+    /** Rotate, argument is the signed number of angle steps, positive for '+'. */
+    public static final	int		OP_TURN			= 1;
+    /** Start a branch, corresponds to '['. */
+    public static final	int		OP_PUSH			= 2;
+    /** Finish a branch, corresponds to ']'. */
+    public static final	int		OP_POP			= 3;
+    /** Rotate in 3D, argument is the index of a run of rotations, see getRotationSteps(). */
+    public static final	int		OP_ROTATE		= 4;
+
+    /** Axis of a step of a rotation run: turn about the up vector, '+' positive and '-' negative. */
+    public static final	int		ROT_TURN			= 0;
+    /** Axis of a step of a rotation run: pitch about the left vector, '&amp;' down positive and '^' negative. */
+    public static final	int		ROT_PITCH		= 1;
+    /** Axis of a step of a rotation run: roll about the heading, '\' positive and '/' negative. */
+    public static final	int		ROT_ROLL			= 2;
+    /** Axis of a step of a rotation run: turn around by 180 degrees about the up vector, '|'. */
+    public static final	int		ROT_REVERSE		= 3;
+
+    /** Number of symbols read between two checks of the cancel signal. */
+    protected static final	int		CANCEL_INTERVAL	= 1<<20;
+
+    /** Instructions. */
+    protected	int []		m_code			= new int[64];
+    /** Number of instructions. */
+    protected	int			m_length;
+    /** Number of vertices created by the program including the start vertex. */
+    protected	long			m_numVertices;
+    /** Number of polygons created by the program including the trunk. */
+    protected	long			m_numPolygons;
+    /** Maximal nesting depth of branches. */
+    protected	int			m_maxDepth;
+    /** Number of symbols read when compiling. */
+    protected	long			m_numSymbols;
+    /** Smallest and largest heading as number of angle steps from the start heading. */
+    protected	long			m_minHeading;
+    protected	long			m_maxHeading;
+    /** Compile rotations of the 3D symbols into OP_ROTATE. */
+    protected	boolean		m_b3D;
+    /**
+     * Steps of all distinct rotation runs, packed as instructions with the axis
+     * as operation and the signed number of angle steps as argument, and the
+     * offset of each run, entry numRotations is the end of the last run.
+     */
+    protected	int []		m_rotationStep	= new int[16];
+    protected	int []		m_rotationStart	= new int[9];
+    /** Number of distinct rotation runs. */
+    protected	int			m_numRotations;
+    /** Open addressing table of the rotation runs, holding index+1 of a run or 0 if empty. */
+    private	int []		m_rotationHash	= new int[16];
+    /** Steps of the rotation run which is being read. */
+    private	int []		m_run			= new int[8];
+    private	int			m_runLength;
+    /** Heading while compiling, and heading at the start of each open branch. */
+    private	long			m_heading;
+    private	long []		m_headingStack	= new long[16];
+    private	int			m_depth;
+
+    /** Get operation of an instruction. */
+    public static int getOp(int instr) {
+        return instr & OP_MASK;
+    }
+    /** Get signed argument of an instruction. */
+    public static int getArg(int instr) {
+        return instr >> OP_BITS;
+    }
+    /** Create instruction from operation and argument. */
+    public static int makeInstr(int op, int arg) {
+        return (arg << OP_BITS) | op;
+    }
+    /**
+     * Compile the symbols of a stream, replacing the previous program.
+     * Buffers are reused. Unmatched ']' are ignored, and branches which are not
+     * closed end with the program, hence, each OP_PUSH has a matching OP_POP.
+     * @param		stream		symbols of the L-system, is rewound before reading.
+     */
+    public void compile(LSystemStreamIf stream) {
+        compile(stream, null);
+    }
+    /**
+     * Compile the symbols of a stream, replacing the previous program. The compilation
+     * throws a CancellationException as soon as the cancel signal turns true.
+     * @param		stream		symbols of the L-system, is rewound before reading.
+     * @param		cancelled	signal polled while reading, or null to never cancel.
+     */
+    public void compile(LSystemStreamIf stream, BooleanSupplier cancelled) {
+        m_length			= 0;
+        m_numVertices	= 1;
+        m_numPolygons	= 1;
+        m_maxDepth		= 0;
+        m_numSymbols		= 0;
+        m_minHeading		= 0;
+        m_maxHeading		= 0;
+        m_heading		= 0;
+        m_depth			= 0;
+        m_numRotations	= 0;
+        m_runLength		= 0;
+        Arrays.fill(m_rotationHash, 0);
+
+        int numForward	= 0;
+        int numTurn		= 0;
+        int depth		= 0;
+        long numSymbols	= 0;
+        stream.rewind();
+        int c;
+        while ((c = stream.nextSymbol()) != LSystemStreamIf.EOS) {
+            if ((++numSymbols & (CANCEL_INTERVAL-1)) == 0 && cancelled != null && cancelled.getAsBoolean())
+                throw new CancellationException("compilation of turtle program cancelled");
+            switch (c) {
+                case 'F':
+                    if (numTurn != 0) {
+                        add(OP_TURN, numTurn);
+                        numTurn = 0;
+                    }
+                    if (m_runLength != 0)
+                        addRotation();
+                    if (numForward == MAX_ARG) {
+                        add(OP_FORWARD, numForward);
+                        numForward = 0;
+                    }
+                    numForward++;
+                    break;
+                case '+':
+                case '-':
+                    if (numForward != 0) {
+                        add(OP_FORWARD, numForward);
+                        numForward = 0;
+                    }
+                    if (m_b3D) {
+                        addStep(ROT_TURN, c == '+' ? 1 : -1);
+                        break;
+                    }
+                    if (Math.abs(numTurn) == MAX_ARG) {
+                        add(OP_TURN, numTurn);
+                        numTurn = 0;
+                    }
+                    numTurn += c == '+' ? 1 : -1;
+                    break;
+                case '&':
+                case '^':
+                case '\\':
+                case '/':
+                case '|':
+                    if (!m_b3D)
+                        break;
+                    if (numForward != 0) {
+                        add(OP_FORWARD, numForward);
+                        numForward = 0;
+                    }
+                    if (c == '|')
+                        addStep(ROT_REVERSE, 1);
+                    else if (c == '&' || c == '^')
+                        addStep(ROT_PITCH, c == '&' ? 1 : -1);
+                    else
+                        addStep(ROT_ROLL, c == '\\' ? 1 : -1);
+                    break;
+                case '[':
+                    if (numForward != 0)
+                        add(OP_FORWARD, numForward);
+                    if (numTurn != 0)
+                        add(OP_TURN, numTurn);
+                    if (m_runLength != 0)
+                        addRotation();
+                    numForward	= 0;
+                    numTurn		= 0;
+                    add(OP_PUSH, 0);
+                    depth++;
+                    m_maxDepth = Math.max(m_maxDepth, depth);
+                    break;
+                case ']':
+                    if (depth == 0)
+                        break;
+                    if (numForward != 0)
+                        add(OP_FORWARD, numForward);
+                    numForward	= 0;
+                    numTurn		= 0;
+                    m_runLength	= 0;
+                    add(OP_POP, 0);
+                    depth--;
+                    m_numPolygons++;
+                    break;
+                default:
+            }
+        }
+        if (numForward != 0)
+            add(OP_FORWARD, numForward);
+        // branches which are still open run to the end
+        for (; depth>0; depth--) {
+            add(OP_POP, 0);
+            m_numPolygons++;
+        }
+        m_numSymbols = numSymbols;
+    }
+    /** Append a step to the rotation run which is being read, merging steps about the same axis. */
+    private void addStep(int axis, int arg) {
+        int n = m_runLength;
+        if (n > 0 && getOp(m_run[n-1]) == axis && Math.abs(getArg(m_run[n-1])+arg) <= MAX_ARG) {
+            arg += getArg(m_run[n-1]);
+            if (axis == ROT_REVERSE)
+                arg &= 1;
+            if (arg == 0)
+                m_runLength--;
+            else
+                m_run[n-1] = makeInstr(axis, arg);
+            return;
+        }
+        if (n == m_run.length)
+            m_run = Arrays.copyOf(m_run, 2*n);
+        m_run[m_runLength++] = makeInstr(axis, arg);
+    }
+    /**
+     * Append an OP_ROTATE instruction for the rotation run which was read. The run
+     * is added to the table of distinct runs unless it is found there.
+     */
+    private void addRotation() {
+        int len		= m_runLength;
+        int hash		= 1;
+        for (int k=0; k<len; k++)
+            hash = 31*hash+m_run[k];
+        int mask = m_rotationHash.length-1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (m_rotationHash[slot] != 0) {
+            int r = m_rotationHash[slot]-1;
+            int start = m_rotationStart[r];
+            if (m_rotationStart[r+1]-start == len &&
+                Arrays.equals(m_rotationStep, start, start+len, m_run, 0, len)) {
+                add(OP_ROTATE, r);
+                m_runLength = 0;
+                return;
+            }
+            slot = (slot+1) & mask;
+        }
+        int r = m_numRotations;
+        if (r == MAX_ARG)
+            throw new IllegalStateException("number of distinct rotations exceeds "+MAX_ARG);
+        int start = m_rotationStart[r];
+        if (start+len > m_rotationStep.length)
+            m_rotationStep = Arrays.copyOf(m_rotationStep, Math.max(2*m_rotationStep.length, start+len));
+        if (r+2 > m_rotationStart.length)
+            m_rotationStart = Arrays.copyOf(m_rotationStart, 2*m_rotationStart.length);
+        System.arraycopy(m_run, 0, m_rotationStep, start, len);
+        m_rotationStart[r+1]	= start+len;
+        m_rotationHash[slot]	= r+1;
+        m_numRotations++;
+        if (2*m_numRotations > m_rotationHash.length)
+            rehashRotations();
+        add(OP_ROTATE, r);
+        m_runLength = 0;
+    }
+    /** Double the table of rotation runs. */
+    private void rehashRotations() {
+        int [] table	= new int[2*m_rotationHash.length];
+        int mask		= table.length-1;
+        for (int r=0; r<m_numRotations; r++) {
+            int hash = 1;
+            for (int k=m_rotationStart[r]; k<m_rotationStart[r+1]; k++)
+                hash = 31*hash+m_rotationStep[k];
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (table[slot] != 0)
+                slot = (slot+1) & mask;
+            table[slot] = r+1;
+        }
+        m_rotationHash = table;
+    }
+    /** Append an instruction. */
+    protected void add(int op, int arg) {
+        if (m_length == m_code.length) {
+            int [] code = new int[2*m_code.length];
+            System.arraycopy(m_code, 0, code, 0, m_length);
+            m_code = code;
+        }
+        m_code[m_length++] = makeInstr(op, arg);
+        if (op == OP_FORWARD) {
+            m_numVertices += arg;
+        } else if (op == OP_TURN) {
+            m_heading += arg;
+            m_minHeading = Math.min(m_minHeading, m_heading);
+            m_maxHeading = Math.max(m_maxHeading, m_heading);
+        } else if (op == OP_PUSH) {
+            if (m_depth == m_headingStack.length)
+                m_headingStack = Arrays.copyOf(m_headingStack, 2*m_depth);
+            m_headingStack[m_depth++] = m_heading;
+        } else if (op == OP_POP) {
+            m_heading = m_headingStack[--m_depth];
+        }
+    }
+    /** Get instructions, the array may be longer than the program. */
+    public int [] getCode() {
+        return m_code;
+    }
+    /** Get number of instructions. */
+    public int getLength() {
+        return m_length;
+    }
+    /**
+     * Get number of vertices created by the program including the start vertex.
+     * @throws		IllegalStateException	if the number does not fit into an int.
+     */
+    public int getNumVertices() {
+        return toInt(m_numVertices, "vertices");
+    }
+    /**
+     * Get number of polygons created by the program.
+     * @throws		IllegalStateException	if the number does not fit into an int.
+     */
+    public int getNumPolygons() {
+        return toInt(m_numPolygons, "polygons");
+    }
+    /** Convert a count to int, failing if it exceeds the range of int. */
+    private static int toInt(long count, String name) {
+        if (count > Integer.MAX_VALUE)
+            throw new IllegalStateException("number of "+name+" "+count+" exceeds "+Integer.MAX_VALUE);
+        return (int)count;
+    }
+    /** Get maximal nesting depth of branches. */
+    public int getMaxDepth() {
+        return m_maxDepth;
+    }
+    /**
+     * Get smallest heading of the turtle as number of angle steps from the start
+     * heading, taken after each rotation, hence, not larger than 0.
+     */
+    public long getMinHeading() {
+        return m_minHeading;
+    }
+    /** Get largest heading of the turtle as number of angle steps from the start heading, not smaller than 0. */
+    public long getMaxHeading() {
+        return m_maxHeading;
+    }
+    /** Check if rotations of the 3D symbols are compiled. */
+    public boolean is3D() {
+        return m_b3D;
+    }
+    /**
+     * Compile the rotations of the 3D symbols '&amp;', '^', '\', '/', '|' with the next
+     * compilation, and '+', '-' into OP_ROTATE instead of OP_TURN. Otherwise the
+     * 3D symbols are ignored.
+     */
+    public void set3D(boolean flag) {
+        m_b3D = flag;
+    }
+    /** Get number of distinct rotation runs. */
+    public int getNumRotations() {
+        return m_numRotations;
+    }
+    /**
+     * Get steps of all rotation runs, where the steps of run r are stored from
+     * getRotationStart()[r] up to getRotationStart()[r+1]. Each step is packed as
+     * instruction with an axis ROT_TURN, ROT_PITCH, ROT_ROLL or ROT_REVERSE as
+     * operation and the signed number of angle steps as argument.
+     */
+    public int [] getRotationSteps() {
+        return m_rotationStep;
+    }
+    /** Get offsets of rotation runs in getRotationSteps(), with numRotations+1 valid entries. */
+    public int [] getRotationStart() {
+        return m_rotationStart;
+    }
+    /** Get number of symbols which were compiled into this program. */
+    public long getNumSymbols() {
+        return m_numSymbols;
+    }
+}
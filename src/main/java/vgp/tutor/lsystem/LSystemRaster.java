@@ -0,0 +1,248 @@
+package vgp.tutor.lsystem;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Rasterizer which draws the path of the turtle directly into an image, e.g.
+ * for thumbnails and posters of L-systems whose vertices and polygons would
+ * not fit into memory. No geometry is stored: the path is traced from the
+ * compiled program once to compute the bounding box, which fits the path
+ * into the image as auto fit does in the display, and traced again to draw
+ * each straight line with a Bresenham-type algorithm.
+ * <p>
+ * The image is split into horizontal tiles, each an int array of ARGB pixels.
+ * Tiles are rendered in parallel: each task traces the whole program and only
+ * draws the part of each line that lies within its tile. Pixels of a line are
+ * chosen independently of the tile, so the image does not depend on the tiling.
+ *
+ * @see			vgp.tutor.lsystem.LSystemTurtle#trace(LSystemProgram, double, LSystemPathIf)
+ * @version		17.10.26, 1.01 revised Tiles draw the same pixels as a single tile.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemRaster {
+    /** Default width and height of the image in pixels. */
+    public static final	int		DEF_SIZE			= 512;
+    /** Default minimal height of a tile in pixel rows. */
+    public static final	int		DEF_TILE_HEIGHT	= 64;
+    /** Smallest slope for which lines are clipped to the columns crossing a tile. */
+    protected static final	double	MIN_CLIP_SLOPE	= 1.e-6;
+
+    /** Width and height of the image in pixels. */
+    protected	int			m_width			= DEF_SIZE;
+    protected	int			m_height			= DEF_SIZE;
+    /** Width of the free border around the fitted path in pixels. */
+    protected	int			m_margin			= 4;
+    /** Color of lines and background as ARGB. */
+    protected	int			m_color			= 0xFF000000;
+    protected	int			m_background		= 0xFFFFFFFF;
+    /** Minimal height of a tile in pixel rows. */
+    protected	int			m_tileHeight		= DEF_TILE_HEIGHT;
+    /** Number of threads used to render tiles, 1 for serial rendering. */
+    protected	int			m_parallelism		= Runtime.getRuntime().availableProcessors();
+    /** Pool of threads for parallel rendering, created on demand. */
+    protected	ForkJoinPool	m_pool;
+
+    /** Pixels of each tile, row by row. */
+    protected	int [][]		m_tile;
+    /** First pixel row of each tile, entry numTiles is the height of the image. */
+    protected	int []		m_tileStart;
+    /** Bounding box of the last traced path as minX, minY, maxX, maxY. */
+    protected	double []	m_bounds			= new double[4];
+
+    /** Get width of the image in pixels. */
+    public int getWidth() {
+        return m_width;
+    }
+    /** Get height of the image in pixels. */
+    public int getHeight() {
+        return m_height;
+    }
+    /** Set width and height of the image in pixels. */
+    public void setSize(int width, int height) {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("size must be positive, found "+width+"x"+height);
+        m_width	= width;
+        m_height	= height;
+    }
+    /** Set width of the free border around the fitted path in pixels. */
+    public void setMargin(int margin) {
+        m_margin = Math.max(0, margin);
+    }
+    /** Set color of lines and background as ARGB. */
+    public void setColors(int color, int background) {
+        m_color		= color;
+        m_background	= background;
+    }
+    /** Get number of threads used to render tiles. */
+    public int getParallelism() {
+        return m_parallelism;
+    }
+    /**
+     * Set number of threads used to render tiles.
+     * @param		parallelism		number of threads, 1 switches to serial rendering.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive, found "+parallelism);
+        m_parallelism = parallelism;
+    }
+    /** Set minimal height of a tile in pixel rows. */
+    public void setTileHeight(int tileHeight) {
+        m_tileHeight = Math.max(1, tileHeight);
+    }
+
+    /**
+     * Render the path of a program, fitted into the image with preserved aspect ratio.
+     * @param		turtle		turtle whose step size is used.
+     * @param		delta			angle in degrees used when rotating with '+' or '-'.
+     */
+    public void render(LSystemTurtle turtle, LSystemProgram program, double delta) {
+        double [] bounds = turtle.traceBounds(program, delta, m_bounds);
+        double width	= Math.max(bounds[2]-bounds[0], 1.e-12);
+        double height	= Math.max(bounds[3]-bounds[1], 1.e-12);
+        double scale	= Math.min((m_width-2*m_margin-1)/width, (m_height-2*m_margin-1)/height);
+        scale = Math.max(scale, 0.);
+        // Center the path, image rows grow downwards.
+        double offX = 0.5*(m_width-1-scale*width)-scale*bounds[0];
+        double offY = 0.5*(m_height-1-scale*height)+scale*bounds[3];
+        render(turtle, program, delta, scale, offX, offY);
+    }
+    /**
+     * Render the path of a program with a given transformation into pixel
+     * coordinates, where the pixel column is scale*x+offX and the pixel row
+     * is offY-scale*y.
+     */
+    public void render(final LSystemTurtle turtle, final LSystemProgram program, final double delta,
+                       final double scale, final double offX, final double offY) {
+        int numTiles = Math.max(1, Math.min(m_parallelism, m_height/m_tileHeight));
+        if (m_tile == null || m_tile.length != numTiles || m_tileStart[numTiles] != m_height ||
+            m_tile[0].length != m_width*(m_tileStart[1]-m_tileStart[0])) {
+            m_tile		= new int[numTiles][];
+            m_tileStart	= new int[numTiles+1];
+            for (int k=0; k<=numTiles; k++)
+                m_tileStart[k] = (int)((long)m_height*k/numTiles);
+            for (int k=0; k<numTiles; k++)
+                m_tile[k] = new int[m_width*(m_tileStart[k+1]-m_tileStart[k])];
+        }
+        if (numTiles == 1) {
+            renderTile(turtle, program, delta, scale, offX, offY, 0);
+            return;
+        }
+        ForkJoinPool pool = getPool();
+        ForkJoinTask<?> [] task = new ForkJoinTask<?>[numTiles];
+        for (int k=0; k<numTiles; k++) {
+            final int tile = k;
+            task[k] = pool.submit(() -> renderTile(turtle, program, delta, scale, offX, offY, tile));
+        }
+        for (int k=0; k<numTiles; k++)
+            task[k].join();
+    }
+    /** Clear a tile and draw all lines of the path which intersect it. */
+    protected void renderTile(LSystemTurtle turtle, LSystemProgram program, double delta,
+                              final double scale, final double offX, final double offY, int tile) {
+        final int [] pixel	= m_tile[tile];
+        final int rowFrom	= m_tileStart[tile];
+        final int rowTo		= m_tileStart[tile+1];
+        Arrays.fill(pixel, m_background);
+        turtle.trace(program, delta, new LSystemPathIf() {
+            double	m_x, m_y;
+            public void moveTo(double x, double y) {
+                m_x = scale*x+offX;
+                m_y = offY-scale*y;
+            }
+            public void lineTo(double x, double y) {
+                double px = scale*x+offX;
+                double py = offY-scale*y;
+                drawLine(pixel, rowFrom, rowTo, m_x, m_y, px, py);
+                m_x = px;
+                m_y = py;
+            }
+        });
+    }
+    /**
+     * Draw the pixels of a line which lie in a range of rows. Along the major axis
+     * of the line each pixel center is visited, and the pixel whose center is closest
+     * to the line in the minor direction is set, as in the algorithm of Bresenham.
+     */
+    protected void drawLine(int [] pixel, int rowFrom, int rowTo,
+                            double x0, double y0, double x1, double y1) {
+        // pixels at the rounded end points may lie up to half a pixel beyond the line
+        if (Math.max(y0, y1) < rowFrom-1. || Math.min(y0, y1) >= rowTo)
+            return;
+        int width	= m_width;
+        int color	= m_color;
+        double dx	= x1-x0;
+        double dy	= y1-y0;
+        if (Math.abs(dx) >= Math.abs(dy)) {
+            if (dx < 0.) {
+                double t = x0; x0 = x1; x1 = t;
+                t = y0; y0 = y1; y1 = t;
+                dx = -dx;
+                dy = -dy;
+            }
+            double slope = dx > 0. ? dy/dx : 0.;
+            int from	= Math.max((int)Math.floor(x0+0.5), 0);
+            int to	= Math.min((int)Math.floor(x1+0.5), width-1);
+            if (Math.abs(slope) > MIN_CLIP_SLOPE) {
+                // restrict to the columns in which the line crosses the rows of the tile,
+                // with a margin for the rounding of the inverted slope
+                double xa = x0+(rowFrom-0.5-y0)/slope;
+                double xb = x0+(rowTo-0.5-y0)/slope;
+                from	= Math.max(from, (int)Math.floor(Math.min(xa, xb))-1);
+                to		= Math.min(to, (int)Math.ceil(Math.max(xa, xb))+1);
+            }
+            for (int ix=from; ix<=to; ix++) {
+                int iy = (int)Math.floor(y0+(ix-x0)*slope+0.5);
+                if (iy >= rowFrom && iy < rowTo)
+                    pixel[(iy-rowFrom)*width+ix] = color;
+            }
+        } else {
+            if (dy < 0.) {
+                double t = x0; x0 = x1; x1 = t;
+                t = y0; y0 = y1; y1 = t;
+                dx = -dx;
+                dy = -dy;
+            }
+            double slope = dx/dy;
+            int from	= Math.max((int)Math.floor(y0+0.5), rowFrom);
+            int to	= Math.min((int)Math.floor(y1+0.5), rowTo-1);
+            for (int iy=from; iy<=to; iy++) {
+                int ix = (int)Math.floor(x0+(iy-y0)*slope+0.5);
+                if (ix >= 0 && ix < width)
+                    pixel[(iy-rowFrom)*width+ix] = color;
+            }
+        }
+    }
+    /** Get the rendered image, whose pixels are copied from the tiles. */
+    public BufferedImage getImage() {
+        BufferedImage image = new BufferedImage(m_width, m_height, BufferedImage.TYPE_INT_ARGB);
+        for (int k=0; k<m_tile.length; k++)
+            image.getRaster().setDataElements(0, m_tileStart[k], m_width, m_tileStart[k+1]-m_tileStart[k], m_tile[k]);
+        return image;
+    }
+    /**
+     * Encode the rendered image as PNG file.
+     * @return		number of written bytes.
+     */
+    public long writePng(File file) throws IOException {
+        if (!ImageIO.write(getImage(), "png", file))
+            throw new IOException("no PNG encoder available");
+        return file.length();
+    }
+    /** Get pool of threads for parallel rendering with the current degree of parallelism. */
+    protected ForkJoinPool getPool() {
+        if (m_pool == null || m_pool.getParallelism() != m_parallelism) {
+            if (m_pool != null)
+                m_pool.shutdown();
+            m_pool = new ForkJoinPool(m_parallelism);
+        }
+        return m_pool;
+    }
+}
@@ -0,0 +1,211 @@
+package vgp.tutor.lsystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Snapshot of a derived state of an L-system in a compact binary file, which
+ * allows to continue a derivation across runs instead of starting from the axiom.
+ * <p>
+ * Symbols are stored with the smallest number of bits of 1, 2, 4 or 8 which holds
+ * all codes of the grammar, e.g. 4 bits for up to 16 symbols. The codes are packed
+ * into 64-bit words starting at the lowest bits. All values are little endian:
+ * <pre>
+ *     int32      MAGIC
+ *     int32      bits per symbol
+ *     int32      generation
+ *     int32      number of symbols of the grammar
+ *     int64      hash of the grammar and seed, see LSystemGrammar.getHash(long)
+ *     int64      length of the state
+ *     int64      packed symbols                            (ceil(length*bits/64) times)
+ * </pre>
+ * A snapshot is loaded by mapping the file into memory. It is only accepted by
+ * an L-system with the same grammar and, if stochastic, the same seed, and <code>LSystem.advance</code> then
+ * continues from the generation of the snapshot.
+ *
+ * @see			vgp.tutor.lsystem.LSystem#advance(int)
+ * @version		17.10.26, 1.30 revised States of parametric grammars are not saved.<br>
+ *					17.10.26, 1.20 revised Seed of stochastic grammars is part of the hash.<br>
+ *					17.10.26, 1.10 revised Bit-packed states are not saved.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemSnapshot {
+    /** First int of the file, the bytes 'LSS1' in little endian. */
+    public static final	int		MAGIC				= 0x3153534C;
+    /** Size of the header in bytes. */
+    public static final	int		HEADER_SIZE		= 32;
+    /** Extension of snapshot files. */
+    public static final	String	EXTENSION		= ".lss";
+    /** Size of the write buffer and maximal size of a mapped region in bytes, a multiple of 8. */
+    protected static final	int	BUFFER_SIZE		= 1<<20;
+    protected static final	int	MAX_REGION		= 1<<30;
+
+    /** Get smallest number of bits of 1, 2, 4 or 8 which holds the codes of a number of symbols. */
+    public static int getBitsPerSymbol(int numSymbols) {
+        int bits = 1;
+        while ((1 << bits) < numSymbols)
+            bits *= 2;
+        return bits;
+    }
+    /**
+     * Save the current state of an L-system.
+     * @throws		IllegalStateException	if the state is not byte-coded or its generation is unknown.
+     */
+    public static void save(LSystem lsystem, File file) throws IOException {
+        LSystemGrammar grammar = lsystem.m_grammar;
+        if (lsystem.m_generation < 0 || grammar == null)
+            throw new IllegalStateException("no derived state to save");
+        if (lsystem.m_bPacked)
+            throw new IllegalStateException("bit-packed state cannot be saved");
+        if (lsystem.m_bParametric)
+            throw new IllegalStateException("modules of a parametric state cannot be saved");
+        byte [] state	= lsystem.m_state;
+        int len			= lsystem.m_stateLen;
+        int bits			= getBitsPerSymbol(grammar.getNumSymbols());
+        int perWord		= 64/bits;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(bits).putInt(lsystem.m_generation).putInt(grammar.getNumSymbols());
+            buffer.putLong(grammar.getHash(lsystem.m_stateSeed)).putLong(len);
+            for (int i=0; i<len; i+=perWord) {
+                if (!buffer.hasRemaining())
+                    flush(channel, buffer);
+                long word = 0;
+                int end = Math.min(i+perWord, len);
+                for (int j=i; j<end; j++)
+                    word |= (long)(state[j] & 0xFF) << (j-i)*bits;
+                buffer.putLong(word);
+            }
+            flush(channel, buffer);
+        }
+    }
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+    /**
+     * Load a snapshot into the state of an L-system, whose alphabet, axiom,
+     * rules and seed of stochastic rules must be those the snapshot was derived with.
+     * @throws		IOException		if the file is no snapshot of the grammar of the L-system.
+     */
+    public static void load(LSystem lsystem, File file) throws IOException {
+        LSystemGrammar grammar = lsystem.getGrammar();
+        if (!grammar.isByteCoded())
+            throw new IOException("grammar of L-system has too many symbols for a snapshot");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE)
+                throw new IOException(file+" is no snapshot of an L-system");
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            int magic		= header.getInt();
+            int bits			= header.getInt();
+            int generation	= header.getInt();
+            int numSymbols	= header.getInt();
+            long hash		= header.getLong();
+            long len			= header.getLong();
+            if (magic != MAGIC)
+                throw new IOException(file+" is no snapshot of an L-system");
+            if (hash != grammar.getHash(lsystem.m_seed) || numSymbols != grammar.getNumSymbols() ||
+                bits != getBitsPerSymbol(numSymbols))
+                throw new IOException(file+" was derived with another grammar");
+            int perWord = 64/bits;
+            long numWords = (len+perWord-1)/perWord;
+            if (generation < 0 || len < 0 || len > LSystem.MAX_STATE_LENGTH || size < HEADER_SIZE+8*numWords)
+                throw new IOException(file+" is corrupt");
+
+            // the previous state is overwritten
+            byte [] state = LSystem.assureSize(lsystem.m_state, (int)len);
+            lsystem.m_state		= state;
+            lsystem.m_stateLen	= 0;
+            lsystem.m_bPacked		= false;
+            lsystem.m_bParametric	= false;
+            lsystem.m_generation	= -1;
+            lsystem.m_tree			= "";
+            long mask = (1L << bits)-1;
+            for (long pos=0; pos<len; ) {
+                // each mapped region holds a whole number of words
+                long regionLen = Math.min(MAX_REGION, 8*numWords-pos/perWord*8);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE+pos/perWord*8, regionLen);
+                region.order(ByteOrder.LITTLE_ENDIAN);
+                int end = (int)Math.min(len, pos+regionLen*perWord/8);
+                if (bits == 8) {
+                    // packed bytes are the codes themselves
+                    region.get(state, (int)pos, end-(int)pos);
+                } else {
+                    for (int i=(int)pos; i<end; i+=perWord) {
+                        long word = region.getLong();
+                        int last = Math.min(i+perWord, end);
+                        for (int j=i; j<last; j++, word>>>=bits)
+                            state[j] = (byte)(word & mask);
+                    }
+                }
+                pos = end;
+            }
+            for (int i=0; i<len; i++) {
+                if ((state[i] & 0xFF) >= numSymbols)
+                    throw new IOException(file+" is corrupt");
+            }
+            lsystem.m_stateLen	= (int)len;
+            lsystem.m_stateSeed	= lsystem.m_seed;
+            lsystem.m_generation	= generation;
+            lsystem.m_tree			= null;
+        }
+    }
+    /**
+     * Get file of the snapshot of a grammar after a number of generations in a directory.
+     * @param		seed		seed of the random choices if the grammar is stochastic.
+     */
+    public static File getFile(File dir, LSystemGrammar grammar, long seed, int generation) {
+        return new File(dir, Long.toHexString(grammar.getHash(seed))+"_g"+generation+EXTENSION);
+    }
+    /**
+     * Derive a number of generations of an L-system using a directory of snapshots
+     * as cache across runs. The derivation continues from the snapshot with the
+     * largest generation not exceeding the requested one, unless the current state
+     * is a later generation, and the result is saved as snapshot if none existed
+     * and the state is not bit-packed. Modules of parametric grammars are derived
+     * without snapshots.
+     * @return		generation of the loaded snapshot, or -1 if none was found.
+     */
+    public static int advance(LSystem lsystem, File dir, int numGenerations) throws IOException {
+        LSystemGrammar grammar = lsystem.getGrammar();
+        if (!grammar.isByteCoded() || grammar.isParametric()) {
+            lsystem.advance(numGenerations);
+            return -1;
+        }
+        int generation = lsystem.getGeneration();
+        if (lsystem.m_grammar != grammar || generation > numGenerations ||
+            (grammar.isStochastic() && lsystem.m_stateSeed != lsystem.m_seed))
+            generation = -1;
+        int loaded = -1;
+        for (int k=numGenerations; k>Math.max(generation, 0) && loaded < 0; k--) {
+            File file = getFile(dir, grammar, lsystem.m_seed, k);
+            if (file.isFile()) {
+                try {
+                    load(lsystem, file);
+                    loaded = k;
+                } catch (IOException e) {
+                    // derive without this snapshot
+                }
+            }
+        }
+        lsystem.advance(numGenerations);
+        File file = getFile(dir, grammar, lsystem.m_seed, numGenerations);
+        if (loaded != numGenerations && !lsystem.m_bPacked && !file.isFile()) {
+            // write to a temporary file first, so concurrent runs never read a partial snapshot
+            File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            save(lsystem, tmp);
+            if (!tmp.renameTo(file))
+                tmp.delete();
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,42 @@
+package vgp.tutor.lsystem;
+
+/**
+ * Stream over a materialized state of an L-system, either byte-coded
+ * or given as string.
+ *
+ * @version		17.10.26, 1.00 created
+ */
+public class LSystemStateStream implements LSystemStreamIf {
+    /** Byte-coded state, or null if the state is a string. */
+    protected	byte []			m_state;
+    /** Number of symbols. */
+    protected	int				m_len;
+    /** Grammar to decode the byte-coded state. */
+    protected	LSystemGrammar	m_grammar;
+    /** State as string, if not byte-coded. */
+    protected	String			m_tree;
+    /** Index of the next symbol. */
+    protected	int				m_pos;
+
+    /** Create stream over a byte-coded state. The array is not copied. */
+    public LSystemStateStream(byte [] state, int len, LSystemGrammar grammar) {
+        m_state		= state;
+        m_len			= len;
+        m_grammar	= grammar;
+    }
+    /** Create stream over a state given as string. */
+    public LSystemStateStream(String tree) {
+        m_tree		= tree;
+        m_len			= tree.length();
+    }
+    public int nextSymbol() {
+        if (m_pos >= m_len)
+            return EOS;
+        if (m_state != null)
+            return m_grammar.getSymbol(m_state[m_pos++] & 0xFF);
+        return m_tree.charAt(m_pos++);
+    }
+    public void rewind() {
+        m_pos = 0;
+    }
+}
@@ -0,0 +1,94 @@
+package vgp.tutor.lsystem;
+
+/**
+ * Summary of a state of an L-system: its length, the number of occurrences of
+ * each symbol and the maximal nesting depth of branches. The statistics are
+ * collected in one pass over a stream, hence, the state is never created as
+ * string, and they are shown instead of the text of large states. Statistics
+ * of a context-free grammar are computed from the grammar without any state.
+ *
+ * @see			vgp.tutor.lsystem.LSystem#stream()
+ * @version		17.10.26, 1.10 revised Statistics of a generation without its state.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemStatistics {
+    /** Number of symbols. */
+    protected	long			m_length;
+    /** Number of occurrences of each symbol indexed by the symbol itself. */
+    protected	long []		m_count		= new long[128];
+    /** Maximal nesting depth of branches, unmatched ']' are ignored. */
+    protected	int			m_maxDepth;
+
+    /**
+     * Collect the statistics of a stream.
+     * @param		stream		symbols of the state, is rewound before reading.
+     */
+    public LSystemStatistics(LSystemStreamIf stream) {
+        long [] count	= m_count;
+        long length		= 0;
+        int depth		= 0;
+        int maxDepth	= 0;
+        stream.rewind();
+        int c;
+        while ((c = stream.nextSymbol()) != LSystemStreamIf.EOS) {
+            if (c >= count.length)
+                count = m_count = java.util.Arrays.copyOf(count, Math.max(c+1, 2*count.length));
+            count[c]++;
+            length++;
+            if (c == '[') {
+                if (++depth > maxDepth)
+                    maxDepth = depth;
+            } else if (c == ']' && depth > 0) {
+                depth--;
+            }
+        }
+        m_length		= length;
+        m_maxDepth	= maxDepth;
+    }
+    /**
+     * Compute the statistics of a generation from the grammar, see
+     * LSystemGrammar.getSymbolCounts() and getMaxDepth(). Lengths and counts
+     * beyond the range of long are clamped to Long.MAX_VALUE.
+     * @param		grammar				byte-coded grammar which is neither stochastic nor parametric.
+     * @param		numGenerations		number of applications of the rules.
+     */
+    public LSystemStatistics(LSystemGrammar grammar, int numGenerations) {
+        long [] count	= grammar.getSymbolCounts(numGenerations);
+        long length		= 0;
+        for (int code=0; code<count.length; code++) {
+            if (count[code] == 0)
+                continue;
+            char c = grammar.getSymbol(code);
+            if (c >= m_count.length)
+                m_count = java.util.Arrays.copyOf(m_count, Math.max(c+1, 2*m_count.length));
+            m_count[c] = count[code];
+            length += count[code];
+            if (length < 0)
+                length = Long.MAX_VALUE;
+        }
+        m_length		= length;
+        m_maxDepth	= (int)Math.min(grammar.getMaxDepth(numGenerations), Integer.MAX_VALUE);
+    }
+    /** Get number of symbols. */
+    public long getLength() {
+        return m_length;
+    }
+    /** Get number of occurrences of a symbol. */
+    public long getCount(char c) {
+        return c < m_count.length ? m_count[c] : 0;
+    }
+    /** Get maximal nesting depth of branches. */
+    public int getMaxDepth() {
+        return m_maxDepth;
+    }
+    /** Get a one-line summary, e.g. "Length 13, Depth 1, F 5, + 2, - 2, [ 2, ] 2". */
+    public String toString() {
+        StringBuffer str = new StringBuffer();
+        str.append("Length ").append(m_length).append(", Depth ").append(m_maxDepth);
+        for (int c=0; c<m_count.length; c++) {
+            if (m_count[c] > 0)
+                str.append(", ").append((char)c).append(' ').append(m_count[c]);
+        }
+        return str.toString();
+    }
+}
@@ -0,0 +1,18 @@
+package vgp.tutor.lsystem;
+
+/**
+ * Sequential access to the symbols of a state of an L-system, e.g. for
+ * interpreting the symbols with turtle graphics without materializing
+ * the state as string.
+ *
+ * @version		17.10.26, 1.00 created
+ */
+public interface LSystemStreamIf {
+    /** Value returned by nextSymbol() after the last symbol. */
+    int		EOS	= -1;
+
+    /** Get the character of the next symbol, or EOS if the stream is exhausted. */
+    int nextSymbol();
+    /** Restart the stream at the first symbol. */
+    void rewind();
+}
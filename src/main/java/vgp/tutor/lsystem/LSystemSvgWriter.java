@@ -0,0 +1,111 @@
+package vgp.tutor.lsystem;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Streaming export of the path of the turtle as SVG file with a single path
+ * element. Path data is written while the turtle walks, hence, the memory
+ * of the writer does not depend on the size of the L-system. Each polyline of the turtle
+ * starts with a move command, and a move which is not followed by a line
+ * is dropped.
+ * <p>
+ * The y-axis is flipped since SVG uses downward rows. The stroke width does
+ * not scale with the view box.
+ *
+ * @see			vgp.tutor.lsystem.LSystemTurtle#trace(LSystemProgram, double, LSystemPathIf)
+ * @version		17.10.26, 1.10 revised No partial file is left if writing fails.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemSvgWriter implements LSystemPathIf, Closeable {
+    /** Output of the SVG document. */
+    protected	Writer			m_out;
+    /** Text of the current command, reused. */
+    protected	StringBuilder	m_cmd				= new StringBuilder(64);
+    /** Start of the next polyline, written with the first line. */
+    protected	double			m_moveX, m_moveY;
+    protected	boolean			m_bMove;
+    /** Number of written characters. */
+    protected	long				m_numChars;
+
+    /**
+     * Write the path of a program into an SVG file. The path is traced twice,
+     * first to compute the view box, then to write the path data. The file is
+     * renamed from a temporary name when complete, see LSystemGeometryWriter.
+     * @param		delta			angle in degrees used when rotating with '+' or '-'.
+     * @return		number of written bytes.
+     */
+    public static long write(LSystemTurtle turtle, LSystemProgram program, double delta, File file) throws IOException {
+        double [] bounds = turtle.traceBounds(program, delta, new double[4]);
+        Path path = file.toPath().toAbsolutePath();
+        Path tmp = Files.createTempFile(path.getParent(), file.getName(), ".tmp");
+        try {
+            LSystemSvgWriter svg = new LSystemSvgWriter(new BufferedWriter(new FileWriter(tmp.toFile()), 1<<16), bounds);
+            try {
+                turtle.trace(program, delta, svg);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                svg.close();
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            return svg.m_numChars;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+    /**
+     * Start an SVG document and its path element.
+     * @param		bounds		bounding box of the path as minX, minY, maxX, maxY.
+     */
+    public LSystemSvgWriter(Writer out, double [] bounds) throws IOException {
+        m_out = out;
+        double width	= Math.max(bounds[2]-bounds[0], 1.e-6);
+        double height	= Math.max(bounds[3]-bounds[1], 1.e-6);
+        double border	= 0.01*Math.max(width, height);
+        write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"+
+              "<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\""+
+              (float)(bounds[0]-border)+" "+(float)(-bounds[3]-border)+" "+
+              (float)(width+2*border)+" "+(float)(height+2*border)+"\">\n"+
+              "<path fill=\"none\" stroke=\"black\" stroke-width=\"1\" vector-effect=\"non-scaling-stroke\" d=\"");
+    }
+    public void moveTo(double x, double y) {
+        m_moveX	= x;
+        m_moveY	= y;
+        m_bMove	= true;
+    }
+    public void lineTo(double x, double y) {
+        StringBuilder cmd = m_cmd;
+        cmd.setLength(0);
+        if (m_bMove) {
+            cmd.append("\nM").append((float)m_moveX).append(' ').append((float)-m_moveY);
+            m_bMove = false;
+        }
+        cmd.append(" L").append((float)x).append(' ').append((float)-y);
+        try {
+            write(cmd);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    /** Finish the path and the document, and close the output. */
+    public void close() throws IOException {
+        try {
+            write("\"/>\n</svg>\n");
+        } finally {
+            m_out.close();
+        }
+    }
+    private void write(CharSequence str) throws IOException {
+        m_out.append(str);
+        m_numChars += str.length();
+    }
+}
@@ -0,0 +1,681 @@
+package vgp.tutor.lsystem;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Turtle graphics interpreter of L-system programs. The turtle draws a polygon
+ * with 'F', rotates with '+' and '-', and starts a new polygon at the current
+ * vertex with '[' which is finished with the corresponding ']'.
+ * <p>
+ * The result is stored in primitive buffers which are reused in subsequent
+ * calls: coordinates of vertices are stored consecutively in a double array,
+ * and the vertex indices of all polygons are concatenated in an int array
+ * with an additional array of start offsets. The branch stack is kept in
+ * parallel primitive arrays. All buffers are sized from the counts of the
+ * program, so no objects are allocated while interpreting.
+ * <p>
+ * The polygons do not depend on the rotation angle. Therefore, a change of the
+ * angle only recomputes the vertices by running the same program again.
+ * <p>
+ * Large programs are interpreted in parallel. Each top-level branch is an
+ * independent subtree once its starting position and heading are known, and
+ * the number of its vertices and polygons is known from the program. A cheap
+ * pass along the trunk therefore assigns each top-level branch its entry pose
+ * and its offsets in the output buffers, and the branches are interpreted on
+ * a thread pool directly into their ranges. The result is identical to the
+ * serial interpretation, including the order of vertices and polygons.
+ * <p>
+ * The heading is kept as integer number of angle steps, and the steps of 'F'
+ * are looked up in a table of directions which is computed once per angle,
+ * so no trigonometric function is evaluated while walking and the heading
+ * does not drift. If a whole number of steps completes full turns, e.g. 4
+ * steps of 90 degrees or 72 steps of 25 degrees, the table has one entry per
+ * step of this period and the heading wraps around exactly, otherwise the
+ * table covers the range of headings of the program.
+ *
+ * @see			vgp.tutor.lsystem.LSystemProgram
+ * @version		17.10.26, 1.71 revised Buffers larger than an array fail with a clear exception.<br>
+ *					17.10.26, 1.70 revised Heading as integer with table of directions.<br>
+ *					17.10.26, 1.60 revised Bounding box of the traced path.<br>
+ *					17.10.26, 1.50 revised Trace of the path without storing geometry.<br>
+ *					17.10.26, 1.40 revised Parallel interpretation of top-level branches.<br>
+ *					17.10.26, 1.30 revised Interpretation of compiled programs.<br>
+ *					17.10.26, 1.20 revised Replay of recorded operations on angle change.<br>
+ *					17.10.26, 1.10 revised Buffers may be sized in advance.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemTurtle {
+    /** Number of coordinates of each vertex. */
+    public static final	int		DIM				= 2;
+    /** Default length of a step of the turtle. */
+    public static final	double	DEF_STEP_SIZE	= 0.2;
+    /** Initial heading of the turtle, pointing upwards. */
+    public static final	double	START_ANGLE		= Math.PI/2.;
+    /** Default minimal number of instructions of a program which is interpreted in parallel. */
+    public static final	int		DEF_PARALLEL_THRESHOLD	= 1<<16;
+    /** Largest length of an array which the virtual machine allocates. */
+    public static final	int		MAX_ARRAY_LENGTH	= Integer.MAX_VALUE-8;
+    /** Number of tasks per thread, more tasks balance branches of different size. */
+    protected static final	int	TASKS_PER_THREAD	= 4;
+    /** Relative tolerance when checking if a number of angle steps completes full turns. */
+    protected static final	double	PERIOD_EPS		= 1.e-12;
+
+    /**
+     * Directions of the headings for an angle and step size, scaled by the step size.
+     * Tables are never modified once created, hence, they are shared by all threads.
+     */
+    protected static final class Headings {
+        /** Angle in degrees and step size of the table. */
+        final	double		m_delta;
+        final	double		m_size;
+        /** Number of angle steps which completes full turns, 0 if the table covers a range. */
+        final	int			m_period;
+        /** Heading of the first entry as number of angle steps, 0 if periodic. */
+        final	long			m_first;
+        /** Step of the turtle for each entry. */
+        final	double []	m_dirX;
+        final	double []	m_dirY;
+
+        Headings(LSystemProgram program, double delta, double size) {
+            long range	= program.getMaxHeading()-program.getMinHeading()+1;
+            m_delta		= delta;
+            m_size		= size;
+            m_period		= getPeriod(delta, range);
+            int len;
+            if (m_period > 0) {
+                len		= m_period;
+                m_first	= 0;
+            } else {
+                if (range > LSystem.MAX_STATE_LENGTH)
+                    throw new IllegalStateException("range of headings "+range+" exceeds "+LSystem.MAX_STATE_LENGTH);
+                len		= (int)range;
+                m_first	= program.getMinHeading();
+            }
+            m_dirX = new double[len];
+            m_dirY = new double[len];
+            // each heading is computed from its index, and a periodic heading from
+            // its exact fraction of the full turn
+            long turns = Math.round(m_period*delta/360.);
+            for (int k=0; k<len; k++) {
+                double a;
+                if (m_period > 0)
+                    a = START_ANGLE+2.*Math.PI*Math.floorMod(k*turns, (long)m_period)/m_period;
+                else
+                    a = START_ANGLE+(m_first+k)*delta*Math.PI/180.;
+                m_dirX[k] = size*Math.cos(a);
+                m_dirY[k] = size*Math.sin(a);
+            }
+        }
+        /** Check if the table applies to the headings of a program. */
+        boolean covers(LSystemProgram program, double delta, double size) {
+            if (delta != m_delta || size != m_size)
+                return false;
+            return m_period > 0 ||
+                program.getMinHeading() >= m_first && program.getMaxHeading() < m_first+m_dirX.length;
+        }
+        /** Get index of the start heading. */
+        int getStart() {
+            return (int)-m_first;
+        }
+    }
+    /**
+     * Get the smallest number of angle steps which completes full turns.
+     * @param		delta			angle in degrees.
+     * @param		maxPeriod	largest period of interest.
+     * @return		number of steps, or 0 if no period up to maxPeriod exists.
+     */
+    protected static int getPeriod(double delta, long maxPeriod) {
+        maxPeriod = Math.min(maxPeriod, LSystem.MAX_STATE_LENGTH);
+        for (int n=1; n<=maxPeriod; n++) {
+            double turns = n*delta/360.;
+            if (Math.abs(turns-Math.rint(turns)) <= PERIOD_EPS*n)
+                return n;
+        }
+        return 0;
+    }
+
+    /** Length of a step of the turtle. */
+    protected	double		m_size				= DEF_STEP_SIZE;
+    /** Number of threads used to interpret a program, 1 for serial interpretation. */
+    protected	int			m_parallelism		= Runtime.getRuntime().availableProcessors();
+    /** Minimal number of instructions of a program which is interpreted in parallel. */
+    protected	int			m_parallelThreshold	= DEF_PARALLEL_THRESHOLD;
+    /** Pool of threads for parallel interpretation, created on demand. */
+    protected	ForkJoinPool	m_pool;
+    /** Table of directions of the last angle, replaced when the angle or step size changes. */
+    protected volatile	Headings	m_headings;
+
+    /** Coordinates of vertices, DIM entries per vertex. */
+    protected	double []	m_vertex			= new double[DIM*64];
+    /** Number of vertices. */
+    protected	int			m_numVertices;
+    /** Concatenated vertex indices of all polygons. */
+    protected	int []		m_index			= new int[64];
+    /** Offset of each polygon in m_index, entry numPolygons is the end of the last polygon. */
+    protected	int []		m_polygonStart	= new int[16];
+    /** Number of polygons. */
+    protected	int			m_numPolygons;
+
+    /** Concatenated vertex indices of the polygons which are still open. */
+    protected	int []		m_pending		= new int[64];
+    /** Position, heading and start of the open polygon in m_pending on each branch level. */
+    protected	double []	m_stackX			= new double[16];
+    protected	double []	m_stackY			= new double[16];
+    protected	int []		m_stackH			= new int[16];
+    protected	int []		m_stackPolygon	= new int[16];
+
+    /** Number of top-level branches found by the parallel interpretation. */
+    protected	int			m_numBranches;
+    /** First instruction and instruction of the closing ']' of each top-level branch. */
+    protected	int []		m_branchFrom		= new int[16];
+    protected	int []		m_branchTo		= new int[16];
+    /** Vertex at which each top-level branch starts. */
+    protected	int []		m_branchEntry	= new int[16];
+    /** Index of first vertex and polygon created by each top-level branch. */
+    protected	int []		m_branchVertex	= new int[16];
+    protected	int []		m_branchPolygon	= new int[16];
+    /** Size of the stack of open polygons needed by each top-level branch. */
+    protected	int []		m_branchSize		= new int[16];
+    /** Position and index of the heading at the start of each top-level branch. */
+    protected	double []	m_branchPose		= new double[2*16];
+    protected	int []		m_branchHeading	= new int[16];
+
+    /** Get length of a step of the turtle. */
+    public double getStepSize() {
+        return m_size;
+    }
+    /** Set length of a step of the turtle. */
+    public void setStepSize(double size) {
+        m_size = size;
+    }
+    /** Get number of threads used to interpret a program. */
+    public int getParallelism() {
+        return m_parallelism;
+    }
+    /**
+     * Set number of threads used to interpret a program.
+     * @param		parallelism		number of threads, 1 switches to serial interpretation.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive, found "+parallelism);
+        m_parallelism = parallelism;
+    }
+    /** Get minimal number of instructions of a program which is interpreted in parallel. */
+    public int getParallelThreshold() {
+        return m_parallelThreshold;
+    }
+    /** Set minimal number of instructions of a program which is interpreted in parallel. */
+    public void setParallelThreshold(int threshold) {
+        m_parallelThreshold = Math.max(1, threshold);
+    }
+    /** Get number of vertices of the last interpretation. */
+    public int getNumVertices() {
+        return m_numVertices;
+    }
+    /**
+     * Get coordinates of vertices, where vertex i has coordinates at index DIM*i.
+     * The array may be longer than needed and is reused by the next interpretation.
+     */
+    public double [] getVertices() {
+        return m_vertex;
+    }
+    /** Get number of polygons of the last interpretation. */
+    public int getNumPolygons() {
+        return m_numPolygons;
+    }
+    /**
+     * Get concatenated vertex indices of all polygons. The indices of polygon p
+     * are stored from getPolygonStart()[p] up to getPolygonStart()[p+1].
+     */
+    public int [] getPolygonIndices() {
+        return m_index;
+    }
+    /** Get offsets of polygons in getPolygonIndices(), with numPolygons+1 valid entries. */
+    public int [] getPolygonStart() {
+        return m_polygonStart;
+    }
+    /**
+     * Make sure the buffers can hold the given number of vertices and polygons
+     * without growing during the interpretation. Each polygon except the first
+     * starts with the vertex where its branch begins, hence, the number of
+     * polygon indices is numVertices+numPolygons-1.
+     * @param		numVertices		number of vertices, one more than the number of 'F'.
+     * @param		numPolygons		number of polygons, one more than the number of ']'.
+     * @param		maxDepth			maximal nesting depth of branches.
+     */
+    public void assureCapacity(int numVertices, int numPolygons, int maxDepth) {
+        if ((long)DIM*numVertices > m_vertex.length)
+            m_vertex = new double[arrayLength((long)DIM*numVertices, "vertex coordinates")];
+        if ((long)numVertices+numPolygons-1 > m_index.length)
+            m_index = new int[arrayLength((long)numVertices+numPolygons-1, "polygon indices")];
+        if ((long)numPolygons+1 > m_polygonStart.length)
+            m_polygonStart = new int[arrayLength((long)numPolygons+1, "polygons")];
+        if ((long)numVertices+maxDepth > m_pending.length)
+            m_pending = new int[arrayLength((long)numVertices+maxDepth, "pending vertices")];
+        if (maxDepth > m_stackX.length) {
+            m_stackX			= new double[maxDepth];
+            m_stackY			= new double[maxDepth];
+            m_stackH			= new int[maxDepth];
+            m_stackPolygon	= new int[maxDepth];
+        }
+    }
+    /**
+     * Get the length of a buffer, failing if it exceeds the largest array.
+     * @throws		IllegalStateException	if the length exceeds MAX_ARRAY_LENGTH.
+     */
+    static int arrayLength(long length, String name) {
+        if (length > MAX_ARRAY_LENGTH)
+            throw new IllegalStateException("number of "+name+" "+length+" exceeds the largest array of "+MAX_ARRAY_LENGTH);
+        return (int)length;
+    }
+    /**
+     * Get the table of directions for the headings of a program, which is
+     * computed once for each angle and step size.
+     * @param		delta			angle in degrees used when rotating with '+' or '-'.
+     */
+    protected Headings getHeadings(LSystemProgram program, double delta) {
+        Headings headings = m_headings;
+        if (headings == null || !headings.covers(program, delta, m_size)) {
+            headings		= new Headings(program, delta, m_size);
+            m_headings	= headings;
+        }
+        return headings;
+    }
+    /**
+     * Interpret a program with turtle graphics and create vertices and polygons.
+     * Programs above the parallel threshold are interpreted on a thread pool.
+     * @param		program		compiled symbols of the L-system.
+     * @param		delta			angle in degrees used when rotating with '+' or '-'.
+     */
+    public void interpret(LSystemProgram program, double delta) {
+        assureCapacity(program.getNumVertices(), program.getNumPolygons(), program.getMaxDepth());
+        Headings headings = getHeadings(program, delta);
+        boolean bParallel = m_parallelism > 1 && program.getLength() >= m_parallelThreshold &&
+            interpretParallel(program, headings);
+        if (!bParallel) {
+            m_vertex[0]			= 0.;
+            m_vertex[1]			= 0.;
+            m_polygonStart[0]	= 0;
+            interpretBranch(program.getCode(), 0, program.getLength(), headings,
+                            0., 0., headings.getStart(), 0, 1, 0,
+                            m_pending, m_stackX, m_stackY, m_stackH, m_stackPolygon);
+        }
+        m_numVertices = program.getNumVertices();
+        m_numPolygons = program.getNumPolygons();
+    }
+    /**
+     * Interpret a range of instructions which forms a branch. The branch starts
+     * at a given vertex and pose, creates vertices with consecutive indices and
+     * adds its polygons with consecutive indices, the polygon of the branch itself
+     * being the last. The offset m_polygonStart[firstPolygon] must already be set.
+     * @param		from				first instruction.
+     * @param		to					instruction after the last, excluding the ']' of the branch.
+     * @param		headings			table of directions.
+     * @param		h					index of the heading in the table.
+     * @param		entryVertex		index of vertex at which the branch starts.
+     * @param		firstVertex		index of first vertex created by the branch.
+     * @param		firstPolygon	index of first polygon created by the branch.
+     */
+    protected void interpretBranch(int [] code, int from, int to, Headings headings,
+                                   double x, double y, int h,
+                                   int entryVertex, int firstVertex, int firstPolygon,
+                                   int [] pending, double [] stackX, double [] stackY, int [] stackH, int [] stackPolygon) {
+        double [] vertex		= m_vertex;
+        double [] dirX		= headings.m_dirX;
+        double [] dirY		= headings.m_dirY;
+        int period			= headings.m_period;
+        int depth			= 0;
+        int polyStart		= 0;		// start of the current polygon in pending
+        int numPending		= 0;
+        int vertInd			= firstVertex-1;
+        int polyInd			= firstPolygon;
+        pending[numPending++] = entryVertex;
+        for (int i=from; i<to; i++) {
+            int instr = code[i];
+            switch (instr & LSystemProgram.OP_MASK) {
+                case LSystemProgram.OP_FORWARD:
+                    double dx = dirX[h];
+                    double dy = dirY[h];
+                    for (int n=instr >> LSystemProgram.OP_BITS; n>0; n--) {
+                        x += dx;
+                        y += dy;
+                        vertInd++;
+                        vertex[DIM*vertInd]		= x;
+                        vertex[DIM*vertInd+1]	= y;
+                        pending[numPending++]	= vertInd;
+                    }
+                    break;
+                case LSystemProgram.OP_TURN:
+                    h += instr >> LSystemProgram.OP_BITS;
+                    if (period != 0)
+                        h = Math.floorMod(h, period);
+                    break;
+                case LSystemProgram.OP_PUSH:
+                    stackX[depth]			= x;
+                    stackY[depth]			= y;
+                    stackH[depth]			= h;
+                    stackPolygon[depth]	= polyStart;
+                    depth++;
+                    // the branch starts at the last vertex of the current polygon
+                    pending[numPending] = pending[numPending-1];
+                    polyStart = numPending++;
+                    break;
+                case LSystemProgram.OP_POP:
+                    addPolygon(polyInd++, pending, polyStart, numPending);
+                    numPending = polyStart;
+                    depth--;
+                    x				= stackX[depth];
+                    y				= stackY[depth];
+                    h				= stackH[depth];
+                    polyStart	= stackPolygon[depth];
+                    break;
+            }
+        }
+        addPolygon(polyInd, pending, polyStart, numPending);
+    }
+    /**
+     * Interpret a program by distributing its top-level branches on the thread pool.
+     * @param		headings		table of directions.
+     * @return		false if nothing was interpreted since a branch is not closed,
+     *					which compiled programs never contain.
+     */
+    protected boolean interpretParallel(LSystemProgram program, final Headings headings) {
+        final int [] code	= program.getCode();
+        int length			= program.getLength();
+        double [] vertex		= m_vertex;
+        int [] pending		= m_pending;
+        double [] dirX		= headings.m_dirX;
+        double [] dirY		= headings.m_dirY;
+        int period			= headings.m_period;
+        double x				= 0.;
+        double y				= 0.;
+        int h				= headings.getStart();
+        int numPending		= 0;
+        int nextVertex		= 1;
+        int nextPolygon		= 0;
+        int nextIndex		= 0;
+        vertex[0]			= x;
+        vertex[1]			= y;
+        pending[numPending++] = 0;
+
+        // Walk along the trunk, and skip each top-level branch after computing its
+        // entry pose and the number of vertices and polygons it creates.
+        m_numBranches = 0;
+        for (int i=0; i<length; i++) {
+            int instr = code[i];
+            switch (instr & LSystemProgram.OP_MASK) {
+                case LSystemProgram.OP_FORWARD:
+                    double dx = dirX[h];
+                    double dy = dirY[h];
+                    for (int n=instr >> LSystemProgram.OP_BITS; n>0; n--) {
+                        x += dx;
+                        y += dy;
+                        vertex[DIM*nextVertex]		= x;
+                        vertex[DIM*nextVertex+1]	= y;
+                        pending[numPending++]		= nextVertex++;
+                    }
+                    break;
+                case LSystemProgram.OP_TURN:
+                    h += instr >> LSystemProgram.OP_BITS;
+                    if (period != 0)
+                        h = Math.floorMod(h, period);
+                    break;
+                case LSystemProgram.OP_PUSH:
+                    int depth = 1, maxDepth = 1, numVertices = 0, numPolygons = 0;
+                    int end = i;
+                    while (depth > 0) {
+                        if (++end == length)
+                            return false;
+                        int op = code[end] & LSystemProgram.OP_MASK;
+                        if (op == LSystemProgram.OP_FORWARD) {
+                            numVertices += code[end] >> LSystemProgram.OP_BITS;
+                        } else if (op == LSystemProgram.OP_PUSH) {
+                            maxDepth = Math.max(maxDepth, ++depth);
+                        } else if (op == LSystemProgram.OP_POP) {
+                            depth--;
+                            numPolygons++;
+                        }
+                    }
+                    m_polygonStart[nextPolygon] = nextIndex;
+                    addBranch(i+1, end, pending[numPending-1], nextVertex, nextPolygon,
+                              numVertices+maxDepth, x, y, h);
+                    nextVertex	+= numVertices;
+                    nextPolygon	+= numPolygons;
+                    nextIndex	+= numVertices+numPolygons;
+                    i = end;
+                    break;
+            }
+        }
+        // The trunk is the last polygon.
+        m_polygonStart[nextPolygon] = nextIndex;
+        addPolygon(nextPolygon, pending, 0, numPending);
+
+        // Distribute consecutive branches on tasks with about the same number of instructions.
+        ForkJoinPool pool		= getPool();
+        int numBranches		= m_numBranches;
+        int numTasks			= Math.min(numBranches, m_parallelism*TASKS_PER_THREAD);
+        long instrPerTask	= length/Math.max(1, numTasks)+1;
+        ForkJoinTask<?> [] task	= new ForkJoinTask<?>[numTasks+1];
+        int numSubmitted		= 0;
+        for (int first=0; first<numBranches; ) {
+            int last			= first;
+            long numInstr	= m_branchTo[first]-m_branchFrom[first];
+            while (last+1 < numBranches && numInstr < instrPerTask) {
+                last++;
+                numInstr += m_branchTo[last]-m_branchFrom[last];
+            }
+            final int firstBranch = first, lastBranch = last;
+            if (numSubmitted == task.length)
+                task = Arrays.copyOf(task, 2*task.length);
+            task[numSubmitted++] = pool.submit(() -> {
+                interpretBranches(code, firstBranch, lastBranch, headings);
+            });
+            first = last+1;
+        }
+        for (int k=0; k<numSubmitted; k++)
+            task[k].join();
+        return true;
+    }
+    /** Append a top-level branch found by the parallel interpretation. */
+    private void addBranch(int from, int to, int entry, int firstVertex, int firstPolygon,
+                           int size, double x, double y, int h) {
+        int n = m_numBranches;
+        if (n == m_branchFrom.length) {
+            m_branchFrom		= Arrays.copyOf(m_branchFrom, 2*n);
+            m_branchTo			= Arrays.copyOf(m_branchTo, 2*n);
+            m_branchEntry		= Arrays.copyOf(m_branchEntry, 2*n);
+            m_branchVertex		= Arrays.copyOf(m_branchVertex, 2*n);
+            m_branchPolygon	= Arrays.copyOf(m_branchPolygon, 2*n);
+            m_branchSize		= Arrays.copyOf(m_branchSize, 2*n);
+            m_branchPose		= Arrays.copyOf(m_branchPose, 2*2*n);
+            m_branchHeading	= Arrays.copyOf(m_branchHeading, 2*n);
+        }
+        m_branchFrom[n]		= from;
+        m_branchTo[n]			= to;
+        m_branchEntry[n]		= entry;
+        m_branchVertex[n]		= firstVertex;
+        m_branchPolygon[n]	= firstPolygon;
+        m_branchSize[n]		= size;
+        m_branchPose[2*n]		= x;
+        m_branchPose[2*n+1]	= y;
+        m_branchHeading[n]	= h;
+        m_numBranches++;
+    }
+    /** Interpret a sequence of top-level branches with stacks local to the calling thread. */
+    private void interpretBranches(int [] code, int firstBranch, int lastBranch, Headings headings) {
+        int size = 0;
+        for (int b=firstBranch; b<=lastBranch; b++)
+            size = Math.max(size, m_branchSize[b]);
+        int [] pending			= new int[size+1];
+        double [] stackX		= new double[size];
+        double [] stackY		= new double[size];
+        int [] stackH			= new int[size];
+        int [] stackPolygon	= new int[size];
+        for (int b=firstBranch; b<=lastBranch; b++)
+            interpretBranch(code, m_branchFrom[b], m_branchTo[b], headings,
+                            m_branchPose[2*b], m_branchPose[2*b+1], m_branchHeading[b],
+                            m_branchEntry[b], m_branchVertex[b], m_branchPolygon[b],
+                            pending, stackX, stackY, stackH, stackPolygon);
+    }
+    /**
+     * Recompute the vertices of the last interpretation for a different angle.
+     * The polygons remain valid since they do not depend on the angle.
+     * @param		program		program of the last call of interpret.
+     * @param		delta			angle in degrees used when rotating with '+' or '-'.
+     */
+    public void interpretVertices(LSystemProgram program, double delta) {
+        assureCapacity(program.getNumVertices(), program.getNumPolygons(), program.getMaxDepth());
+        Headings headings	= getHeadings(program, delta);
+        int [] code			= program.getCode();
+        int length			= program.getLength();
+        double [] vertex		= m_vertex;
+        double [] dirX		= headings.m_dirX;
+        double [] dirY		= headings.m_dirY;
+        int period			= headings.m_period;
+        double x				= 0.;
+        double y				= 0.;
+        int h				= headings.getStart();
+        int depth			= 0;
+        int vertInd			= 0;
+        vertex[0]			= x;
+        vertex[1]			= y;
+        for (int i=0; i<length; i++) {
+            int instr = code[i];
+            switch (instr & LSystemProgram.OP_MASK) {
+                case LSystemProgram.OP_FORWARD:
+                    double dx = dirX[h];
+                    double dy = dirY[h];
+                    for (int n=instr >> LSystemProgram.OP_BITS; n>0; n--) {
+                        x += dx;
+                        y += dy;
+                        vertInd++;
+                        vertex[DIM*vertInd]		= x;
+                        vertex[DIM*vertInd+1]	= y;
+                    }
+                    break;
+                case LSystemProgram.OP_TURN:
+                    h += instr >> LSystemProgram.OP_BITS;
+                    if (period != 0)
+                        h = Math.floorMod(h, period);
+                    break;
+                case LSystemProgram.OP_PUSH:
+                    m_stackX[depth]	= x;
+                    m_stackY[depth]	= y;
+                    m_stackH[depth]	= h;
+                    depth++;
+                    break;
+                case LSystemProgram.OP_POP:
+                    depth--;
+                    x	= m_stackX[depth];
+                    y	= m_stackY[depth];
+                    h	= m_stackH[depth];
+                    break;
+            }
+        }
+        m_numVertices = vertInd+1;
+    }
+    /**
+     * Walk a program with turtle graphics and send the path to a receiver instead
+     * of storing vertices and polygons. Each run of 'F' is sent as one straight line,
+     * and each '[' and ']' starts a new polyline at the current position. Only a
+     * stack of the size of the nesting depth is allocated, and none of the buffers
+     * of this turtle is used, hence, several threads may trace concurrently.
+     * @param		program		compiled symbols of the L-system.
+     * @param		delta			angle in degrees used when rotating with '+' or '-'.
+     * @param		path			receiver of the path.
+     */
+    public void trace(LSystemProgram program, double delta, LSystemPathIf path) {
+        Headings headings	= getHeadings(program, delta);
+        int [] code			= program.getCode();
+        int length			= program.getLength();
+        double [] stack		= new double[2*program.getMaxDepth()];
+        int [] stackH		= new int[program.getMaxDepth()];
+        double [] dirX		= headings.m_dirX;
+        double [] dirY		= headings.m_dirY;
+        int period			= headings.m_period;
+        double x				= 0.;
+        double y				= 0.;
+        int h				= headings.getStart();
+        int depth			= 0;
+        path.moveTo(x, y);
+        for (int i=0; i<length; i++) {
+            int instr = code[i];
+            switch (instr & LSystemProgram.OP_MASK) {
+                case LSystemProgram.OP_FORWARD:
+                    int n = instr >> LSystemProgram.OP_BITS;
+                    x += n*dirX[h];
+                    y += n*dirY[h];
+                    path.lineTo(x, y);
+                    break;
+                case LSystemProgram.OP_TURN:
+                    h += instr >> LSystemProgram.OP_BITS;
+                    if (period != 0)
+                        h = Math.floorMod(h, period);
+                    break;
+                case LSystemProgram.OP_PUSH:
+                    stack[2*depth]		= x;
+                    stack[2*depth+1]	= y;
+                    stackH[depth]		= h;
+                    depth++;
+                    path.moveTo(x, y);
+                    break;
+                case LSystemProgram.OP_POP:
+                    depth--;
+                    x	= stack[2*depth];
+                    y	= stack[2*depth+1];
+                    h	= stackH[depth];
+                    path.moveTo(x, y);
+                    break;
+            }
+        }
+    }
+    /**
+     * Compute the bounding box of the path of a program without storing any vertex.
+     * @param		program		compiled symbols of the L-system.
+     * @param		delta			angle in degrees used when rotating with '+' or '-'.
+     * @param		bounds		array receiving minX, minY, maxX, maxY.
+     * @return		the array bounds.
+     */
+    public double [] traceBounds(LSystemProgram program, double delta, final double [] bounds) {
+        bounds[0] = bounds[1] = Double.POSITIVE_INFINITY;
+        bounds[2] = bounds[3] = Double.NEGATIVE_INFINITY;
+        trace(program, delta, new LSystemPathIf() {
+            public void moveTo(double x, double y) {
+                lineTo(x, y);
+            }
+            public void lineTo(double x, double y) {
+                if (x < bounds[0]) bounds[0] = x;
+                if (y < bounds[1]) bounds[1] = y;
+                if (x > bounds[2]) bounds[2] = x;
+                if (y > bounds[3]) bounds[3] = y;
+            }
+        });
+        return bounds;
+    }
+    /**
+     * Copy an open polygon into the list of polygons. The offset of the polygon
+     * in m_index must already be set in m_polygonStart.
+     * @param		polyInd		index of the polygon.
+     * @param		pending		stack of open polygons.
+     * @param		polyStart	first entry of the polygon in pending.
+     * @param		numPending	entry after the last entry of the polygon in pending.
+     */
+    protected void addPolygon(int polyInd, int [] pending, int polyStart, int numPending) {
+        int len	= numPending-polyStart;
+        int end	= m_polygonStart[polyInd];
+        System.arraycopy(pending, polyStart, m_index, end, len);
+        m_polygonStart[polyInd+1] = end+len;
+    }
+    /** Get pool of threads for parallel interpretation with the current degree of parallelism. */
+    protected ForkJoinPool getPool() {
+        if (m_pool == null || m_pool.getParallelism() != m_parallelism) {
+            if (m_pool != null)
+                m_pool.shutdown();
+            m_pool = new ForkJoinPool(m_parallelism);
+        }
+        return m_pool;
+    }
+}
@@ -0,0 +1,314 @@
+package vgp.tutor.lsystem;
+
+/**
+ * Turtle graphics interpreter of L-system programs compiled in 3D mode. The
+ * orientation of the turtle is a frame of heading H, left L and up U. The
+ * turtle starts upwards in the xy-plane, with H=(0,1,0), L=(-1,0,0) and
+ * U=(0,0,1), such that a program without 3D symbols draws the same vertices
+ * as LSystemTurtle with z=0. The symbols rotate the frame by the angle:
+ * <ul>
+ * <li>'+' and '-' turn about U, '+' rotates H towards L,</li>
+ * <li>'&amp;' and '^' pitch about L, '&amp;' rotates H towards -U,</li>
+ * <li>'\' and '/' roll about H, '\' rotates U towards L,</li>
+ * <li>'|' turns around about U by 180 degrees.</li>
+ * </ul>
+ * <p>
+ * Each run of rotations of the program is fused into one 3x3 matrix which is
+ * computed once per angle, hence, no trigonometric function is evaluated while
+ * walking and a run costs one matrix product. The frame is held in local
+ * variables, and the branch stack keeps position and frame of each level in
+ * preallocated primitive arrays.
+ * <p>
+ * The result is stored in the same primitive buffers as in LSystemTurtle, with
+ * three coordinates per vertex, and the polygons equal those of LSystemTurtle.
+ *
+ * @see			vgp.tutor.lsystem.LSystemTurtle
+ * @see			vgp.tutor.lsystem.LSystemProgram#set3D(boolean)
+ * @version		17.10.26, 1.10 revised Buffers larger than an array fail with a clear exception.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemTurtle3D {
+    /** Number of coordinates of each vertex. */
+    public static final	int		DIM				= 3;
+    /** Number of entries of a frame or matrix. */
+    protected static final	int	FRAME			= 9;
+
+    /** Length of a step of the turtle. */
+    protected	double		m_size				= LSystemTurtle.DEF_STEP_SIZE;
+    /**
+     * Fused rotation of each rotation run of the program, stored row by row with
+     * FRAME entries per run. Column j holds the new j-th axis of the frame in
+     * coordinates of the old frame.
+     */
+    protected	double []	m_rotation		= new double[FRAME*8];
+
+    /** Coordinates of vertices, DIM entries per vertex. */
+    protected	double []	m_vertex			= new double[DIM*64];
+    /** Number of vertices. */
+    protected	int			m_numVertices;
+    /** Concatenated vertex indices of all polygons. */
+    protected	int []		m_index			= new int[64];
+    /** Offset of each polygon in m_index, entry numPolygons is the end of the last polygon. */
+    protected	int []		m_polygonStart	= new int[16];
+    /** Number of polygons. */
+    protected	int			m_numPolygons;
+
+    /** Concatenated vertex indices of the polygons which are still open. */
+    protected	int []		m_pending		= new int[64];
+    /** Position, frame and start of the open polygon in m_pending on each branch level. */
+    protected	double []	m_stackPos		= new double[DIM*16];
+    protected	double []	m_stackFrame		= new double[FRAME*16];
+    protected	int []		m_stackPolygon	= new int[16];
+
+    /** Get length of a step of the turtle. */
+    public double getStepSize() {
+        return m_size;
+    }
+    /** Set length of a step of the turtle. */
+    public void setStepSize(double size) {
+        m_size = size;
+    }
+    /** Get number of vertices of the last interpretation. */
+    public int getNumVertices() {
+        return m_numVertices;
+    }
+    /**
+     * Get coordinates of vertices, where vertex i has coordinates at index DIM*i.
+     * The array may be longer than needed and is reused by the next interpretation.
+     */
+    public double [] getVertices() {
+        return m_vertex;
+    }
+    /** Get number of polygons of the last interpretation. */
+    public int getNumPolygons() {
+        return m_numPolygons;
+    }
+    /**
+     * Get concatenated vertex indices of all polygons. The indices of polygon p
+     * are stored from getPolygonStart()[p] up to getPolygonStart()[p+1].
+     */
+    public int [] getPolygonIndices() {
+        return m_index;
+    }
+    /** Get offsets of polygons in getPolygonIndices(), with numPolygons+1 valid entries. */
+    public int [] getPolygonStart() {
+        return m_polygonStart;
+    }
+    /**
+     * Make sure the buffers can hold the given number of vertices and polygons
+     * without growing during the interpretation, see LSystemTurtle.
+     * @param		numVertices		number of vertices, one more than the number of 'F'.
+     * @param		numPolygons		number of polygons, one more than the number of ']'.
+     * @param		maxDepth			maximal nesting depth of branches.
+     */
+    public void assureCapacity(int numVertices, int numPolygons, int maxDepth) {
+        if ((long)DIM*numVertices > m_vertex.length)
+            m_vertex = new double[LSystemTurtle.arrayLength((long)DIM*numVertices, "vertex coordinates")];
+        if ((long)numVertices+numPolygons-1 > m_index.length)
+            m_index = new int[LSystemTurtle.arrayLength((long)numVertices+numPolygons-1, "polygon indices")];
+        if ((long)numPolygons+1 > m_polygonStart.length)
+            m_polygonStart = new int[LSystemTurtle.arrayLength((long)numPolygons+1, "polygons")];
+        if ((long)numVertices+maxDepth > m_pending.length)
+            m_pending = new int[LSystemTurtle.arrayLength((long)numVertices+maxDepth, "pending vertices")];
+        if (maxDepth > m_stackPolygon.length) {
+            m_stackPos		= new double[DIM*maxDepth];
+            m_stackFrame		= new double[FRAME*maxDepth];
+            m_stackPolygon	= new int[maxDepth];
+        }
+    }
+    /**
+     * Interpret a program with turtle graphics and create vertices and polygons.
+     * @param		program		symbols of the L-system compiled in 3D mode.
+     * @param		delta			angle in degrees of each rotation symbol.
+     */
+    public void interpret(LSystemProgram program, double delta) {
+        walk(program, delta, true);
+        m_numPolygons = program.getNumPolygons();
+    }
+    /**
+     * Recompute the vertices of the last interpretation for a different angle.
+     * The polygons remain valid since they do not depend on the angle.
+     * @param		program		program of the last call of interpret.
+     * @param		delta			angle in degrees of each rotation symbol.
+     */
+    public void interpretVertices(LSystemProgram program, double delta) {
+        walk(program, delta, false);
+    }
+    /**
+     * Compute the fused matrix of each rotation run of a program. The matrix of a
+     * run is the product of the rotations of its steps in the order of the symbols.
+     */
+    protected void computeRotations(LSystemProgram program, double delta) {
+        int numRotations	= program.getNumRotations();
+        int [] step		= program.getRotationSteps();
+        int [] start		= program.getRotationStart();
+        if (FRAME*numRotations > m_rotation.length)
+            m_rotation = new double[FRAME*numRotations];
+        double [] rot	= m_rotation;
+        double [] m		= new double[FRAME];
+        double [] tmp	= new double[FRAME];
+        for (int r=0; r<numRotations; r++) {
+            setIdentity(m);
+            for (int k=start[r]; k<start[r+1]; k++) {
+                int axis	= LSystemProgram.getOp(step[k]);
+                int n	= LSystemProgram.getArg(step[k]);
+                if (axis == LSystemProgram.ROT_REVERSE)
+                    setRotation(tmp, LSystemProgram.ROT_TURN, 180.*n);
+                else
+                    setRotation(tmp, axis, n*delta);
+                multiply(m, tmp);
+            }
+            System.arraycopy(m, 0, rot, FRAME*r, FRAME);
+        }
+    }
+    private static void setIdentity(double [] m) {
+        java.util.Arrays.fill(m, 0.);
+        m[0] = m[4] = m[8] = 1.;
+    }
+    /**
+     * Set the matrix of a rotation about an axis of the frame. Angles which are
+     * multiples of 90 degrees give exact entries.
+     * @param		axis		ROT_TURN, ROT_PITCH or ROT_ROLL.
+     * @param		angle		angle in degrees.
+     */
+    private static void setRotation(double [] m, int axis, double angle) {
+        double c, s;
+        double quarter = angle/90.;
+        if (quarter == Math.rint(quarter)) {
+            int q	= (int)Math.floorMod((long)quarter, 4L);
+            c		= q == 0 ? 1. : (q == 2 ? -1. : 0.);
+            s		= q == 1 ? 1. : (q == 3 ? -1. : 0.);
+        } else {
+            double a	= Math.toRadians(angle);
+            c			= Math.cos(a);
+            s			= Math.sin(a);
+        }
+        setIdentity(m);
+        if (axis == LSystemProgram.ROT_TURN) {
+            // H' = cH+sL, L' = -sH+cL
+            m[0] = c;	m[1] = -s;
+            m[3] = s;	m[4] = c;
+        } else if (axis == LSystemProgram.ROT_PITCH) {
+            // H' = cH-sU, U' = sH+cU
+            m[0] = c;	m[2] = s;
+            m[6] = -s;	m[8] = c;
+        } else {
+            // L' = cL-sU, U' = sL+cU
+            m[4] = c;	m[5] = s;
+            m[7] = -s;	m[8] = c;
+        }
+    }
+    /** Replace a by the product a*b. */
+    private static void multiply(double [] a, double [] b) {
+        for (int i=0; i<3; i++) {
+            double a0 = a[3*i], a1 = a[3*i+1], a2 = a[3*i+2];
+            for (int j=0; j<3; j++)
+                a[3*i+j] = a0*b[j]+a1*b[3+j]+a2*b[6+j];
+        }
+    }
+    /**
+     * Run a program, creating vertices and, if requested, polygons.
+     * @param		bPolygons		create polygons, otherwise only the vertices are recomputed.
+     */
+    protected void walk(LSystemProgram program, double delta, boolean bPolygons) {
+        assureCapacity(program.getNumVertices(), program.getNumPolygons(), program.getMaxDepth());
+        computeRotations(program, delta);
+        int [] code			= program.getCode();
+        int length			= program.getLength();
+        double [] rot		= m_rotation;
+        double [] vertex		= m_vertex;
+        int [] pending		= m_pending;
+        double [] stackPos	= m_stackPos;
+        double [] stackFrame	= m_stackFrame;
+        int [] stackPolygon	= m_stackPolygon;
+        double size			= m_size;
+        double x = 0., y = 0., z = 0.;
+        double hx = 0., hy = 1., hz = 0.;
+        double lx = -1., ly = 0., lz = 0.;
+        double ux = 0., uy = 0., uz = 1.;
+        int depth			= 0;
+        int polyStart		= 0;		// start of the current polygon in pending
+        int numPending		= 0;
+        int vertInd			= 0;
+        int polyInd			= 0;
+        vertex[0] = vertex[1] = vertex[2] = 0.;
+        m_polygonStart[0]	= 0;
+        pending[numPending++] = 0;
+        for (int i=0; i<length; i++) {
+            int instr = code[i];
+            switch (instr & LSystemProgram.OP_MASK) {
+                case LSystemProgram.OP_FORWARD:
+                    double dx = size*hx, dy = size*hy, dz = size*hz;
+                    for (int n=instr >> LSystemProgram.OP_BITS; n>0; n--) {
+                        x += dx;
+                        y += dy;
+                        z += dz;
+                        vertInd++;
+                        vertex[DIM*vertInd]		= x;
+                        vertex[DIM*vertInd+1]	= y;
+                        vertex[DIM*vertInd+2]	= z;
+                        pending[numPending++]	= vertInd;
+                    }
+                    break;
+                case LSystemProgram.OP_ROTATE: {
+                    int r = FRAME*(instr >> LSystemProgram.OP_BITS);
+                    double nhx = hx*rot[r]+lx*rot[r+3]+ux*rot[r+6];
+                    double nhy = hy*rot[r]+ly*rot[r+3]+uy*rot[r+6];
+                    double nhz = hz*rot[r]+lz*rot[r+3]+uz*rot[r+6];
+                    double nlx = hx*rot[r+1]+lx*rot[r+4]+ux*rot[r+7];
+                    double nly = hy*rot[r+1]+ly*rot[r+4]+uy*rot[r+7];
+                    double nlz = hz*rot[r+1]+lz*rot[r+4]+uz*rot[r+7];
+                    double nux = hx*rot[r+2]+lx*rot[r+5]+ux*rot[r+8];
+                    double nuy = hy*rot[r+2]+ly*rot[r+5]+uy*rot[r+8];
+                    double nuz = hz*rot[r+2]+lz*rot[r+5]+uz*rot[r+8];
+                    hx = nhx; hy = nhy; hz = nhz;
+                    lx = nlx; ly = nly; lz = nlz;
+                    ux = nux; uy = nuy; uz = nuz;
+                    break;
+                }
+                case LSystemProgram.OP_PUSH: {
+                    int p = DIM*depth, f = FRAME*depth;
+                    stackPos[p]		= x;	stackPos[p+1]	= y;	stackPos[p+2]	= z;
+                    stackFrame[f]		= hx;	stackFrame[f+1]	= hy;	stackFrame[f+2]	= hz;
+                    stackFrame[f+3]	= lx;	stackFrame[f+4]	= ly;	stackFrame[f+5]	= lz;
+                    stackFrame[f+6]	= ux;	stackFrame[f+7]	= uy;	stackFrame[f+8]	= uz;
+                    stackPolygon[depth] = polyStart;
+                    depth++;
+                    if (bPolygons) {
+                        // the branch starts at the last vertex of the current polygon
+                        pending[numPending] = pending[numPending-1];
+                        polyStart = numPending++;
+                    }
+                    break;
+                }
+                case LSystemProgram.OP_POP: {
+                    if (bPolygons) {
+                        addPolygon(polyInd++, pending, polyStart, numPending);
+                        numPending = polyStart;
+                    }
+                    depth--;
+                    int p = DIM*depth, f = FRAME*depth;
+                    x = stackPos[p];		y = stackPos[p+1];		z = stackPos[p+2];
+                    hx = stackFrame[f];	hy = stackFrame[f+1];	hz = stackFrame[f+2];
+                    lx = stackFrame[f+3];	ly = stackFrame[f+4];	lz = stackFrame[f+5];
+                    ux = stackFrame[f+6];	uy = stackFrame[f+7];	uz = stackFrame[f+8];
+                    polyStart = stackPolygon[depth];
+                    break;
+                }
+            }
+        }
+        if (bPolygons)
+            addPolygon(polyInd, pending, polyStart, numPending);
+        m_numVertices = vertInd+1;
+    }
+    /**
+     * Copy an open polygon into the list of polygons. The offset of the polygon
+     * in m_index must already be set in m_polygonStart.
+     */
+    protected void addPolygon(int polyInd, int [] pending, int polyStart, int numPending) {
+        int len	= numPending-polyStart;
+        int end	= m_polygonStart[polyInd];
+        System.arraycopy(pending, polyStart, m_index, end, len);
+        m_polygonStart[polyInd+1] = end+len;
+    }
+}
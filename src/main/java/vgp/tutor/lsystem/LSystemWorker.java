@@ -0,0 +1,166 @@
+package vgp.tutor.lsystem;
+
+import java.awt.EventQueue;
+import java.awt.SecondaryLoop;
+import java.awt.Toolkit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Single background thread which computes the most recently submitted job.
+ * A job that is submitted while another one waits replaces the waiting one,
+ * hence, bursts of requests are coalesced into one computation. Submitting a
+ * job also cancels the running job: each job receives a signal which turns
+ * true as soon as a newer job has been submitted, and is expected to stop
+ * cooperatively, e.g. by throwing a CancellationException.
+ * <p>
+ * Tasks, e.g. exports, are run in order of submission after the running job,
+ * and are neither replaced nor cancelled by jobs.
+ *
+ * @version		17.10.26, 1.21 revised Errors of jobs do not stop the worker.<br>
+ *					17.10.26, 1.20 revised Cancel and wait until idle.<br>
+ *					17.10.26, 1.10 revised Tasks which are not cancelled.<br>
+ *					17.10.26, 1.00 created
+ */
+public class LSystemWorker implements Runnable {
+    /** Name of the thread. */
+    protected	String							m_name;
+    /** Thread of the worker, started with the first job. */
+    protected	Thread							m_thread;
+    /** Job waiting to be computed, null if none. */
+    protected	Consumer<BooleanSupplier>	m_pending;
+    /** Tasks waiting to be run, before the waiting job. */
+    protected	ArrayDeque<Runnable>			m_tasks		= new ArrayDeque<Runnable>();
+    /** A job or task is running. */
+    protected	boolean							m_bRunning;
+    /** Loops of the event dispatch thread which wait until the worker is idle. */
+    protected	ArrayList<SecondaryLoop>		m_idleLoops	= new ArrayList<SecondaryLoop>();
+    /** Number of submitted jobs, a job is stale if this number has changed since its start. */
+    protected volatile	long				m_numSubmitted;
+
+    /** Create worker whose thread is started with the first job. */
+    public LSystemWorker(String name) {
+        m_name = name;
+    }
+    /**
+     * Submit a job which replaces a waiting job and cancels the running job.
+     * @param		job		receives a signal which turns true when the job became stale.
+     */
+    public synchronized void submit(Consumer<BooleanSupplier> job) {
+        m_pending = job;
+        m_numSubmitted++;
+        start();
+    }
+    /** Submit a task which runs after the running job and is never cancelled. */
+    public synchronized void execute(Runnable task) {
+        m_tasks.add(task);
+        start();
+    }
+    /** Wake up the threads which wait in cancelAndWait(). */
+    private synchronized void stopped() {
+        m_bRunning = false;
+        notifyAll();
+        // exited by an event, hence, never before the loop is entered
+        for (final SecondaryLoop loop : m_idleLoops)
+            EventQueue.invokeLater(() -> loop.exit());
+        m_idleLoops.clear();
+    }
+    /** Start the thread if necessary and wake it up. */
+    private void start() {
+        if (m_thread == null) {
+            m_thread = new Thread(this, m_name);
+            m_thread.setDaemon(true);
+            m_thread.start();
+        }
+        notifyAll();
+    }
+    /** Discard the waiting job and cancel the running job. */
+    public synchronized void cancel() {
+        m_pending = null;
+        m_numSubmitted++;
+    }
+    /**
+     * Discard the waiting job, cancel the running job, and wait until it has
+     * stopped and all tasks are done. On the event dispatch thread events are
+     * dispatched while waiting, since jobs may wait for the event dispatch thread.
+     */
+    public void cancelAndWait() {
+        boolean bDispatch = EventQueue.isDispatchThread();
+        for (;;) {
+            SecondaryLoop loop;
+            synchronized (this) {
+                cancel();
+                if (!m_bRunning && m_tasks.isEmpty())
+                    return;
+                if (!bDispatch) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    continue;
+                }
+                loop = Toolkit.getDefaultToolkit().getSystemEventQueue().createSecondaryLoop();
+                m_idleLoops.add(loop);
+            }
+            loop.enter();
+        }
+    }
+    /**
+     * Run tasks and compute jobs in order of submission, skipping jobs which were replaced.
+     * Any exception or error of a job is sent to the uncaught exception handler of the
+     * thread, and if the thread nevertheless ends, the next job starts a new thread.
+     */
+    public void run() {
+        try {
+            runJobs();
+        } finally {
+            synchronized (this) {
+                m_thread = null;
+                if (m_pending != null || !m_tasks.isEmpty())
+                    start();
+            }
+        }
+    }
+    /** Run jobs until the thread is interrupted. */
+    private void runJobs() {
+        for (;;) {
+            Runnable task;
+            Consumer<BooleanSupplier> job;
+            final long numSubmitted;
+            synchronized (this) {
+                while (m_pending == null && m_tasks.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                task				= m_tasks.poll();
+                job				= task == null ? m_pending : null;
+                if (task == null)
+                    m_pending	= null;
+                numSubmitted	= m_numSubmitted;
+                m_bRunning		= true;
+            }
+            try {
+                if (task != null)
+                    task.run();
+                else
+                    job.accept(() -> m_numSubmitted != numSubmitted);
+            } catch (CancellationException e) {
+                // A newer job has been submitted.
+            } catch (Throwable e) {
+                // e.g. an OutOfMemoryError of a deep generation must not stop later jobs
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            } finally {
+                stopped();
+            }
+        }
+    }
+}
@@ -1,43 +1,172 @@
 package vgp.tutor.lsystem;
 
-import java.util.Stack;
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 
 import jv.geom.PgPolygonSet;
 import jv.number.PuDouble;
 import jv.number.PuInteger;
+import jv.object.PsDebug;
 import jv.project.PjProject;
+import jv.project.PvCameraEvent;
 import jv.project.PvCameraIf;
+import jv.project.PvCameraListenerIf;
 import jv.project.PvDisplayIf;
-import jv.vecmath.PdVector;
-import jv.vecmath.PiVector;
 
 /**
  * Generate a tree with a context-free L-system.
  *
  * @author		Konrad Polthier
- * @version		06.02.03, 2.50 revised (kp) Optimize memory allocation in makePolygonSet.<br>
+ * @version		17.10.26, 3.85 revised Flags read by the worker are volatile.<br>
+ *					17.10.26, 3.84 revised Synchronous recompute waits until the worker is idle.<br>
+ *					17.10.26, 3.83 revised Export runs in the thread which recomputes.<br>
+ *					17.10.26, 3.82 revised Statistics of the displayed state computed once.<br>
+ *					17.10.26, 3.81 revised Metrics unregistered when disposed.<br>
+ *					17.10.26, 3.80 revised 3D turtle.<br>
+ *					17.10.26, 3.70 revised Metrics of the stages of the recompute.<br>
+ *					17.10.26, 3.60 revised Levels of detail swapped by zoom.<br>
+ *					17.10.26, 3.50 revised Seed of stochastic rules.<br>
+ *					17.10.26, 3.40 revised Derives bit-packed states beyond the length of byte arrays.<br>
+ *					17.10.26, 3.30 revised Streaming export as SVG or binary geometry.<br>
+ *					17.10.26, 3.20 revised Progressive display of the last generations.<br>
+ *					17.10.26, 3.10 revised Recompute in a cancellable background thread.<br>
+ *					17.10.26, 3.00 revised Symbols compiled into a turtle program shared by full and angle-only updates.<br>
+ *					17.10.26, 2.95 revised Change of angle only recomputes vertices.<br>
+ *					17.10.26, 2.90 revised Buffers sized with exact counts of vertices and polygons.<br>
+ *					17.10.26, 2.80 revised Turtle interpreted with primitive buffers, polygon set filled in bulk.<br>
+ *					17.10.26, 2.70 revised Cache expanded symbols of the L-system.<br>
+ *					17.10.26, 2.60 revised Turtle reads symbols from a stream, optionally derived lazily.<br>
+ *					06.02.03, 2.50 revised (kp) Optimize memory allocation in makePolygonSet.<br>
  *					30.10.01, 2.00 revised (kp) Converted into a project.<br>
  *					16.02.00, 1.00 created (kp)
  */
-public class PjLSystem extends PjProject {
-    /** Production of the L-system encoded with characters from alphabet {F,+,-,[,]}. */
-    protected		String					m_descr;
+public class PjLSystem extends PjProject implements PvCameraListenerIf {
+    /**
+     * Production of the L-system as stream of characters from alphabet {F,+,-,[,]}.
+     * Owned by the thread which recomputes, see m_bBackground.
+     */
+    protected		LSystemStreamIf		m_descr;
     /** Angle parameter used in L-system. */
     protected		PuDouble					m_delta;
     /** Number of iterations of the L-system. */
     protected		PuInteger				m_numIterations;
     /** LSystem as collection of polygons. */
     protected		PgPolygonSet			m_polySet;
-    /** LSystem base class. */
+    /** LSystem base class, holds the edited rules and the displayed state. */
     protected		LSystem					m_lsystem;
+    /** LSystem which derives the next state, owned by the thread which recomputes. */
+    protected		LSystem					m_workLSystem;
+    /** Turtle program compiled from m_descr, owned by the thread which recomputes. */
+    protected		LSystemProgram			m_program;
+    /** Turtle which translates the L-system into vertices and polygons, owned by the thread which recomputes. */
+    protected		LSystemTurtle			m_turtle;
+    /** Turtle which interprets rotations in 3D, owned by the thread which recomputes. */
+    protected		LSystemTurtle3D			m_turtle3D;
+    /**
+     * Interpret the 3D rotations '&amp;', '^', '\', '/', '|' with m_turtle3D,
+     * otherwise the tree is drawn in the xy-plane.
+     */
+    protected		boolean					m_b3D;
+    /** The polygon set holds the result of m_turtle3D. */
+    protected		boolean					m_bDisplayed3D;
+    /**
+     * Levels of detail of the displayed polygons, and levels built from the turtle
+     * which are swapped into m_decimator when published, owned by the thread which recomputes.
+     */
+    protected		LSystemDecimator		m_decimator;
+    protected		LSystemDecimator		m_workDecimator;
+    /**
+     * Display simplified polygons depending on the zoom, see LSystemDecimator.
+     * Set on the event thread and read by the worker.
+     */
+    protected volatile	boolean					m_bDecimate;
+    /** Level of detail in the polygon set, -1 if the polygons of the turtle are displayed. */
+    protected		int						m_displayedLevel;
+    /** Number of pixels of the smaller side of the display, taken when recomputing. */
+    protected		int						m_numPixels;
+    /** Scale of the camera after the last fit, 0 if not fitted yet. */
+    protected		double					m_fitScale;
+    /** Default number of pixels if no display is available. */
+    protected static final	int	DEF_NUM_PIXELS		= 1024;
+    /** Number of iterations of the state in m_workLSystem, -1 if not derived. */
+    protected		int						m_derivedIterations;
+    /** Lazy derivation was used for the state in m_workLSystem. */
+    protected		boolean					m_bDerivedStreaming;
+    /** The state in m_workLSystem is not derived since m_descr derives it lazily. */
+    protected		boolean					m_bDerivedLazily;
+    /** State and polygons were derived but are not yet displayed. */
+    protected		boolean					m_bUnpublished;
+    /** Grammar and number of iterations of the displayed polygons, null if nothing is published. */
+    protected		LSystemGrammar			m_displayedGrammar;
+    protected		int						m_displayedIterations;
+    /** The displayed polygons were drawn from the state in m_lsystem, not from a lazily derived one. */
+    protected		boolean					m_bDisplayedState;
+    /** Statistics of the displayed state, null if not computed yet, see getStatistics(). */
+    protected		LSystemStatistics		m_statistics;
+    /** Thread which recomputes if m_bBackground is set. */
+    protected		LSystemWorker			m_worker;
+    /**
+     * Recompute in a background thread and publish the result on the event
+     * dispatch thread. A recompute which is overtaken by a newer one is cancelled.
+     * Otherwise, the recompute is done synchronously by the calling thread.
+     */
+    protected		boolean					m_bBackground;
+    /**
+     * Display the generations before the requested one as soon as each of them is
+     * derived, while deriving the next one from it. Only used in the background.
+     * Set on the event thread and read by the worker.
+     */
+    protected volatile	boolean					m_bProgressive;
+
+    /** Number of generations displayed before the requested one in progressive mode. */
+    protected static final	int	NUM_PREVIEWS			= 2;
+    /** Minimal length of the requested generation which is displayed progressively. */
+    protected static final	long	PROGRESSIVE_LENGTH	= 1L<<18;
     /** Auto fit within the display. */
     protected		boolean					m_bAutoFit;
     /** Show current state of L-System in text field. */
     protected		boolean					m_bCurrentState;
+    /**
+     * Derive the state lazily while the turtle walks instead of materializing it.
+     * Allows deep generations whose state does not fit into memory.
+     */
+    protected		boolean					m_bStreaming;
+
+    /**
+     * Metrics of derivation, compilation, interpretation, decimation and display,
+     * registered as MBean and disabled by default.
+     */
+    protected		LSystemMetrics			m_metrics;
+
+    /** Memory budget of the cache of expanded symbols of the L-system. */
+    protected static final	long	CACHE_SIZE	= 64L<<20;
 
     public PjLSystem() {
         super("L-System");
         m_lsystem = new LSystem();
+        m_workLSystem = new LSystem();
+        m_workLSystem.setCacheSize(CACHE_SIZE);
+        m_program = new LSystemProgram();
+        m_turtle = new LSystemTurtle();
+        m_turtle3D = new LSystemTurtle3D();
+        m_decimator = new LSystemDecimator();
+        m_workDecimator = new LSystemDecimator();
+        m_displayedLevel = -1;
+        m_derivedIterations = -1;
+        m_worker = new LSystemWorker("L-System");
+        m_bBackground = true;
+        m_metrics = new LSystemMetrics();
+        m_workLSystem.setMetrics(m_metrics);
+        try {
+            m_metrics.register(getName()+"@"+Integer.toHexString(System.identityHashCode(this)));
+        } catch (Exception e) {
+            PsDebug.warning("metrics of L-system not registered: "+e);
+        }
 
         m_polySet = new PgPolygonSet(2);
         m_polySet.setName("My L-System");
@@ -61,6 +190,10 @@ public class PjLSystem extends PjProject {
 
         m_bAutoFit			= true;
         m_bCurrentState	= false;
+        m_bStreaming		= false;
+        m_bProgressive		= true;
+        m_bDecimate			= true;
+        m_b3D					= false;
     }
     public void start() {
         recompute();
@@ -71,13 +204,26 @@ public class PjLSystem extends PjProject {
         selectGeometry(m_polySet);
 
         PvDisplayIf disp = getDisplay();
-        disp.selectCamera(PvCameraIf.CAMERA_ORTHO_XY);		// project onto xy-plane
+        // project onto xy-plane unless the turtle is 3D
+        disp.selectCamera(m_b3D ? PvCameraIf.CAMERA_PERSPECTIVE : PvCameraIf.CAMERA_ORTHO_XY);
         if (m_bAutoFit)
             disp.fit();
+        m_fitScale = disp.getCamera().getScale();
+        if (!disp.hasCameraListener(this))
+            disp.addCameraListener(this);
 
         // Tree must be updated in info panel after the iteration.
         update(this);
     }
+    /** Remove the MBean of the metrics, which would otherwise keep this project alive. */
+    public void dispose() {
+        try {
+            m_metrics.unregister();
+        } catch (Exception e) {
+            PsDebug.warning("metrics of L-system not unregistered: "+e);
+        }
+        super.dispose();
+    }
     /**
      * The variable m_delta sends update events to its parent to notify the parent
      * whenever its value has changed by user interaction.
@@ -87,106 +233,403 @@ public class PjLSystem extends PjProject {
         if (event == null) {
             return true;
         } else if (event == m_delta) {
-            makePolygonSet(m_delta.getValue());
-            m_polySet.update(m_polySet);
+            recompute();
             return true;
         } else if (event == m_numIterations) {
-            m_lsystem.iterate(m_numIterations.getValue());
-            m_descr = m_lsystem.getTree();
-            makePolygonSet(m_delta.getValue());
-            m_polySet.update(m_polySet);
-            if (m_bAutoFit)
-                fitDisplays();
-            return super.update(this);
+            // Display and info panel are updated when the result is published.
+            recompute();
+            return true;
         }
         return super.update(event);
     }
     /**
      * Recompute the polygon based on the current L-System.
      * The polygon is updated in the display.
+     * <p>
+     * Rules, number of iterations and angle are taken now, but the computation
+     * is done in the background if m_bBackground is set. Then this method returns
+     * immediately and cancels a previous recompute which has not finished yet.
+     * The state is only derived again if rules or number of iterations have
+     * changed, otherwise only the vertices are recomputed for the new angle.
+     * In progressive mode the preceding generations are displayed first.
      */
     public void recompute() {
-        m_lsystem.iterate(m_numIterations.getValue());
-        m_descr = m_lsystem.getTree();
-        makePolygonSet(m_delta.getValue());
+        final char [] alphabet	= m_lsystem.m_alphabet.clone();
+        final String axiom		= m_lsystem.m_axiom;
+        final String [] rule		= m_lsystem.m_rule.clone();
+        final long seed			= m_lsystem.getSeed();
+        final int numIterations	= m_numIterations.getValue();
+        final boolean bStreaming	= m_bStreaming;
+        final boolean b3D			= m_b3D;
+        final double delta		= m_delta.getValue();
+        PvDisplayIf disp = getDisplay();
+        Dimension size = disp != null ? disp.getSize() : null;
+        m_numPixels = size != null && size.width > 0 && size.height > 0 ?
+            Math.min(size.width, size.height) : DEF_NUM_PIXELS;
+        if (m_bBackground) {
+            m_worker.submit(cancelled -> compute(alphabet, axiom, rule, seed, numIterations, bStreaming, b3D, delta, cancelled));
+        } else {
+            // the objects of the recomputing thread are free once the worker is idle
+            m_worker.cancelAndWait();
+            compute(alphabet, axiom, rule, seed, numIterations, bStreaming, b3D, delta, null);
+        }
+    }
+    /**
+     * Derive the state, compile and interpret it, and publish the result.
+     * Is called by the thread which recomputes.
+     * @param		cancelled		signal of a newer recompute, or null to never cancel.
+     * @throws		CancellationException	if cancelled.
+     */
+    private void compute(char [] alphabet, String axiom, String [] rule, long seed, int numIterations,
+                         boolean bStreaming, boolean b3D, double delta, final BooleanSupplier cancelled) {
+        boolean bSameRules = isDerivedFrom(alphabet, axiom, rule, seed);
+        if (numIterations != m_derivedIterations || bStreaming != m_bDerivedStreaming || !bSameRules ||
+            b3D != m_program.is3D()) {
+            m_derivedIterations = -1;
+            m_program.set3D(b3D);
+            if (!bSameRules)
+                m_workLSystem.setGrammar(alphabet, axiom, rule);
+            m_workLSystem.setSeed(seed);
+            m_workLSystem.setCancelSignal(cancelled);
+            long length = m_workLSystem.getLength(numIterations);
+            if (isDerivedLazily(numIterations, bStreaming)) {
+                m_descr = m_workLSystem.cursor(numIterations);
+            } else {
+                if (m_bProgressive && cancelled != null && length >= PROGRESSIVE_LENGTH) {
+                    for (int k=Math.max(0, numIterations-NUM_PREVIEWS); k<numIterations; k++) {
+                        // Continues from the previous generation, hence, the
+                        // final state costs only one more rewrite.
+                        m_workLSystem.advance(k);
+                        m_program.compile(m_workLSystem.stream(), cancelled);
+                        interpret(delta, true);
+                        decimate();
+                        publishLater(false, cancelled);
+                    }
+                }
+                LSystemMetrics.Span span = m_metrics.begin(LSystemMetrics.STAGE_DERIVE);
+                m_workLSystem.advance(numIterations);
+                m_metrics.end(span, m_workLSystem.getStateLength());
+                m_metrics.setStateSize(m_workLSystem.getStateSize());
+                m_descr = m_workLSystem.stream();
+            }
+            LSystemMetrics.Span span = m_metrics.begin(LSystemMetrics.STAGE_COMPILE);
+            m_program.compile(m_descr, cancelled);
+            m_metrics.end(span, m_program.getNumSymbols());
+            m_derivedIterations	= numIterations;
+            m_bDerivedStreaming	= bStreaming;
+            m_bDerivedLazily		= m_descr instanceof LSystemCursor;
+            m_bUnpublished			= true;
+        }
+        LSystemMetrics.Span span = m_metrics.begin(LSystemMetrics.STAGE_INTERPRET);
+        interpret(delta, m_bUnpublished);
+        // the turtle which interpret() has run, m_b3D belongs to the event dispatch thread
+        boolean bProgram3D = m_program.is3D();
+        int numVertices = bProgram3D ? m_turtle3D.getNumVertices() : m_turtle.getNumVertices();
+        m_metrics.end(span, numVertices);
+        m_metrics.setGeometry(numVertices, bProgram3D ? m_turtle3D.getNumPolygons() : m_turtle.getNumPolygons());
+        decimate();
+        if (cancelled == null)
+            publish();
+        else
+            publishLater(true, cancelled);
+    }
+    /**
+     * Check whether a generation of m_workLSystem is derived lazily while the
+     * turtle walks, which is the case if requested or if the state is too long.
+     */
+    private boolean isDerivedLazily(int numIterations, boolean bStreaming) {
+        return bStreaming || m_workLSystem.getLength(numIterations) > m_workLSystem.getMaxLength();
+    }
+    /**
+     * Run the program with the 2D or 3D turtle depending on the mode of the program.
+     * Is called by the thread which recomputes.
+     * @param		bPolygons		create polygons, otherwise only the vertices are recomputed.
+     */
+    private void interpret(double delta, boolean bPolygons) {
+        if (m_program.is3D()) {
+            if (bPolygons)
+                m_turtle3D.interpret(m_program, delta);
+            else
+                m_turtle3D.interpretVertices(m_program, delta);
+        } else {
+            if (bPolygons)
+                m_turtle.interpret(m_program, delta);
+            else
+                m_turtle.interpretVertices(m_program, delta);
+        }
+    }
+    /**
+     * Build the levels of detail from the turtle if enabled, which are only available
+     * in 2D. Is called by the thread which recomputes.
+     */
+    private void decimate() {
+        if (!m_bDecimate || m_program.is3D())
+            return;
+        LSystemMetrics.Span span = m_metrics.begin(LSystemMetrics.STAGE_DECIMATE);
+        m_workDecimator.build(m_turtle, m_numPixels);
+        m_metrics.end(span, m_turtle.getNumVertices());
+    }
+    /**
+     * Publish on the event dispatch thread and wait until done. Nothing is
+     * published if a newer recompute has been requested meanwhile.
+     * @param		bFinal		publish the requested generation, otherwise a preview
+     *								whose polygons are displayed but whose state is kept.
+     */
+    private void publishLater(final boolean bFinal, final BooleanSupplier cancelled) {
+        try {
+            EventQueue.invokeAndWait(new Runnable() {
+                public void run() {
+                    if (cancelled.getAsBoolean())
+                        return;
+                    if (bFinal)
+                        publish();
+                    else
+                        publishPreview();
+                }
+            });
+        } catch (InterruptedException e) {
+            throw new CancellationException("publishing of L-system interrupted");
+        } catch (InvocationTargetException e) {
+            PsDebug.warning("publishing of L-system failed: "+e.getCause());
+        }
+    }
+    /** Display the polygons of a preceding generation in progressive mode. */
+    private void publishPreview() {
+        m_bDisplayed3D = m_program.is3D();
+        swapDecimators();
+        makePolygonSet();
         m_polySet.update(m_polySet);
     }
+    /** Check if m_workLSystem was derived from the given rules and seed. */
+    private boolean isDerivedFrom(char [] alphabet, String axiom, String [] rule, long seed) {
+        return java.util.Arrays.equals(m_workLSystem.m_alphabet, alphabet) &&
+            m_workLSystem.m_axiom.equals(axiom) &&
+            java.util.Arrays.equals(m_workLSystem.m_rule, rule) &&
+            m_workLSystem.getSeed() == seed;
+    }
     /**
-     * Recompute the polygon set by translating the string given in m_descr.
+     * Display the result of the turtle. A new state is moved into m_lsystem and
+     * the polygons are replaced, otherwise only the vertices are copied.
+     * Is called on the event dispatch thread while the recomputing thread waits.
+     */
+    private void publish() {
+        m_bDisplayed3D = m_program.is3D();
+        swapDecimators();
+        if (!m_bUnpublished) {
+            // simplified polygons depend on the angle
+            if (m_bDecimate || m_displayedLevel >= 0)
+                makePolygonSet();
+            else
+                copyVertices();
+            m_polySet.update(m_polySet);
+            return;
+        }
+        m_lsystem.swapState(m_workLSystem);
+        m_displayedGrammar		= m_lsystem.m_grammar;
+        m_displayedIterations	= m_derivedIterations;
+        m_bDisplayedState		= !m_bDerivedLazily;
+        m_statistics			= null;
+        makePolygonSet();
+        m_bUnpublished = false;
+        LSystemMetrics.Span span = m_metrics.begin(LSystemMetrics.STAGE_UPDATE);
+        m_polySet.update(m_polySet);
+        m_metrics.end(span, m_polySet.getNumVertices());
+        if (m_bAutoFit) {
+            span = m_metrics.begin(LSystemMetrics.STAGE_FIT);
+            fitDisplays();
+            m_metrics.end(span, 0);
+        }
+        // Tree must be updated in info panel after the iteration.
+        super.update(this);
+    }
+    /** Move the levels of detail built by the recomputing thread into display. */
+    private void swapDecimators() {
+        if (!m_bDecimate || m_bDisplayed3D)
+            return;
+        LSystemDecimator tmp	= m_decimator;
+        m_decimator			= m_workDecimator;
+        m_workDecimator		= tmp;
+    }
+    /**
+     * Fill the polygon set with vertices and polygons of the last interpretation,
+     * or with its level of detail at the current zoom if decimation is enabled.
+     * The vertices have three coordinates if the 3D turtle was used.
      * This method resets the polygonSet and fills it again.
      *
-     * @param		delta		angle in the turtle graphics used when rotating '+' or '-'
-     * @version		06.05.03, 1.50 revised (kp) maxNum of polygons implemented to avoid allocations.<br>
+     * @version		17.10.26, 2.50 revised Vertices of the 3D turtle.<br>
+     *					17.10.26, 2.40 revised Measured as stage of the metrics.<br>
+     *					17.10.26, 2.30 revised Levels of detail.<br>
+     *					17.10.26, 2.20 revised Interpretation moved into the recomputing thread.<br>
+     *					17.10.26, 2.10 revised Runs the compiled turtle program.<br>
+     *					17.10.26, 2.00 revised Interpretation moved to LSystemTurtle, polygon set filled in bulk.<br>
+     *					06.05.03, 1.50 revised (kp) maxNum of polygons implemented to avoid allocations.<br>
      *					06.05.03, 1.10 revised (kp) Bug removed when +/- after closing bracket appeared.<br>
      *					16.02.00, 1.00 created (kp)
      */
-    private void makePolygonSet(double delta) {
-        int defMaxNumVertices	= 1000;
-        int defMaxNumPolygons	= 10;
-        int defMaxPolygonLength	= 50;
-        m_polySet.setNumPolygons(defMaxNumPolygons);
-        m_polySet.setNumPolygons(0);
-        m_polySet.setNumVertices(defMaxNumVertices);
-        m_polySet.setNumVertices(0);
-
-        delta *= Math.PI/180.;
-
-        Stack branchPos	= new Stack(); // Store the current position when branching
-        Stack branchPoly	= new Stack(); // Store the current polygon when branching
-        Stack branchCnt	= new Stack(); // Store the number of vertices per polygon when branching
-        int vertInd, len	= m_descr.length();
-        double x, y, a;
-        double size			= 0.2;
-        PdVector pos		= new PdVector(3);
-        PiVector pg			= new PiVector(defMaxPolygonLength);
-
-        x = 0.;
-        y = 0.;
-        a = Math.PI/2.;
-        pos.set(x, y, a);
-        vertInd = m_polySet.addVertex(pos);
-        int polyInd = 0;
-        pg.setEntry(polyInd++, vertInd);
-        for (int i=0; i<len; i++) {
-            switch (m_descr.charAt(i)) {
-                case 'F':
-                    a = pos.getEntry(2);
-                    x = pos.getEntry(0)+size*Math.cos(a);
-                    y = pos.getEntry(1)+size*Math.sin(a);
-                    pos.set(x, y, a);
-                    vertInd = m_polySet.addVertex(pos);
-                    if (polyInd >= pg.getSize())
-                        pg.setSize(2*polyInd);
-                    pg.setEntry(polyInd++, vertInd);
-                    break;
-                case '[':
-                    branchPos.push(pos);
-                    pos	= PdVector.copyNew(pos);
-                    branchPoly.push(pg);
-                    branchCnt.push(new Integer(polyInd));
-                    pg		= new PiVector(defMaxPolygonLength);
-                    polyInd = 0;
-                    pg.setEntry(polyInd++, vertInd);
-                    break;
-                case ']':
-                    pg.setSize(polyInd);
-                    m_polySet.addPolygon(pg);
-                    pos	= (PdVector)branchPos.pop();
-                    pg		= (PiVector)branchPoly.pop();
-                    Integer cnt = (Integer)branchCnt.pop();
-                    polyInd = cnt.intValue();
-                    vertInd = pg.getEntry(polyInd-1);
-                    break;
-                case '+':
-                    pos.setEntry(2, pos.getEntry(2)+delta);
-                    break;
-                case '-':
-                    pos.setEntry(2, pos.getEntry(2)-delta);
-                    break;
-                default:
+    private void makePolygonSet() {
+        LSystemMetrics.Span span = m_metrics.begin(LSystemMetrics.STAGE_POLYGONS);
+        int numPolygons, level = -1;
+        int [] index, start;
+        int dim = m_bDisplayed3D ? LSystemTurtle3D.DIM : LSystemTurtle.DIM;
+        if (m_polySet.getDimOfVertices() != dim)
+            m_polySet.setDimOfVertices(dim);
+        if (m_bDisplayed3D) {
+            m_polySet.setNumVertices(m_turtle3D.getNumVertices());
+            copyVertices();
+            numPolygons		= m_turtle3D.getNumPolygons();
+            index				= m_turtle3D.getPolygonIndices();
+            start				= m_turtle3D.getPolygonStart();
+        } else if (m_bDecimate) {
+            level				= m_decimator.selectLevel(getZoom());
+            int numVertices	= m_decimator.getNumVertices(level);
+            double [] vertex	= m_decimator.getVertices(level);
+            m_polySet.setNumVertices(numVertices);
+            for (int i=0; i<numVertices; i++)
+                m_polySet.setVertex(i, vertex[LSystemDecimator.DIM*i], vertex[LSystemDecimator.DIM*i+1]);
+            numPolygons		= m_decimator.getNumPolygons(level);
+            index				= m_decimator.getPolygonIndices(level);
+            start				= m_decimator.getPolygonStart(level);
+        } else {
+            m_polySet.setNumVertices(m_turtle.getNumVertices());
+            copyVertices();
+            numPolygons		= m_turtle.getNumPolygons();
+            index				= m_turtle.getPolygonIndices();
+            start				= m_turtle.getPolygonStart();
+        }
+        m_displayedLevel = level;
+        m_polySet.setNumPolygons(numPolygons);
+        for (int i=0; i<numPolygons; i++) {
+            int len = start[i+1]-start[i];
+            m_polySet.setSizeOfPolygon(i, len);
+            System.arraycopy(index, start[i], m_polySet.getPolygon(i).m_data, 0, len);
+        }
+        m_metrics.end(span, m_polySet.getNumVertices());
+    }
+    /**
+     * Export the L-system with the current rules, number of iterations and
+     * angle while the turtle walks, without building polygons. The state is
+     * derived like in recompute(), lazily if streaming or if it is too long,
+     * and compiled into a turtle program, which needs one int per drawing symbol.
+     * Files with extension ".svg" are written as SVG, all others in the binary
+     * format of LSystemGeometryWriter.
+     * <p>
+     * The export runs in the thread which recomputes if m_bBackground is set,
+     * after the running recompute, and is not cancelled by later recomputes.
+     * Failures are reported as warnings.
+     */
+    public void export(final File file) {
+        final char [] alphabet	= m_lsystem.m_alphabet.clone();
+        final String axiom		= m_lsystem.m_axiom;
+        final String [] rule		= m_lsystem.m_rule.clone();
+        final long seed			= m_lsystem.getSeed();
+        final int numIterations	= m_numIterations.getValue();
+        final boolean bStreaming	= m_bStreaming;
+        final double delta		= m_delta.getValue();
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    export(alphabet, axiom, rule, seed, numIterations, bStreaming, delta, file);
+                } catch (IOException | RuntimeException e) {
+                    PsDebug.warning("export of L-system into "+file+" failed: "+e);
+                }
             }
+        };
+        if (m_bBackground) {
+            m_worker.execute(task);
+        } else {
+            m_worker.cancelAndWait();
+            task.run();
+        }
+    }
+    /**
+     * Derive, compile and export the L-system. Is called by the thread which recomputes.
+     * @return		number of written bytes.
+     */
+    private long export(char [] alphabet, String axiom, String [] rule, long seed, int numIterations,
+                        boolean bStreaming, double delta, File file) throws IOException {
+        if (!isDerivedFrom(alphabet, axiom, rule, seed)) {
+            // the program is no longer derived from the rules of m_workLSystem
+            m_derivedIterations = -1;
+            m_workLSystem.setGrammar(alphabet, axiom, rule);
+            m_workLSystem.setSeed(seed);
+        }
+        m_workLSystem.setCancelSignal(null);
+        LSystemStreamIf descr;
+        if (isDerivedLazily(numIterations, bStreaming)) {
+            descr = m_workLSystem.cursor(numIterations);
+        } else {
+            m_workLSystem.advance(numIterations);
+            descr = m_workLSystem.stream();
+        }
+        LSystemProgram program = new LSystemProgram();
+        program.compile(descr);
+        LSystemTurtle turtle = new LSystemTurtle();
+        if (file.getName().toLowerCase().endsWith(".svg"))
+            return LSystemSvgWriter.write(turtle, program, delta, file);
+        return LSystemGeometryWriter.write(turtle, program, delta, file);
+    }
+    /**
+     * Get statistics of the displayed state, which are computed once per state.
+     * Context-free grammars give the statistics without reading the state,
+     * other states are read once. Is called on the event dispatch thread.
+     * @return		statistics, or null if no state is displayed or its lazily
+     *					derived state is not available.
+     */
+    public LSystemStatistics getStatistics() {
+        if (m_statistics != null || m_displayedGrammar == null)
+            return m_statistics;
+        LSystemGrammar grammar = m_displayedGrammar;
+        if (grammar.isByteCoded() && !grammar.isStochastic() && !grammar.isParametric())
+            m_statistics = new LSystemStatistics(grammar, m_displayedIterations);
+        else if (m_bDisplayedState)
+            m_statistics = new LSystemStatistics(m_lsystem.stream());
+        return m_statistics;
+    }
+    /** Get metrics of the stages of the recompute, see LSystemMetrics. */
+    public LSystemMetrics getMetrics() {
+        return m_metrics;
+    }
+    /** Get magnification of the display relative to the last fit. */
+    protected double getZoom() {
+        PvDisplayIf disp = getDisplay();
+        if (disp == null || m_fitScale <= 0.)
+            return 1.;
+        double scale = disp.getCamera().getScale();
+        return scale > 0. ? scale/m_fitScale : 1.;
+    }
+    /** Fit the displays and remember the scale, which is the zoom of the coarsest details. */
+    public void fitDisplays() {
+        super.fitDisplays();
+        PvDisplayIf disp = getDisplay();
+        if (disp != null)
+            m_fitScale = disp.getCamera().getScale();
+    }
+    /** Nothing to do when a camera is picked. */
+    public void pickCamera(PvCameraEvent pos) {
+    }
+    /**
+     * Swap the level of detail if the zoom has changed enough.
+     * Is called on the event dispatch thread while the camera is dragged.
+     */
+    public void dragCamera(PvCameraEvent pos) {
+        if (!m_bDecimate || m_displayedLevel < 0 || m_decimator.selectLevel(getZoom()) == m_displayedLevel)
+            return;
+        makePolygonSet();
+        m_polySet.update(m_polySet);
+    }
+    /** Copy vertices computed by the turtle into the polygon set. */
+    private void copyVertices() {
+        if (m_bDisplayed3D) {
+            int numVertices	= m_turtle3D.getNumVertices();
+            double [] vertex	= m_turtle3D.getVertices();
+            for (int i=0; i<numVertices; i++)
+                m_polySet.setVertex(i, vertex[LSystemTurtle3D.DIM*i], vertex[LSystemTurtle3D.DIM*i+1],
+                                    vertex[LSystemTurtle3D.DIM*i+2]);
+            return;
         }
-        pg.setSize(polyInd);
-        m_polySet.addPolygon(pg);
+        int numVertices	= m_turtle.getNumVertices();
+        double [] vertex	= m_turtle.getVertices();
+        for (int i=0; i<numVertices; i++)
+            m_polySet.setVertex(i, vertex[LSystemTurtle.DIM*i], vertex[LSystemTurtle.DIM*i+1]);
     }
-}
\ No newline at end of file
+}
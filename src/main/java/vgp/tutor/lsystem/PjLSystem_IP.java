@@ -3,6 +3,8 @@ package vgp.tutor.lsystem;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 
@@ -10,18 +12,33 @@ import jv.object.PsDebug;
 import jv.object.PsPanel;
 import jv.object.PsUpdateIf;
 import jv.project.PjProject_IP;
+import jv.project.PvCameraIf;
+import jv.project.PvDisplayIf;
 
 /**
  * Info panel for L-system.
  *
  * @author		Konrad Polthier
- * @version		06.02.03, 1.10 revised (kp) Additional checkbox to switch off state information.<br>
+ * @version		17.10.26, 2.01 revised Statistics taken from the project, also of lazily derived states.<br>
+ *					17.10.26, 2.00 revised Checkbox to switch to the 3D turtle.<br>
+ *					17.10.26, 1.90 revised Metrics of the stages of the recompute.<br>
+ *					17.10.26, 1.80 revised Current state shown page by page with statistics.<br>
+ *					17.10.26, 1.70 revised Checkbox to display levels of detail.<br>
+ *					17.10.26, 1.60 revised Alphabet may be edited.<br>
+ *					17.10.26, 1.50 revised Text field with seed of stochastic rules.<br>
+ *					17.10.26, 1.40 revised Button to export the L-system.<br>
+ *					17.10.26, 1.30 revised Checkbox to display generations progressively.<br>
+ *					17.10.26, 1.20 revised Checkbox to derive the state lazily.<br>
+ *					06.02.03, 1.10 revised (kp) Additional checkbox to switch off state information.<br>
  *					30.10.01, 1.00 created (kp)
  */
-public class PjLSystem_IP extends PjProject_IP implements ActionListener, ItemListener {
+public class PjLSystem_IP extends PjProject_IP implements ActionListener, ItemListener, AdjustmentListener {
+    /** Number of symbols of the current state shown on one page. */
+    protected static final	int	PAGE_SIZE		= 4096;
 
     protected	PjLSystem				m_pjLSystem;
     protected	Button					m_bReset;
+    protected	Button					m_bExport;
     protected	PsPanel					m_pBounds;
     protected	PsPanel					m_pSystem;
     protected	PsPanel					m_pRules;
@@ -32,14 +49,32 @@ public class PjLSystem_IP extends PjProject_IP implements ActionListener, ItemLi
     protected	TextField				m_tAlphabet;
     /** Text field with initial configuration of the L-system. */
     protected	TextField				m_tAxiom;
+    /** Text field with seed of the random choices of stochastic rules. */
+    protected	TextField				m_tSeed;
     /** Production rule of each character of the alphabet. */
     protected	TextField []			m_tRule;
-    /** Current tree. */
+    /** Page of the current tree. */
     protected	TextArea					m_tTree;
+    /** Scrollbar to select the page of the current tree. */
+    protected	Scrollbar				m_sPage;
+    /** Length, number of symbols and depth of the current tree. */
+    protected	Label						m_lStatistics;
     /** Enable auto fit. */
     protected	Checkbox					m_cAutoFit;
     /** Enable printing of current state. */
     protected	Checkbox					m_cCurrentState;
+    /** Enable lazy derivation of the state while drawing. */
+    protected	Checkbox					m_cStreaming;
+    /** Enable progressive display of the preceding generations. */
+    protected	Checkbox					m_cProgressive;
+    /** Enable display of simplified polygons depending on the zoom. */
+    protected	Checkbox					m_cDecimate;
+    /** Enable interpretation of 3D rotations. */
+    protected	Checkbox					m_c3D;
+    /** Enable measurement of the stages of the recompute. */
+    protected	Checkbox					m_cMetrics;
+    /** Summary of the metrics of the last recompute. */
+    protected	TextArea					m_tMetrics;
 
     public PjLSystem_IP() {
         super();
@@ -60,19 +95,44 @@ public class PjLSystem_IP extends PjProject_IP implements ActionListener, ItemLi
             title.add(m_cAutoFit);
         }
         add(title);
+        PsPanel derivation = new PsPanel();
+        derivation.setLayout(new GridLayout(1, 2));
+        {
+            m_cStreaming = new Checkbox("Lazy Derivation");
+            m_cStreaming.addItemListener(this);
+            derivation.add(m_cStreaming);
+            m_cProgressive = new Checkbox("Progressive");
+            m_cProgressive.addItemListener(this);
+            derivation.add(m_cProgressive);
+        }
+        add(derivation);
+        PsPanel display = new PsPanel();
+        display.setLayout(new GridLayout(1, 2));
+        {
+            m_cDecimate = new Checkbox("Level of Detail");
+            m_cDecimate.addItemListener(this);
+            display.add(m_cDecimate);
+            m_c3D = new Checkbox("3D Turtle");
+            m_c3D.addItemListener(this);
+            display.add(m_c3D);
+        }
+        add(display);
 
         m_pSystem = new PsPanel();
         add(m_pSystem);
         {
             m_tAlphabet = new TextField();
             m_tAlphabet.addActionListener(this);
-            m_tAlphabet.setEditable(false);
             m_pSystem.addLabelComponent("Alphabet", m_tAlphabet);
 
             m_tAxiom = new TextField();
             m_tAxiom.addActionListener(this);
             m_pSystem.addLabelComponent("Axiom", m_tAxiom);
 
+            m_tSeed = new TextField();
+            m_tSeed.addActionListener(this);
+            m_pSystem.addLabelComponent("Seed", m_tSeed);
+
             m_pRules = new PsPanel();
             m_pSystem.add(m_pRules);
         }
@@ -90,9 +150,27 @@ public class PjLSystem_IP extends PjProject_IP implements ActionListener, ItemLi
         }
         add(state);
 
+        m_lStatistics = new Label();
+        add(m_lStatistics);
         m_tTree = new TextArea("", 5, 20, TextArea.SCROLLBARS_VERTICAL_ONLY);
         m_tTree.setEditable(false);
         add(m_tTree);
+        m_sPage = new Scrollbar(Scrollbar.HORIZONTAL, 0, 1, 0, 1);
+        m_sPage.addAdjustmentListener(this);
+        add(m_sPage);
+
+        PsPanel metrics = new PsPanel();
+        metrics.setLayout(new GridLayout(1, 2));
+        metrics.addSubTitle("Metrics");
+        {
+            m_cMetrics = new Checkbox("Enable");
+            m_cMetrics.addItemListener(this);
+            metrics.add(m_cMetrics);
+        }
+        add(metrics);
+        m_tMetrics = new TextArea("", 5, 20, TextArea.SCROLLBARS_VERTICAL_ONLY);
+        m_tMetrics.setEditable(false);
+        add(m_tMetrics);
 
         // buttons at bottom
         Panel m_pBottomButtons = new Panel();
@@ -100,6 +178,9 @@ public class PjLSystem_IP extends PjProject_IP implements ActionListener, ItemLi
         m_bReset = new Button("Reset");
         m_bReset.addActionListener(this);
         m_pBottomButtons.add(m_bReset);
+        m_bExport = new Button("Export");
+        m_bExport.addActionListener(this);
+        m_pBottomButtons.add(m_bExport);
 
         add(m_pBottomButtons);
     }
@@ -113,20 +194,47 @@ public class PjLSystem_IP extends PjProject_IP implements ActionListener, ItemLi
         m_pBounds.add(m_pjLSystem.m_numIterations.getInfoPanel());
         m_pBounds.add(m_pjLSystem.m_delta.getInfoPanel());
 
+        addRules();
+        showState();
+    }
+    /** Create a text field for the rule of each character of the alphabet. */
+    protected void addRules() {
         char [] alphabet = m_pjLSystem.m_lsystem.m_alphabet;
         m_numLetters = alphabet.length;
-        {
-            m_pRules.removeAll();
-            m_pRules.addSubTitle("Replacement Rules");
-            m_tRule = new TextField[m_numLetters];
-            for (int i=0; i<m_numLetters; i++) {
-                m_tRule[i] = new TextField();
-                m_tRule[i].addActionListener(this);
-                m_pRules.addLabelComponent(String.valueOf(alphabet[i]), m_tRule[i]);
+        m_pRules.removeAll();
+        m_pRules.addSubTitle("Replacement Rules");
+        m_tRule = new TextField[m_numLetters];
+        for (int i=0; i<m_numLetters; i++) {
+            m_tRule[i] = new TextField();
+            m_tRule[i].addActionListener(this);
+            m_pRules.addLabelComponent(String.valueOf(alphabet[i]), m_tRule[i]);
+        }
+        m_pRules.validate();
+    }
+    /**
+     * Replace the alphabet of the L-system. Characters which remain keep
+     * their rule, and new characters get a rule which keeps them.
+     */
+    protected void setAlphabet(String text) {
+        LSystem lsystem = m_pjLSystem.m_lsystem;
+        StringBuffer alphabet = new StringBuffer();
+        for (int i=0; i<text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c) && alphabet.indexOf(String.valueOf(c)) < 0)
+                alphabet.append(c);
+        }
+        String [] rule = new String[alphabet.length()];
+        for (int i=0; i<rule.length; i++) {
+            rule[i] = String.valueOf(alphabet.charAt(i));
+            for (int j=0; j<lsystem.m_alphabet.length; j++) {
+                if (lsystem.m_alphabet[j] == alphabet.charAt(i)) {
+                    rule[i] = lsystem.m_rule[j];
+                    break;
+                }
             }
-            m_pRules.validate();
         }
-        PsPanel.setText(m_tTree, m_pjLSystem.m_lsystem.getTree());
+        lsystem.setGrammar(alphabet.toString().toCharArray(), lsystem.m_axiom, rule);
+        addRules();
     }
     /**
      * Update the panel whenever the parent has changed somewhere else.
@@ -137,14 +245,18 @@ public class PjLSystem_IP extends PjProject_IP implements ActionListener, ItemLi
         if (m_pjLSystem == event) {
             PsPanel.setText(m_tAlphabet, new String(m_pjLSystem.m_lsystem.m_alphabet));
             PsPanel.setText(m_tAxiom, m_pjLSystem.m_lsystem.m_axiom);
+            PsPanel.setText(m_tSeed, String.valueOf(m_pjLSystem.m_lsystem.getSeed()));
             for (int i=0; i<m_numLetters; i++)
                 PsPanel.setText(m_tRule[i], m_pjLSystem.m_lsystem.m_rule[i]);
             m_cCurrentState.setState(m_pjLSystem.m_bCurrentState);
-            if (m_cCurrentState.getState())
-                PsPanel.setText(m_tTree, m_pjLSystem.m_lsystem.getTree());
-            else
-                PsPanel.setText(m_tTree, "");
+            showState();
             m_cAutoFit.setState(m_pjLSystem.m_bAutoFit);
+            m_cStreaming.setState(m_pjLSystem.m_bStreaming);
+            m_cProgressive.setState(m_pjLSystem.m_bProgressive);
+            m_cDecimate.setState(m_pjLSystem.m_bDecimate);
+            m_c3D.setState(m_pjLSystem.m_b3D);
+            m_cMetrics.setState(m_pjLSystem.getMetrics().isEnabled());
+            showMetrics();
             return true;
         }
         return super.update(event);
@@ -157,13 +269,25 @@ public class PjLSystem_IP extends PjProject_IP implements ActionListener, ItemLi
             return;
         Object source = event.getSource();
         if (source == m_tAlphabet) {
-            // m_pjLSystem.m_lsystem.alphabet = PuString.(m_tAxiom.getText());
+            setAlphabet(m_tAlphabet.getText());
         } else if (source == m_tAxiom) {
             m_pjLSystem.m_lsystem.m_axiom = m_tAxiom.getText();
+        } else if (source == m_tSeed) {
+            try {
+                m_pjLSystem.m_lsystem.setSeed(Long.parseLong(m_tSeed.getText().trim()));
+            } catch (NumberFormatException e) {
+                PsDebug.warning("seed must be an integer, found "+m_tSeed.getText());
+                PsPanel.setText(m_tSeed, String.valueOf(m_pjLSystem.m_lsystem.getSeed()));
+                return;
+            }
         } else if (source == m_bReset) {
             m_pjLSystem.m_lsystem.init();
             m_pjLSystem.init();
+            addRules();
             m_pjLSystem.start();
+        } else if (source == m_bExport) {
+            export();
+            return;
         } else {
             for (int i=0; i<m_numLetters; i++) {
                 if (source == m_tRule[i]) {
@@ -175,6 +299,22 @@ public class PjLSystem_IP extends PjProject_IP implements ActionListener, ItemLi
         m_pjLSystem.recompute();
         m_pjLSystem.update(m_pjLSystem);
     }
+    /**
+     * Ask for a file and export the L-system, as SVG if the file name
+     * ends with ".svg", otherwise as binary geometry. The export runs in
+     * the background, see PjLSystem.export().
+     */
+    protected void export() {
+        Component comp = this;
+        while (comp != null && !(comp instanceof Frame))
+            comp = comp.getParent();
+        FileDialog dialog = new FileDialog(comp != null ? (Frame)comp : new Frame(), "Export L-System", FileDialog.SAVE);
+        dialog.setFile("lsystem.svg");
+        dialog.setVisible(true);
+        if (dialog.getFile() == null)
+            return;
+        m_pjLSystem.export(new java.io.File(dialog.getDirectory(), dialog.getFile()));
+    }
     public void itemStateChanged(ItemEvent event) {
         if (m_project==null)
             return;
@@ -186,11 +326,65 @@ public class PjLSystem_IP extends PjProject_IP implements ActionListener, ItemLi
             m_pjLSystem.m_bAutoFit = m_cAutoFit.getState();
             return;
         } else if (source == m_cCurrentState) {
-            if (m_cCurrentState.getState())
-                PsPanel.setText(m_tTree, m_pjLSystem.m_lsystem.getTree());
-            else
-                PsPanel.setText(m_tTree, "");
             m_pjLSystem.m_bCurrentState = m_cCurrentState.getState();
+            showState();
+        } else if (source == m_cStreaming) {
+            m_pjLSystem.m_bStreaming = m_cStreaming.getState();
+            m_pjLSystem.recompute();
+            m_pjLSystem.update(m_pjLSystem);
+        } else if (source == m_cProgressive) {
+            m_pjLSystem.m_bProgressive = m_cProgressive.getState();
+        } else if (source == m_cDecimate) {
+            m_pjLSystem.m_bDecimate = m_cDecimate.getState();
+            m_pjLSystem.recompute();
+        } else if (source == m_c3D) {
+            m_pjLSystem.m_b3D = m_c3D.getState();
+            PvDisplayIf disp = m_pjLSystem.getDisplay();
+            if (disp != null)
+                disp.selectCamera(m_c3D.getState() ? PvCameraIf.CAMERA_PERSPECTIVE : PvCameraIf.CAMERA_ORTHO_XY);
+            m_pjLSystem.recompute();
+        } else if (source == m_cMetrics) {
+            m_pjLSystem.getMetrics().setEnabled(m_cMetrics.getState());
+            showMetrics();
         }
     }
+    /** Show another page of the current state. */
+    public void adjustmentValueChanged(AdjustmentEvent event) {
+        if (m_pjLSystem == null || event.getSource() != m_sPage)
+            return;
+        showPage();
+    }
+    /**
+     * Show statistics and a page of the current state if enabled. Only the page
+     * is converted into text, and the statistics are computed once per state,
+     * see PjLSystem.getStatistics(). The text of a lazily derived state is not
+     * available.
+     */
+    protected void showState() {
+        LSystem lsystem = m_pjLSystem.m_lsystem;
+        LSystemStatistics statistics = m_cCurrentState.getState() ? m_pjLSystem.getStatistics() : null;
+        m_lStatistics.setText(statistics != null ? statistics.toString() : "");
+        if (!m_cCurrentState.getState() || !m_pjLSystem.m_bDisplayedState) {
+            boolean bLazy = m_cCurrentState.getState() && m_pjLSystem.m_displayedGrammar != null;
+            PsPanel.setText(m_tTree, bLazy ? "State is derived lazily while drawing." : "");
+            m_sPage.setValues(0, 1, 0, 1);
+            return;
+        }
+        long numPages = (lsystem.getStateLength()+PAGE_SIZE-1)/PAGE_SIZE;
+        m_sPage.setValues(Math.min(m_sPage.getValue(), (int)Math.max(0, numPages-1)), 1, 0,
+                          (int)Math.max(1, Math.min(numPages, Integer.MAX_VALUE)));
+        m_sPage.setBlockIncrement(Math.max(1, (int)(numPages/100)));
+        showPage();
+    }
+    /** Show the summary of the metrics if enabled. */
+    protected void showMetrics() {
+        LSystemMetrics metrics = m_pjLSystem.getMetrics();
+        PsPanel.setText(m_tMetrics, metrics.isEnabled() ? metrics.toString() : "");
+    }
+    /** Show the page of the current state selected by the scrollbar. */
+    protected void showPage() {
+        if (!m_cCurrentState.getState() || !m_pjLSystem.m_bDisplayedState)
+            return;
+        PsPanel.setText(m_tTree, m_pjLSystem.m_lsystem.getTree((long)m_sPage.getValue()*PAGE_SIZE, PAGE_SIZE));
+    }
 }
\ No newline at end of file
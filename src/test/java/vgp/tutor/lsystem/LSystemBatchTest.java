@@ -0,0 +1,129 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Headless batch renderer: parsing of job files, and the jobs and summary of
+ * a run with one and with several threads.
+ */
+class LSystemBatchTest {
+    static final String	TREE	= "name=tree axiom=F rule=F:F[+F]F[-F]F angle=20:30:2.5 depth=0:3 step=0.2";
+
+    @TempDir
+    Path m_dir;
+
+    @Test
+    void parseEntryAddsConstantsAndExpandsRanges() {
+        LSystemBatch.Entry entry = LSystemBatch.parseEntry(TREE);
+        assertEquals("tree", entry.m_name);
+        assertEquals("F", entry.m_axiom);
+        assertArrayEquals("F[+]-".toCharArray(), entry.m_alphabet);
+        assertArrayEquals(new String[] {"F[+F]F[-F]F", "[", "+", "]", "-"}, entry.m_rule);
+        assertArrayEquals(new double[] {20., 22.5, 25., 27.5, 30.}, entry.m_angle, 1.e-12);
+        assertEquals(0, entry.m_minDepth);
+        assertEquals(3, entry.m_maxDepth);
+        assertEquals(0.2, entry.m_step);
+        assertEquals(0L, entry.m_seed);
+    }
+    @Test
+    void parseEntryOfStochasticRule() {
+        LSystemBatch.Entry entry = LSystemBatch.parseEntry("name=bush axiom=F rule=F:1:F[+F]F;2:F[-F]F angle=25 depth=5 seed=42");
+        assertArrayEquals("F[+]-".toCharArray(), entry.m_alphabet);
+        assertEquals("1:F[+F]F;2:F[-F]F", entry.m_rule[0]);
+        assertArrayEquals(new double[] {25.}, entry.m_angle);
+        assertEquals(5, entry.m_minDepth);
+        assertEquals(5, entry.m_maxDepth);
+        assertEquals(42L, entry.m_seed);
+    }
+    @Test
+    void parseEntryRejectsMalformedTokens() {
+        String [] lines = {
+            "name=a axiom=F angle=20",
+            "name=a axiom=F angle=20 depth=2 color=red",
+            "name=a axiom=F angle=20 depth=2 rule",
+            "name=a axiom=F angle=20 depth=2 rule=FF",
+            "name=a axiom=F angle=20 depth=2 rule=F:FF rule=F:F",
+            "name=a axiom=F angle=x depth=2",
+            "name=a axiom=F angle=30:20 depth=2",
+            "name=a axiom=F angle=20:30:0 depth=2",
+            "name=a axiom=F angle=1:2:3:4 depth=2",
+            "name=a axiom=F angle=20 depth=2.5",
+            "name=a axiom=F angle=20 depth=-1",
+            "name=a axiom=F angle=20 depth=2 seed=1.5",
+        };
+        for (String line : lines)
+            assertThrows(IllegalArgumentException.class, () -> LSystemBatch.parseEntry(line), line);
+    }
+    @Test
+    void readJobsSkipsCommentsAndReportsLineNumbers() throws IOException {
+        File file = m_dir.resolve("jobs.txt").toFile();
+        Files.write(file.toPath(), List.of("# sweep", "", TREE, "  name=b axiom=F angle=90 depth=1  "));
+        List<LSystemBatch.Entry> entries = LSystemBatch.readJobs(file);
+        assertEquals(2, entries.size());
+        assertEquals("tree", entries.get(0).m_name);
+        assertEquals("b", entries.get(1).m_name);
+
+        Files.write(file.toPath(), List.of(TREE, "# next line is wrong", "name=c axiom=F depth=1"));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> LSystemBatch.readJobs(file));
+        assertTrue(e.getMessage().startsWith(file+":3: "), e.getMessage());
+    }
+
+    /** Run the entries and return the last line printed to standard output. */
+    static String run(LSystemBatch batch, List<LSystemBatch.Entry> entries, boolean bSuccess) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(buffer, true));
+            assertEquals(bSuccess, batch.run(entries));
+        } finally {
+            System.setOut(out);
+        }
+        String [] line = buffer.toString().split("\\R");
+        return line[line.length-1];
+    }
+    @Test
+    void runWritesOneFilePerJobAndSummary() {
+        for (int numThreads : new int[] {1, 3}) {
+            File dir = m_dir.resolve("out"+numThreads).toFile();
+            LSystemBatch batch = new LSystemBatch();
+            batch.m_numThreads	= numThreads;
+            batch.m_outDir		= dir;
+            List<LSystemBatch.Entry> entries = List.of(
+                LSystemBatch.parseEntry(TREE),
+                LSystemBatch.parseEntry("name=koch axiom=F rule=F:F+F-F-F+F angle=90 depth=2:4"));
+            String summary = run(batch, entries, true);
+            assertTrue(summary.startsWith("23 jobs, 0 failed, "), summary);
+            assertEquals(23, dir.list().length);
+            for (int depth=0; depth<=3; depth++)
+                assertTrue(new File(dir, "tree_d"+depth+"_a27.5.obj").isFile());
+            assertTrue(new File(dir, "koch_d4_a90.0.obj").isFile());
+        }
+    }
+    @Test
+    void runCountsFailedJobs() {
+        File dir = m_dir.resolve("out").toFile();
+        // a directory in place of an output file makes its job fail
+        assertTrue(new File(dir, "tree_d1_a25.0.obj").mkdirs());
+        LSystemBatch batch = new LSystemBatch();
+        batch.m_numThreads	= 2;
+        batch.m_outDir		= dir;
+        String summary = run(batch, List.of(LSystemBatch.parseEntry(TREE)), false);
+        assertTrue(summary.startsWith("20 jobs, 1 failed, "), summary);
+        assertFalse(new File(dir, "tree_d1_a25.0.obj").isFile());
+    }
+}
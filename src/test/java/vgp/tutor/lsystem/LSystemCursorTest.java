@@ -0,0 +1,50 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Lazy derivation: streams and cursors must deliver the symbols of the state
+ * without creating it as string, and a cursor must not change the state.
+ */
+class LSystemCursorTest {
+    @Test
+    void streamAndCursorEqualState() {
+        String [] grammar = LSystemTest.GRAMMARS[1];
+        LSystem lsystem = LSystemTest.create(grammar);
+        lsystem.iterate(4);
+        String expected = LSystemTest.derive(grammar, 4);
+        assertEquals(expected, LSystemTest.read(lsystem.stream()));
+        assertEquals(expected, LSystemTest.read(lsystem.cursor(4)));
+    }
+    @Test
+    void cursorDerivesEachGeneration() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            LSystem lsystem = LSystemTest.create(grammar);
+            lsystem.iterate(2);
+            for (int n=0; n<7; n++) {
+                LSystemCursor cursor = new LSystemCursor(lsystem.getGrammar(), n);
+                String expected = LSystemTest.derive(grammar, n);
+                assertEquals(n, cursor.getNumGenerations());
+                assertEquals(expected, LSystemTest.read(cursor), grammar[2]+" generation "+n);
+                // read again after rewinding
+                assertEquals(expected, LSystemTest.read(cursor), grammar[2]+" generation "+n);
+                assertEquals(expected, LSystemTest.read(lsystem.cursor(n)), grammar[2]+" generation "+n);
+            }
+            // the state of the L-system is left unchanged
+            assertEquals(LSystemTest.derive(grammar, 2), lsystem.getTree());
+        }
+    }
+    @Test
+    void streamCanBeReadTwice() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            LSystem lsystem = LSystemTest.create(grammar);
+            lsystem.iterate(5);
+            LSystemStreamIf stream = lsystem.stream();
+            String expected = LSystemTest.derive(grammar, 5);
+            assertEquals(expected, LSystemTest.read(stream));
+            assertEquals(expected, LSystemTest.read(stream));
+        }
+    }
+}
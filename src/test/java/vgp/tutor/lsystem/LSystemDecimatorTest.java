@@ -0,0 +1,74 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Levels of detail of LSystemDecimator: their tolerances, the sizes of their
+ * buffers, and the level selected at a zoom.
+ */
+class LSystemDecimatorTest {
+    /** Turtle of generation n of a plant with many small branches. */
+    static LSystemTurtle plant(int n) {
+        LSystem lsystem = new LSystem();
+        lsystem.setGrammar("XF+-[]".toCharArray(), "X", new String [] {"F+[[X]-X]-F[-FX]+X", "FF", "+", "-", "[", "]"});
+        lsystem.iterate(n);
+        LSystemProgram program = new LSystemProgram();
+        program.compile(lsystem.stream());
+        LSystemTurtle turtle = new LSystemTurtle();
+        turtle.interpret(program, 25.);
+        return turtle;
+    }
+
+    @Test
+    void tolerancesGrowByLevelFactor() {
+        LSystemDecimator decimator = new LSystemDecimator();
+        decimator.build(plant(5), 500);
+        assertEquals(LSystemDecimator.DEF_NUM_LEVELS, decimator.getNumLevels());
+        assertEquals(0., decimator.getTolerance(0));
+        for (int k=2; k<decimator.getNumLevels(); k++)
+            assertEquals(LSystemDecimator.LEVEL_FACTOR, decimator.getTolerance(k)/decimator.getTolerance(k-1), 1.e-12);
+    }
+    @Test
+    void levelBuffersAreSizedByTheirOwnCounts() {
+        LSystemTurtle turtle = plant(7);
+        LSystemDecimator decimator = new LSystemDecimator();
+        decimator.build(turtle, 500);
+        int coarsest = decimator.getNumLevels()-1;
+        assertTrue(decimator.getNumVertices(coarsest) < turtle.getNumVertices()/10);
+        for (int k=0; k<decimator.getNumLevels(); k++) {
+            int numVertices = decimator.getNumVertices(k);
+            int numIndices = decimator.getPolygonStart(k)[decimator.getNumPolygons(k)];
+            assertTrue(numVertices <= turtle.getNumVertices());
+            assertTrue(decimator.getVertices(k).length <= LSystemDecimator.DIM*Math.max(2*numVertices, 64), "level "+k);
+            assertTrue(decimator.getPolygonIndices(k).length <= Math.max(2*numIndices, 64), "level "+k);
+            if (k > 0)
+                assertTrue(numVertices <= decimator.getNumVertices(k-1), "level "+k);
+        }
+    }
+    @Test
+    void zoomSelectsLevelByPixelSize() {
+        LSystemDecimator decimator = new LSystemDecimator();
+        decimator.build(plant(5), 500);
+        int numZoomLevels	= decimator.getNumZoomLevels();
+        int whole			= numZoomLevels+1;
+        assertEquals(whole, decimator.selectLevel(1.));
+        // any zoom in selects a finer level, and each level factor the next one, until level 0
+        double zoom = 1.5;
+        for (int k=whole-1; k>=0; k--, zoom*=LSystemDecimator.LEVEL_FACTOR)
+            assertEquals(k, decimator.selectLevel(zoom), "zoom "+zoom);
+        assertEquals(0, decimator.selectLevel(1.e3));
+        assertEquals(whole+1, decimator.selectLevel(1./LSystemDecimator.LEVEL_FACTOR));
+        assertEquals(decimator.getNumLevels()-1, decimator.selectLevel(1.e-3));
+    }
+    @Test
+    void levelsWithoutZoomLevels() {
+        LSystemDecimator decimator = new LSystemDecimator(4);
+        decimator.build(plant(5), 500);
+        assertEquals(0, decimator.getNumZoomLevels());
+        assertEquals(1, decimator.selectLevel(1.));
+        assertEquals(0, decimator.selectLevel(2.));
+    }
+}
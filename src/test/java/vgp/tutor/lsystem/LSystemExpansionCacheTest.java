@@ -0,0 +1,85 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Memoized expansion of symbols: cached fragments must equal the rewrite,
+ * whatever the budget, and the budget must hold including the entries.
+ */
+class LSystemExpansionCacheTest {
+    @Test
+    void cachedExpansionEqualsSerial() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            LSystem lsystem = LSystemTest.create(grammar);
+            lsystem.setCacheSize(1<<20);
+            for (int n : new int[] {5, 2, 6, 0, 3}) {
+                lsystem.iterate(n);
+                assertEquals(LSystemTest.derive(grammar, n), lsystem.getTree(), grammar[2]+" generation "+n);
+            }
+        }
+    }
+    @Test
+    void cacheStaysWithinBudgetWithEntries() {
+        LSystemGrammar grammar = LSystemTest.create(LSystemTest.GRAMMARS[1]).getGrammar();
+        int maxBytes = 4096;
+        LSystemExpansionCache cache = new LSystemExpansionCache(grammar, maxBytes);
+        int n = 6;
+        byte [] state = new byte[(int)grammar.getLength(n)];
+        cache.expand(grammar.getAxiom(), n, state, 0);
+        assertTrue(cache.getNumBytes() <= maxBytes);
+        // single symbols are too small to be worth an entry of their own
+        LSystemExpansionCache tiny = new LSystemExpansionCache(grammar, 4*LSystemExpansionCache.ENTRY_BYTES);
+        tiny.expand(grammar.getAxiom(), n, state, 0);
+        assertEquals(0, tiny.getNumBytes());
+        assertEquals(LSystemTest.derive(LSystemTest.GRAMMARS[1], n), grammar.decode(state, 0, state.length));
+    }
+    @Test
+    void largeCachedStatesAreRewrittenInParallel() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            LSystem lsystem = LSystemTest.create(grammar);
+            lsystem.setCacheSize(1<<20);
+            lsystem.setParallelism(4);
+            lsystem.setParallelThreshold(64);
+            for (int n : new int[] {5, 2, 6, 0, 3}) {
+                lsystem.iterate(n);
+                assertEquals(LSystemTest.derive(grammar, n), lsystem.getTree(), grammar[2]+" generation "+n);
+            }
+        }
+    }
+    @Test
+    void expansionIsIndependentOfBudget() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            LSystemGrammar compiled = LSystemTest.create(grammar).getGrammar();
+            int n = 5;
+            String expected = LSystemTest.derive(grammar, n);
+            for (long maxBytes : new long[] {0, 512, 4096, 1<<20}) {
+                LSystemExpansionCache cache = new LSystemExpansionCache(compiled, maxBytes);
+                byte [] state = new byte[(int)compiled.getLength(n)];
+                // twice, the second time from stored fragments
+                for (int k=0; k<2; k++) {
+                    int len = cache.expand(compiled.getAxiom(), n, state, 0);
+                    assertEquals(state.length, len);
+                    assertEquals(expected, compiled.decode(state, 0, len), grammar[2]+" budget "+maxBytes);
+                }
+                assertTrue(cache.getNumBytes() <= maxBytes);
+            }
+        }
+    }
+    @Test
+    void smallerBudgetEvictsFragments() {
+        LSystemGrammar grammar = LSystemTest.create(LSystemTest.GRAMMARS[0]).getGrammar();
+        LSystemExpansionCache cache = new LSystemExpansionCache(grammar, 1<<20);
+        int n = 5;
+        byte [] state = new byte[(int)grammar.getLength(n)];
+        cache.expand(grammar.getAxiom(), n, state, 0);
+        long numBytes = cache.getNumBytes();
+        assertTrue(numBytes > 0);
+        cache.setMaxBytes(numBytes/2);
+        assertTrue(cache.getNumBytes() <= numBytes/2);
+        cache.clear();
+        assertEquals(0, cache.getNumBytes());
+    }
+}
@@ -0,0 +1,68 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Binary and SVG export of the path of the turtle, and the files left
+ * behind when the export fails.
+ */
+class LSystemGeometryWriterTest {
+    @TempDir
+    Path m_dir;
+
+    /** Turtle which fails after a part of the path has been traced. */
+    static class FailingTurtle extends LSystemTurtle {
+        public void trace(LSystemProgram program, double delta, LSystemPathIf path) {
+            path.moveTo(0., 0.);
+            path.lineTo(1., 0.);
+            throw new IllegalStateException("failed while tracing");
+        }
+    }
+
+    @Test
+    void binaryFileHoldsVerticesAndPolylines() throws IOException {
+        File file = m_dir.resolve("tree.bin").toFile();
+        LSystemProgram program = LSystemTurtleTest.compile("F[+F]F");
+        long numBytes = LSystemGeometryWriter.write(new LSystemTurtle(), program, 90., file);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(numBytes, buffer.capacity());
+        assertEquals(LSystemGeometryWriter.MAGIC, buffer.getInt());
+        int numVertices		= buffer.getInt();
+        int numPolylines	= buffer.getInt();
+        assertEquals(LSystemGeometryWriter.HEADER_SIZE+8*numVertices+4*(numPolylines+1), numBytes);
+        buffer.position(LSystemGeometryWriter.HEADER_SIZE+8*numVertices+4*numPolylines);
+        assertEquals(numVertices, buffer.getInt());
+        assertArrayEquals(new String [] {"tree.bin"}, m_dir.toFile().list());
+    }
+    @Test
+    void failedExportLeavesNoFile() {
+        LSystemProgram program = LSystemTurtleTest.compile("F[+F]F");
+        File bin = m_dir.resolve("tree.bin").toFile();
+        File svg = m_dir.resolve("tree.svg").toFile();
+        assertThrows(IllegalStateException.class, () -> LSystemGeometryWriter.write(new FailingTurtle(), program, 90., bin));
+        assertThrows(IllegalStateException.class, () -> LSystemSvgWriter.write(new FailingTurtle(), program, 90., svg));
+        assertArrayEquals(new String[0], m_dir.toFile().list());
+    }
+    @Test
+    void failedExportKeepsPreviousFile() throws IOException {
+        LSystemProgram program = LSystemTurtleTest.compile("F[+F]F");
+        File file = m_dir.resolve("tree.svg").toFile();
+        LSystemSvgWriter.write(new LSystemTurtle(), program, 90., file);
+        byte [] previous = Files.readAllBytes(file.toPath());
+        assertThrows(IllegalStateException.class, () -> LSystemSvgWriter.write(new FailingTurtle(), program, 90., file));
+        assertArrayEquals(previous, Files.readAllBytes(file.toPath()));
+        assertArrayEquals(new String [] {"tree.svg"}, m_dir.toFile().list());
+    }
+}
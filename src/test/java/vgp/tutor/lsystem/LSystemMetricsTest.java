@@ -0,0 +1,87 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Counts recorded by LSystemMetrics while an L-system is derived, and the
+ * registration of the metrics as MBean.
+ */
+class LSystemMetricsTest {
+    @Test
+    void generationsAreCounted() {
+        String [] grammar = LSystemTest.GRAMMARS[0];
+        LSystem lsystem = LSystemTest.create(grammar);
+        LSystemMetrics metrics = new LSystemMetrics();
+        metrics.setEnabled(true);
+        lsystem.setMetrics(metrics);
+        lsystem.iterate(5);
+        assertEquals(5, metrics.getStageCounts()[LSystemMetrics.STAGE_GENERATION]);
+        long [] length = metrics.getGenerationLengths();
+        assertEquals(6, length.length);
+        for (int g=1; g<=5; g++)
+            assertEquals(LSystemTest.derive(grammar, g).length(), length[g], "generation "+g);
+        assertEquals(LSystemTest.derive(grammar, 5).length(), lsystem.getStateSize());
+        assertTrue(metrics.getPeakStateBytes() >= lsystem.getStateSize());
+    }
+    @Test
+    void cachedStateIsCountedAsOneGeneration() {
+        String [] grammar = LSystemTest.GRAMMARS[0];
+        LSystem lsystem = LSystemTest.create(grammar);
+        lsystem.setCacheSize(1<<20);
+        LSystemMetrics metrics = new LSystemMetrics();
+        metrics.setEnabled(true);
+        lsystem.setMetrics(metrics);
+        lsystem.iterate(3);
+        lsystem.iterate(5);
+        assertNotNull(lsystem.m_cache);
+        assertTrue(metrics.getPeakStateBytes() >= lsystem.getStateSize());
+        assertEquals(2, metrics.getStageCounts()[LSystemMetrics.STAGE_GENERATION]);
+        long [] length = metrics.getGenerationLengths();
+        assertEquals(6, length.length);
+        for (int g=0; g<5; g++)
+            assertEquals(0, length[g], "generation "+g);
+        assertEquals(LSystemTest.derive(grammar, 5).length(), length[5]);
+        assertEquals(LSystemTest.derive(grammar, 5), lsystem.getTree());
+    }
+    @Test
+    void restartedDerivationReplacesGenerations() {
+        LSystem lsystem = LSystemTest.create(LSystemTest.GRAMMARS[1]);
+        LSystemMetrics metrics = new LSystemMetrics();
+        metrics.setEnabled(true);
+        lsystem.setMetrics(metrics);
+        lsystem.iterate(4);
+        lsystem.iterate(2);
+        assertEquals(6, metrics.getStageCounts()[LSystemMetrics.STAGE_GENERATION]);
+        assertEquals(3, metrics.getGenerationLengths().length);
+    }
+    @Test
+    void disabledMetricsRecordNothing() {
+        LSystem lsystem = LSystemTest.create(LSystemTest.GRAMMARS[0]);
+        LSystemMetrics metrics = new LSystemMetrics();
+        lsystem.setMetrics(metrics);
+        lsystem.iterate(4);
+        assertArrayEquals(new long[metrics.getStageNames().length], metrics.getStageCounts());
+        assertEquals(0, metrics.getGenerationLengths().length);
+        assertEquals(0, metrics.getPeakStateBytes());
+    }
+    @Test
+    void unregisterRemovesMBean() throws JMException {
+        LSystemMetrics metrics = new LSystemMetrics();
+        ObjectName name = metrics.register("test");
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        metrics.unregister();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        metrics.unregister();
+    }
+}
@@ -0,0 +1,72 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Off-heap states: packed words in direct buffers must derive the same states
+ * as the heap, also for codes which need all eight bits, and must be released
+ * when the state is replaced.
+ */
+class LSystemOffHeapStateTest {
+    @Test
+    void offHeapRewriteEqualsSerial() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            LSystem lsystem = LSystemTest.create(grammar);
+            lsystem.setOffHeap(true);
+            lsystem.setPackedThreshold(0);
+            lsystem.setParallelThreshold(1);
+            for (int n=0; n<6; n++) {
+                lsystem.iterate(n);
+                assertEquals(LSystemTest.derive(grammar, n), lsystem.getTree(), grammar[2]+" generation "+n);
+            }
+        }
+    }
+    @Test
+    void offHeapRewriteOfLargeAlphabet() {
+        // codes of 128 and more must not be sign-extended when packed
+        int numSymbols = 200;
+        char [] alphabet = new char[numSymbols];
+        String [] rule = new String[numSymbols];
+        for (int i=0; i<numSymbols; i++)
+            alphabet[i] = (char)(0x100+i);
+        for (int i=0; i<numSymbols; i++)
+            rule[i] = new String(new char[] {alphabet[(i+1)%numSymbols], alphabet[numSymbols-1-i]});
+        String axiom = new String(new char[] {alphabet[150], alphabet[199]});
+        for (int parallelism : new int[] {1, 4}) {
+            LSystem lsystem = new LSystem();
+            lsystem.setGrammar(alphabet, axiom, rule);
+            lsystem.setOffHeap(true);
+            lsystem.setPackedThreshold(0);
+            lsystem.setParallelism(parallelism);
+            lsystem.setParallelThreshold(1);
+            for (int n=0; n<8; n++) {
+                lsystem.iterate(n);
+                assertEquals(LSystemTest.derive(new String(alphabet), axiom, rule, n), lsystem.getTree(), "generation "+n);
+            }
+        }
+    }
+    @Test
+    void packedStatesAreReleasedAndReused() {
+        String [] grammar = LSystemTest.GRAMMARS[0];
+        LSystem lsystem = LSystemTest.create(grammar);
+        LSystem other = LSystemTest.create(grammar);
+        lsystem.setOffHeap(true);
+        lsystem.setPackedThreshold(0);
+        other.setOffHeap(true);
+        other.setPackedThreshold(0);
+        lsystem.iterate(4);
+        other.iterate(3);
+        lsystem.swapState(other);
+        assertEquals(LSystemTest.derive(grammar, 3), lsystem.getTree());
+        assertEquals(LSystemTest.derive(grammar, 4), other.getTree());
+        lsystem.iterate(5);
+        other.iterate(5);
+        assertEquals(LSystemTest.derive(grammar, 5), lsystem.getTree());
+        assertEquals(LSystemTest.derive(grammar, 5), other.getTree());
+        lsystem.setGrammar(grammar[0].toCharArray(), grammar[1], new String [] {"FF", "+", "-", "[", "]"});
+        lsystem.iterate(3);
+        assertEquals("FFFFFFFF", lsystem.getTree());
+    }
+}
@@ -0,0 +1,66 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Bit-packed states: symbols must survive packing at any number of bits,
+ * across word boundaries, and the packed rewrite must equal the serial one.
+ */
+class LSystemPackedStateTest {
+    @Test
+    void packedRewriteEqualsSerial() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            for (int parallelism : new int[] {1, 4}) {
+                LSystem lsystem = LSystemTest.create(grammar);
+                lsystem.setPackedThreshold(0);
+                lsystem.setParallelism(parallelism);
+                lsystem.setParallelThreshold(1);
+                for (int n=0; n<6; n++) {
+                    lsystem.iterate(n);
+                    assertEquals(LSystemTest.derive(grammar, n), lsystem.getTree(), grammar[2]+" generation "+n);
+                }
+            }
+        }
+    }
+    @Test
+    void codesSurvivePackingAtAnyBits() {
+        for (int bits=1; bits<=8; bits++) {
+            int numCodes = 1 << bits;
+            // not a multiple of the symbols per word, so the last word is partial
+            int len = 3*(64/bits)+5;
+            byte [] code = new byte[len];
+            for (int i=0; i<len; i++)
+                code[i] = (byte)((i*7+3) % numCodes);
+            LSystemPackedState state = new LSystemPackedState(bits);
+            state.set(code, len);
+            assertEquals(len, state.getLength());
+            for (int i=0; i<len; i++)
+                assertEquals(code[i] & 0xFF, state.get(i), "bits "+bits+" index "+i);
+        }
+    }
+    @Test
+    void bitsPerSymbolHoldAllCodes() {
+        assertEquals(1, LSystemPackedState.getBitsPerSymbol(1));
+        assertEquals(1, LSystemPackedState.getBitsPerSymbol(2));
+        assertEquals(2, LSystemPackedState.getBitsPerSymbol(3));
+        assertEquals(3, LSystemPackedState.getBitsPerSymbol(5));
+        assertEquals(4, LSystemPackedState.getBitsPerSymbol(16));
+        assertEquals(8, LSystemPackedState.getBitsPerSymbol(256));
+        assertThrows(IllegalArgumentException.class, () -> new LSystemPackedState(9));
+    }
+    @Test
+    void decodeRangeEqualsSubstring() {
+        String [] grammar = LSystemTest.GRAMMARS[1];
+        LSystem lsystem = LSystemTest.create(grammar);
+        LSystemGrammar compiled = lsystem.getGrammar();
+        String str = LSystemTest.derive(grammar, 4);
+        byte [] code = compiled.encode(str);
+        LSystemPackedState state = new LSystemPackedState(LSystemPackedState.getBitsPerSymbol(compiled.getNumSymbols()));
+        state.set(code, code.length);
+        assertEquals(str, state.decode(compiled));
+        assertEquals(str.substring(17, 17+40), state.decode(compiled, 17, 40));
+    }
+}
@@ -0,0 +1,43 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Parallel rewriting of each generation: chunks of the state rewritten by
+ * several threads must join to the serial result, whatever the chunking.
+ */
+class LSystemParallelTest {
+    @Test
+    void parallelRewriteEqualsSerial() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            LSystem lsystem = LSystemTest.create(grammar);
+            lsystem.setParallelism(4);
+            lsystem.setParallelThreshold(1);
+            for (int n=0; n<6; n++) {
+                lsystem.iterate(n);
+                assertEquals(LSystemTest.derive(grammar, n), lsystem.getTree(), grammar[2]+" generation "+n);
+            }
+        }
+    }
+    @Test
+    void anyNumberOfChunksEqualsSerial() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            LSystem serial = LSystemTest.create(grammar);
+            serial.setParallelism(1);
+            serial.iterate(7);
+            String expected = serial.getTree();
+            for (int parallelism : new int[] {2, 3, 5, 8}) {
+                for (int threshold : new int[] {1, 7, 1000}) {
+                    LSystem lsystem = LSystemTest.create(grammar);
+                    lsystem.setParallelism(parallelism);
+                    lsystem.setParallelThreshold(threshold);
+                    lsystem.iterate(7);
+                    assertEquals(expected, lsystem.getTree(), grammar[2]+" parallelism "+parallelism+" threshold "+threshold);
+                    assertEquals(expected.length(), lsystem.getStateLength());
+                }
+            }
+        }
+    }
+}
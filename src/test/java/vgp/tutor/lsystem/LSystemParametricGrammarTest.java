@@ -0,0 +1,73 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Parametric and context-sensitive rules: parameters are substituted into
+ * the successors, conditions and the order of productions select the
+ * production, and contexts bind parameters and pass over ignored symbols
+ * and branches.
+ */
+class LSystemParametricGrammarTest {
+    /** Assert the states of consecutive generations, starting with the axiom. */
+    static void assertGenerations(LSystem lsystem, String [] expected) {
+        for (int n=0; n<expected.length; n++) {
+            lsystem.iterate(n);
+            assertEquals(expected[n], lsystem.getTree(), "generation "+n);
+        }
+    }
+
+    @Test
+    void parametricRulesSubstituteParameters() {
+        String [] expected = {"F(1)", "F(2)[+F(2)]", "F(3)[+F(4)][+F(3)[+F(4)]]", "F(3)[+F(4)][+F(3)[+F(4)]]"};
+        for (int parallelism : new int[] {1, 4}) {
+            LSystem lsystem = new LSystem();
+            lsystem.setGrammar("F+[]".toCharArray(), "F(1)", new String [] {"F(l) : l<3 -> F(l+1)[+F(l*2)]", "+", "[", "]"});
+            lsystem.setParallelism(parallelism);
+            lsystem.setParallelThreshold(1);
+            for (int n=0; n<expected.length; n++) {
+                lsystem.iterate(n);
+                assertEquals(expected[n], lsystem.getTree(), "generation "+n);
+            }
+        }
+    }
+    @Test
+    void contextSensitiveRulesMatchNeighbours() {
+        // a signal travels to the right, passing over rotations
+        LSystem lsystem = new LSystem();
+        lsystem.setGrammar("ab+".toCharArray(), "ba+aa", new String [] {"b < a -> b", "b -> a", "+"});
+        String [] expected = {"ba+aa", "ab+aa", "aa+ba", "aa+ab"};
+        for (int n=0; n<expected.length; n++) {
+            lsystem.iterate(n);
+            assertEquals(expected[n], lsystem.getTree(), "generation "+n);
+        }
+        // the right context skips branches and ends with its branch
+        lsystem.setGrammar("ab+[]".toCharArray(), "aa[+a]ab", new String [] {"a > b -> b", "b", "+", "[", "]"});
+        expected = new String [] {"aa[+a]ab", "aa[+a]bb", "ab[+a]bb", "bb[+a]bb"};
+        for (int n=0; n<expected.length; n++) {
+            lsystem.iterate(n);
+            assertEquals(expected[n], lsystem.getTree(), "generation "+n);
+        }
+    }
+    @Test
+    void firstMatchingProductionReplaces() {
+        LSystem lsystem = new LSystem();
+        lsystem.setGrammar("F".toCharArray(), "F(5)", new String [] {"F(x) : x>3 -> F(x-1);F(x) -> F(x*10)"});
+        assertGenerations(lsystem, new String [] {"F(5)", "F(4)", "F(3)", "F(30)", "F(29)"});
+    }
+    @Test
+    void contextBindsParameters() {
+        LSystem lsystem = new LSystem();
+        lsystem.setGrammar("AB".toCharArray(), "A(1)B(2)B(3)", new String [] {"A", "A(x) < B(y) -> B(x+y)"});
+        assertGenerations(lsystem, new String [] {"A(1)B(2)B(3)", "A(1)B(3)B(3)", "A(1)B(4)B(3)"});
+    }
+    @Test
+    void successorWithoutArrowReplacesAnyParameters() {
+        // the rule of G makes the grammar parametric, H keeps its modules
+        LSystem lsystem = new LSystem();
+        lsystem.setGrammar("FGH".toCharArray(), "F(1,2)H(4)", new String [] {"G(7)", "G(x) -> G(x+1)", "H"});
+        assertGenerations(lsystem, new String [] {"F(1,2)H(4)", "G(7)H(4)", "G(8)H(4)"});
+    }
+}
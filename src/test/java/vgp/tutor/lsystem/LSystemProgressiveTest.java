@@ -0,0 +1,55 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Progressive derivation: advance() continues from the current generation so
+ * that each intermediate generation can be shown, and must derive the same
+ * states as iterate().
+ */
+class LSystemProgressiveTest {
+    @Test
+    void advanceEqualsIterate() {
+        String [] grammar = LSystemTest.GRAMMARS[0];
+        LSystem lsystem = LSystemTest.create(grammar);
+        for (int n=0; n<6; n++) {
+            lsystem.advance(n);
+            assertEquals(n, lsystem.getGeneration());
+            assertEquals(LSystemTest.derive(grammar, n), lsystem.getTree());
+        }
+    }
+    @Test
+    void advanceToEarlierGenerationRestarts() {
+        String [] grammar = LSystemTest.GRAMMARS[2];
+        LSystem lsystem = LSystemTest.create(grammar);
+        lsystem.advance(5);
+        lsystem.advance(2);
+        assertEquals(2, lsystem.getGeneration());
+        assertEquals(LSystemTest.derive(grammar, 2), lsystem.getTree());
+    }
+    @Test
+    void advanceRestartsAfterChangeOfGrammarOrSeed() {
+        String [] grammar = LSystemTest.GRAMMARS[0];
+        LSystem lsystem = LSystemTest.create(grammar);
+        lsystem.advance(2);
+        String [] rule = {"FF", "+", "-", "[", "]"};
+        lsystem.setGrammar(grammar[0].toCharArray(), grammar[1], rule);
+        lsystem.advance(3);
+        assertEquals("FFFFFFFF", lsystem.getTree());
+
+        char [] alphabet	= "F+-[]".toCharArray();
+        String [] stochastic	= {"F[+F]F;F[-F]F", "+", "-", "[", "]"};
+        lsystem.setSeed(1);
+        lsystem.setGrammar(alphabet, "F", stochastic);
+        lsystem.advance(2);
+        lsystem.setSeed(2);
+        lsystem.advance(4);
+        LSystem expected = new LSystem();
+        expected.setSeed(2);
+        expected.setGrammar(alphabet, "F", stochastic);
+        expected.iterate(4);
+        assertEquals(expected.getTree(), lsystem.getTree());
+    }
+}
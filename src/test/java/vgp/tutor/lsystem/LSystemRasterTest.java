@@ -0,0 +1,75 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Rasterized path of the turtle: the image must not depend on the tiling,
+ * and axis-parallel lines must cover exactly their row or column.
+ */
+class LSystemRasterTest {
+    static final int	COLOR		= 0xFF000000;
+    static final int	BACKGROUND	= 0xFFFFFFFF;
+
+    /** Render a program into an image of a size with a number of threads and rows per tile. */
+    static int [] render(LSystemProgram program, double delta, int width, int height,
+                         int parallelism, int tileHeight) {
+        LSystemRaster raster = new LSystemRaster();
+        raster.setSize(width, height);
+        raster.setColors(COLOR, BACKGROUND);
+        raster.setParallelism(parallelism);
+        raster.setTileHeight(tileHeight);
+        raster.render(new LSystemTurtle(), program, delta);
+        BufferedImage image = raster.getImage();
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    @Test
+    void imageDoesNotDependOnTiling() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            LSystem lsystem = LSystemTest.create(grammar);
+            lsystem.iterate(4);
+            LSystemProgram program = new LSystemProgram();
+            program.compile(lsystem.stream());
+            for (double delta : new double[] {90., 25.7, 60.}) {
+                int [] expected = render(program, delta, 97, 61, 1, LSystemRaster.DEF_TILE_HEIGHT);
+                for (int parallelism : new int[] {3, 7, 61}) {
+                    int [] pixel = render(program, delta, 97, 61, parallelism, 1);
+                    assertArrayEquals(expected, pixel, grammar[2]+" angle "+delta+" parallelism "+parallelism);
+                }
+            }
+        }
+    }
+    @Test
+    void horizontalLineCoversOneRow() {
+        LSystemProgram program = LSystemTurtleTest.compile("+F");
+        int width = 40, height = 33, margin = 4;
+        for (int parallelism : new int[] {1, 33}) {
+            int [] pixel = render(program, 90., width, height, parallelism, 1);
+            for (int y=0; y<height; y++) {
+                for (int x=0; x<width; x++) {
+                    boolean bLine = y == (height-1)/2 && x >= margin && x < width-margin;
+                    assertEquals(bLine ? COLOR : BACKGROUND, pixel[y*width+x], "pixel "+x+","+y);
+                }
+            }
+        }
+    }
+    @Test
+    void verticalLineCoversOneColumn() {
+        LSystemProgram program = LSystemTurtleTest.compile("F");
+        int width = 33, height = 40, margin = 4;
+        for (int parallelism : new int[] {1, 40}) {
+            int [] pixel = render(program, 90., width, height, parallelism, 1);
+            for (int y=0; y<height; y++) {
+                for (int x=0; x<width; x++) {
+                    boolean bLine = x == (width-1)/2 && y >= margin && y < height-margin;
+                    assertEquals(bLine ? COLOR : BACKGROUND, pixel[y*width+x], "pixel "+x+","+y);
+                }
+            }
+        }
+    }
+}
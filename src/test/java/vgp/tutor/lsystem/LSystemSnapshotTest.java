@@ -0,0 +1,144 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Binary snapshots of derived states: round trip at each number of bits per
+ * symbol, rejection of snapshots of other grammars or seeds and of damaged
+ * files, and derivation across runs through a directory of snapshots.
+ */
+class LSystemSnapshotTest {
+    @TempDir
+    Path m_dir;
+
+    /** Create an L-system whose grammar has a number of symbols. */
+    static LSystem createWithSymbols(int numSymbols) {
+        char [] alphabet = new char[numSymbols];
+        String [] rule = new String[numSymbols];
+        for (int i=0; i<numSymbols; i++)
+            alphabet[i] = (char)('a'+i);
+        for (int i=0; i<numSymbols; i++)
+            rule[i] = new String(new char[] {alphabet[(i+1)%numSymbols], alphabet[(i*3+2)%numSymbols]});
+        LSystem lsystem = new LSystem();
+        lsystem.setGrammar(alphabet, "a", rule);
+        return lsystem;
+    }
+    /** Create the same L-system as another one. */
+    static LSystem copyGrammar(LSystem lsystem) {
+        LSystem copy = new LSystem();
+        copy.setSeed(lsystem.getSeed());
+        copy.setGrammar(lsystem.m_alphabet, lsystem.m_axiom, lsystem.m_rule);
+        return copy;
+    }
+
+    @Test
+    void roundTripAtEachBitsPerSymbol() throws IOException {
+        int [][] symbolsAndBits = {{2, 1}, {3, 2}, {4, 2}, {5, 4}, {16, 4}, {17, 8}, {40, 8}};
+        for (int [] sb : symbolsAndBits) {
+            LSystem lsystem = createWithSymbols(sb[0]);
+            assertEquals(sb[1], LSystemSnapshot.getBitsPerSymbol(lsystem.getGrammar().getNumSymbols()));
+            lsystem.iterate(9);
+            File file = m_dir.resolve("state"+sb[0]+LSystemSnapshot.EXTENSION).toFile();
+            LSystemSnapshot.save(lsystem, file);
+            long len = lsystem.getStateLength();
+            long numWords = (len*sb[1]+63)/64;
+            assertEquals(LSystemSnapshot.HEADER_SIZE+8*numWords, file.length(), sb[0]+" symbols");
+
+            LSystem loaded = copyGrammar(lsystem);
+            LSystemSnapshot.load(loaded, file);
+            assertEquals(9, loaded.getGeneration());
+            assertEquals(lsystem.getTree(), loaded.getTree(), sb[0]+" symbols");
+            // the derivation continues from the snapshot
+            lsystem.advance(10);
+            loaded.advance(10);
+            assertEquals(lsystem.getTree(), loaded.getTree(), sb[0]+" symbols");
+        }
+    }
+    @Test
+    void snapshotOfOtherGrammarOrSeedIsRejected() throws IOException {
+        String [] grammar = LSystemTest.GRAMMARS[0];
+        LSystem lsystem = LSystemTest.create(grammar);
+        lsystem.iterate(3);
+        File file = m_dir.resolve("tree"+LSystemSnapshot.EXTENSION).toFile();
+        LSystemSnapshot.save(lsystem, file);
+        LSystem other = LSystemTest.create(LSystemTest.GRAMMARS[1]);
+        assertThrows(IOException.class, () -> LSystemSnapshot.load(other, file));
+
+        char [] alphabet = "F+-[]".toCharArray();
+        String [] rule = {"F[+F]F;F[-F]F", "+", "-", "[", "]"};
+        LSystem stochastic = new LSystem();
+        stochastic.setSeed(1);
+        stochastic.setGrammar(alphabet, "F", rule);
+        stochastic.iterate(4);
+        LSystemSnapshot.save(stochastic, file);
+        LSystem otherSeed = copyGrammar(stochastic);
+        otherSeed.setSeed(2);
+        assertThrows(IOException.class, () -> LSystemSnapshot.load(otherSeed, file));
+        LSystem sameSeed = copyGrammar(stochastic);
+        LSystemSnapshot.load(sameSeed, file);
+        assertEquals(stochastic.getTree(), sameSeed.getTree());
+    }
+    @Test
+    void damagedFilesAreRejected() throws IOException {
+        LSystem lsystem = LSystemTest.create(LSystemTest.GRAMMARS[0]);
+        lsystem.iterate(4);
+        File file = m_dir.resolve("tree"+LSystemSnapshot.EXTENSION).toFile();
+        LSystem loaded = copyGrammar(lsystem);
+
+        // truncated symbols
+        LSystemSnapshot.save(lsystem, file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length()-8);
+        }
+        assertThrows(IOException.class, () -> LSystemSnapshot.load(loaded, file));
+        // truncated header
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(LSystemSnapshot.HEADER_SIZE-1);
+        }
+        assertThrows(IOException.class, () -> LSystemSnapshot.load(loaded, file));
+        // wrong magic number
+        LSystemSnapshot.save(lsystem, file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(0);
+        }
+        assertThrows(IOException.class, () -> LSystemSnapshot.load(loaded, file));
+        // codes beyond the symbols of the grammar
+        LSystemSnapshot.save(lsystem, file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(LSystemSnapshot.HEADER_SIZE);
+            raf.writeLong(-1L);
+        }
+        assertThrows(IOException.class, () -> LSystemSnapshot.load(loaded, file));
+    }
+    @Test
+    void advanceContinuesFromSavedSnapshot() throws IOException {
+        String [] grammar = LSystemTest.GRAMMARS[1];
+        File dir = m_dir.toFile();
+        LSystem first = LSystemTest.create(grammar);
+        assertEquals(-1, LSystemSnapshot.advance(first, dir, 4));
+        File file = LSystemSnapshot.getFile(dir, first.getGrammar(), first.getSeed(), 4);
+        assertTrue(file.isFile());
+        // the snapshot is published by renaming, no temporary file is left
+        String [] names = dir.list();
+        assertEquals(1, names.length);
+        assertEquals(file.getName(), names[0]);
+
+        LSystem second = LSystemTest.create(grammar);
+        assertEquals(4, LSystemSnapshot.advance(second, dir, 5));
+        assertEquals(LSystemTest.derive(grammar, 5), second.getTree());
+        assertEquals(2, dir.list().length);
+        LSystem third = LSystemTest.create(grammar);
+        assertEquals(5, LSystemSnapshot.advance(third, dir, 5));
+        assertEquals(LSystemTest.derive(grammar, 5), third.getTree());
+    }
+}
@@ -0,0 +1,54 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Statistics computed from the grammar equal those read from the derived state,
+ * including the depth of unbalanced brackets.
+ */
+class LSystemStatisticsTest {
+    /** Grammars whose brackets are not balanced in each production. */
+    static final String [][] UNBALANCED = {
+        {"F+-[]", "F", "F]F[[F", "+", "-", "[", "]"},
+        {"AB[]", "A]", "A[B", "]B]A[", "[", "]"},
+        {"AB[]", "[A", "A]]B[", "B[", "[[", "]"},
+        {"F[]", "]]F[", "F]F[F", "", "]"},
+    };
+
+    @Test
+    void grammarStatisticsEqualStreamStatistics() {
+        for (String [][] grammars : new String [][][] {LSystemTest.GRAMMARS, UNBALANCED}) {
+            for (String [] grammar : grammars) {
+                LSystem lsystem = LSystemTest.create(grammar);
+                for (int n=0; n<6; n++) {
+                    lsystem.iterate(n);
+                    LSystemStatistics expected	= new LSystemStatistics(lsystem.stream());
+                    LSystemStatistics statistics	= new LSystemStatistics(lsystem.getGrammar(), n);
+                    assertEquals(expected.toString(), statistics.toString(), grammar[2]+" generation "+n);
+                }
+            }
+        }
+    }
+    @Test
+    void streamStatisticsCountSymbolsAndDepth() {
+        LSystemStatistics statistics = new LSystemStatistics(new LSystemStateStream("F]F[[F]+[F"));
+        assertEquals(10, statistics.getLength());
+        assertEquals(4, statistics.getCount('F'));
+        assertEquals(3, statistics.getCount('['));
+        assertEquals(2, statistics.getCount(']'));
+        assertEquals(2, statistics.getMaxDepth());
+    }
+    @Test
+    void statisticsOfDeepGenerationsAreClamped() {
+        LSystem lsystem = new LSystem();
+        lsystem.setGrammar("F[]".toCharArray(), "F", new String [] {"[[F]]F", "[", "]"});
+        assertEquals(2000, lsystem.getGrammar().getMaxDepth(1000));
+        LSystemStatistics statistics = new LSystemStatistics(lsystem.getGrammar(), 100);
+        assertEquals(Long.MAX_VALUE, statistics.getLength());
+        assertEquals(200, statistics.getMaxDepth());
+        lsystem.setGrammar("F[]".toCharArray(), "F", new String [] {"[FF", "[[", "]"});
+        assertEquals(Integer.MAX_VALUE, new LSystemStatistics(lsystem.getGrammar(), 100).getMaxDepth());
+    }
+}
@@ -0,0 +1,68 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Stochastic rules: the random choices depend only on the seed, the generation
+ * and the position, so every way of deriving a state must agree, and the
+ * alternatives must be chosen in proportion to their weights.
+ */
+class LSystemStochasticTest {
+    @Test
+    void stochasticRewriteDependsOnlyOnSeed() {
+        char [] alphabet = "F+-[]".toCharArray();
+        String [] rule = {"1:F[+F]F;1:F[-F]F;2:FF", "+", "-", "[", "]"};
+        LSystem reference = new LSystem();
+        reference.setSeed(7);
+        reference.setGrammar(alphabet, "F", rule);
+        reference.setParallelism(1);
+        reference.iterate(5);
+        String expected = reference.getTree();
+        assertEquals(expected, LSystemTest.read(reference.cursor(5)));
+        for (int variant=0; variant<4; variant++) {
+            LSystem lsystem = new LSystem();
+            lsystem.setSeed(7);
+            lsystem.setGrammar(alphabet, "F", rule);
+            lsystem.setParallelism(4);
+            lsystem.setParallelThreshold(1);
+            if (variant == 1)
+                lsystem.setCacheSize(1<<20);
+            if (variant >= 2)
+                lsystem.setPackedThreshold(0);
+            if (variant == 3)
+                lsystem.setOffHeap(true);
+            lsystem.iterate(3);
+            lsystem.iterate(5);
+            assertEquals(expected, lsystem.getTree(), "variant "+variant);
+        }
+        LSystem other = new LSystem();
+        other.setSeed(8);
+        other.setGrammar(alphabet, "F", rule);
+        other.iterate(5);
+        assertNotEquals(expected, other.getTree());
+    }
+    @Test
+    void alternativesFollowWeights() {
+        int len = 40000;
+        StringBuilder axiom = new StringBuilder(len);
+        for (int i=0; i<len; i++)
+            axiom.append('A');
+        for (long seed=0; seed<3; seed++) {
+            LSystem lsystem = new LSystem();
+            lsystem.setSeed(seed);
+            lsystem.setGrammar("ABC".toCharArray(), axiom.toString(), new String [] {"1:B;3:C", "B", "C"});
+            lsystem.iterate(1);
+            String state = lsystem.getTree();
+            assertEquals(len, state.length());
+            long numB = state.chars().filter(c -> c == 'B').count();
+            long numC = state.chars().filter(c -> c == 'C').count();
+            assertEquals(len, numB+numC);
+            // a quarter within five standard deviations
+            assertTrue(Math.abs(numB-len/4) < 5*Math.sqrt(len*3./16.), "B chosen "+numB+" times");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Serial rewrite of LSystem compared with a plain string rewrite. The grammars
+ * and helpers are shared with the tests of parallel rewriting, lazy and
+ * progressive derivation, the expansion cache, packed and off-heap states,
+ * and stochastic and parametric rules.
+ */
+class LSystemTest {
+    /** Alphabet, axiom and rules of each grammar. */
+    static final String [][] GRAMMARS = {
+        {"F+-[]", "F", "F[+F]F[-F]F", "+", "-", "[", "]"},
+        {"F+-[]", "F", "F[+F][-F[-F]F]+F", "+", "-", "[", "]"},
+        {"FXY+-", "FX", "F", "X+YF+", "-FX-Y", "+", "-"},
+        {"AB+-F", "A", "+BF-AF-FB+", "-AF+BF+FA-", "+", "-", "F"},
+    };
+
+    /** Create an L-system of a grammar, see GRAMMARS. */
+    static LSystem create(String [] grammar) {
+        LSystem lsystem = new LSystem();
+        String [] rule = new String[grammar.length-2];
+        System.arraycopy(grammar, 2, rule, 0, rule.length);
+        lsystem.setGrammar(grammar[0].toCharArray(), grammar[1], rule);
+        return lsystem;
+    }
+    /** Derive a generation by replacing each character with its rule. */
+    static String derive(String alphabet, String axiom, String [] rule, int numGenerations) {
+        String state = axiom;
+        for (int g=0; g<numGenerations; g++) {
+            StringBuilder next = new StringBuilder();
+            for (int i=0; i<state.length(); i++) {
+                int code = alphabet.indexOf(state.charAt(i));
+                next.append(code < 0 ? String.valueOf(state.charAt(i)) : rule[code]);
+            }
+            state = next.toString();
+        }
+        return state;
+    }
+    static String derive(String [] grammar, int numGenerations) {
+        String [] rule = new String[grammar.length-2];
+        System.arraycopy(grammar, 2, rule, 0, rule.length);
+        return derive(grammar[0], grammar[1], rule, numGenerations);
+    }
+
+    @Test
+    void serialRewriteEqualsStringRewrite() {
+        for (String [] grammar : GRAMMARS) {
+            LSystem lsystem = create(grammar);
+            lsystem.setParallelism(1);
+            for (int n=0; n<6; n++) {
+                lsystem.iterate(n);
+                String expected = derive(grammar, n);
+                assertEquals(expected, lsystem.getTree(), grammar[2]+" generation "+n);
+                assertEquals(expected.length(), lsystem.getLength(n));
+            }
+        }
+    }
+    /** Read all symbols of a stream. */
+    static String read(LSystemStreamIf stream) {
+        StringBuilder str = new StringBuilder();
+        stream.rewind();
+        int c;
+        while ((c = stream.nextSymbol()) != LSystemStreamIf.EOS)
+            str.append((char)c);
+        return str.toString();
+    }
+}
@@ -0,0 +1,163 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Vertices and polygons of the turtle: bracket handling, parallel against serial
+ * interpretation, and angle-only updates. The 3D turtle must agree with the
+ * turtle on planar programs and follow pitch and roll exactly at right angles.
+ */
+class LSystemTurtleTest {
+    static LSystemProgram compile(String symbols) {
+        LSystemProgram program = new LSystemProgram();
+        program.compile(new LSystemStateStream(symbols));
+        return program;
+    }
+    static LSystemTurtle interpret(LSystemProgram program, double delta, int parallelism) {
+        LSystemTurtle turtle = new LSystemTurtle();
+        turtle.setParallelism(parallelism);
+        turtle.setParallelThreshold(1);
+        turtle.interpret(program, delta);
+        return turtle;
+    }
+    static void assertSameGeometry(LSystemTurtle expected, LSystemTurtle actual) {
+        int numVertices = expected.getNumVertices();
+        int numPolygons = expected.getNumPolygons();
+        assertEquals(numVertices, actual.getNumVertices());
+        assertEquals(numPolygons, actual.getNumPolygons());
+        assertArrayEquals(Arrays.copyOf(expected.getVertices(), LSystemTurtle.DIM*numVertices),
+                          Arrays.copyOf(actual.getVertices(), LSystemTurtle.DIM*numVertices), 1.e-12);
+        assertArrayEquals(Arrays.copyOf(expected.getPolygonStart(), numPolygons+1),
+                          Arrays.copyOf(actual.getPolygonStart(), numPolygons+1));
+        int numIndices = expected.getPolygonStart()[numPolygons];
+        assertArrayEquals(Arrays.copyOf(expected.getPolygonIndices(), numIndices),
+                          Arrays.copyOf(actual.getPolygonIndices(), numIndices));
+    }
+
+    @Test
+    void unclosedBranchesRunToTheEnd() {
+        LSystemProgram program = compile("F[+F[+FF[-F");
+        assertEquals(6, program.getNumVertices());
+        assertEquals(4, program.getNumPolygons());
+        LSystemTurtle serial = interpret(program, 90., 1);
+        LSystemTurtle parallel = interpret(program, 90., 4);
+        assertSameGeometry(serial, parallel);
+        // the trunk is the last polygon, the innermost branch the first
+        int [] start = serial.getPolygonStart();
+        int [] index = serial.getPolygonIndices();
+        assertArrayEquals(new int[] {4, 5}, Arrays.copyOfRange(index, start[0], start[1]));
+        assertArrayEquals(new int[] {0, 1}, Arrays.copyOfRange(index, start[3], start[4]));
+    }
+    @Test
+    void unmatchedClosingBracketsAreIgnored() {
+        LSystemProgram program = compile("F]]F[+F]]F");
+        assertEquals(5, program.getNumVertices());
+        assertEquals(2, program.getNumPolygons());
+        assertSameGeometry(interpret(program, 90., 1), interpret(program, 90., 4));
+    }
+    @Test
+    void parallelInterpretationEqualsSerial() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            LSystem lsystem = LSystemTest.create(grammar);
+            lsystem.iterate(5);
+            LSystemProgram program = new LSystemProgram();
+            program.compile(lsystem.stream());
+            for (double delta : new double[] {90., 25.7, 60.})
+                assertSameGeometry(interpret(program, delta, 1), interpret(program, delta, 4));
+        }
+    }
+    @Test
+    void stepsFollowHeadings() {
+        LSystemTurtle turtle = interpret(compile("F+F-[-F]F"), 90., 1);
+        double s = LSystemTurtle.DEF_STEP_SIZE;
+        double [] expected = {0., 0., 0., s, -s, s, 0., s, -s, 2*s};
+        assertArrayEquals(expected, Arrays.copyOf(turtle.getVertices(), expected.length), 1.e-12);
+    }
+    @Test
+    void interpretVerticesEqualsInterpret() {
+        LSystem lsystem = LSystemTest.create(LSystemTest.GRAMMARS[1]);
+        lsystem.iterate(4);
+        LSystemProgram program = new LSystemProgram();
+        program.compile(lsystem.stream());
+        LSystemTurtle turtle = interpret(program, 25., 1);
+        turtle.interpretVertices(program, 37.5);
+        assertSameGeometry(interpret(program, 37.5, 1), turtle);
+    }
+    /** Interpret symbols with the 3D turtle and a step size of 1. */
+    static LSystemTurtle3D interpret3D(String symbols, double delta) {
+        LSystemProgram program = new LSystemProgram();
+        program.set3D(true);
+        program.compile(new LSystemStateStream(symbols));
+        LSystemTurtle3D turtle = new LSystemTurtle3D();
+        turtle.setStepSize(1.);
+        turtle.interpret(program, delta);
+        return turtle;
+    }
+    @Test
+    void planarProgramIn3DEqualsTurtle() {
+        for (String [] grammar : LSystemTest.GRAMMARS) {
+            LSystem lsystem = LSystemTest.create(grammar);
+            lsystem.iterate(4);
+            LSystemProgram program = new LSystemProgram();
+            program.compile(lsystem.stream());
+            LSystemProgram program3D = new LSystemProgram();
+            program3D.set3D(true);
+            program3D.compile(lsystem.stream());
+            for (double delta : new double[] {90., 25.7}) {
+                LSystemTurtle expected = interpret(program, delta, 1);
+                LSystemTurtle3D turtle = new LSystemTurtle3D();
+                turtle.interpret(program3D, delta);
+                int numVertices = expected.getNumVertices();
+                int numPolygons = expected.getNumPolygons();
+                assertEquals(numVertices, turtle.getNumVertices());
+                assertEquals(numPolygons, turtle.getNumPolygons());
+                double [] vertex = new double[LSystemTurtle3D.DIM*numVertices];
+                for (int i=0; i<numVertices; i++) {
+                    vertex[3*i]		= expected.getVertices()[2*i];
+                    vertex[3*i+1]	= expected.getVertices()[2*i+1];
+                }
+                assertArrayEquals(vertex, Arrays.copyOf(turtle.getVertices(), vertex.length), 1.e-9, grammar[2]+" angle "+delta);
+                assertArrayEquals(Arrays.copyOf(expected.getPolygonStart(), numPolygons+1),
+                                  Arrays.copyOf(turtle.getPolygonStart(), numPolygons+1));
+                int numIndices = expected.getPolygonStart()[numPolygons];
+                assertArrayEquals(Arrays.copyOf(expected.getPolygonIndices(), numIndices),
+                                  Arrays.copyOf(turtle.getPolygonIndices(), numIndices));
+            }
+        }
+    }
+    @Test
+    void pitchAndRollFollowFrame() {
+        // '&' pitches down to -z, '^^' turns the heading to +z, '|' turns around
+        LSystemTurtle3D turtle = interpret3D("F&F^^F\\+F|F", 90.);
+        double [] expected = {0., 0., 0.,  0., 1., 0.,  0., 1., -1.,  0., 1., 0.,  0., 2., 0.,  0., 1., 0.};
+        assertEquals(6, turtle.getNumVertices());
+        assertArrayEquals(expected, Arrays.copyOf(turtle.getVertices(), expected.length), 1.e-12);
+        // rolling moves the left vector, so the following turn leaves the xy-plane
+        assertArrayEquals(new double[] {0., 0., 0., 0., 0., -1.},
+                          Arrays.copyOf(interpret3D("\\+F", 90.).getVertices(), 6), 1.e-12);
+        assertArrayEquals(new double[] {0., 0., 0., 0., 0., 1.},
+                          Arrays.copyOf(interpret3D("/+F", 90.).getVertices(), 6), 1.e-12);
+    }
+    @Test
+    void quarterTurnsAreExact() {
+        StringBuilder symbols = new StringBuilder();
+        for (int i=0; i<200; i++)
+            symbols.append("F&F\\+F^F/-F|");
+        LSystemTurtle3D turtle = interpret3D(symbols.toString(), 90.);
+        double [] vertex = turtle.getVertices();
+        for (int i=0; i<LSystemTurtle3D.DIM*turtle.getNumVertices(); i++)
+            assertEquals(Math.rint(vertex[i]), vertex[i], 0., "coordinate "+i);
+    }
+    @Test
+    void buffersBeyondLargestArrayFail() {
+        int numVertices = LSystemTurtle.MAX_ARRAY_LENGTH/LSystemTurtle.DIM+1;
+        assertThrows(IllegalStateException.class, () -> new LSystemTurtle().assureCapacity(numVertices, 1, 0));
+        assertThrows(IllegalStateException.class, () -> new LSystemTurtle3D().assureCapacity(numVertices, 1, 0));
+    }
+}
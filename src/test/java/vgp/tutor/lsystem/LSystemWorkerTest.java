@@ -0,0 +1,36 @@
+package vgp.tutor.lsystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Jobs and tasks of the worker thread: errors are reported and do not stop
+ * later jobs.
+ */
+class LSystemWorkerTest {
+    @Test
+    void jobRunsAfterError() throws InterruptedException {
+        final AtomicReference<Throwable> reported = new AtomicReference<Throwable>();
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> reported.set(e));
+        try {
+            LSystemWorker worker = new LSystemWorker("worker test");
+            final CountDownLatch done = new CountDownLatch(1);
+            // tasks run before the waiting job
+            worker.execute(() -> {
+                throw new OutOfMemoryError("thrown by test");
+            });
+            worker.submit(cancelled -> done.countDown());
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals("thrown by test", reported.get().getMessage());
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+}